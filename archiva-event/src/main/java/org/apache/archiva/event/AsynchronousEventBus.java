@@ -19,69 +19,258 @@ package org.apache.archiva.event;
  * under the License.
  */
 
-import java.util.Collections;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Simple Async Event Bus implementation
+ * <p/>
+ * By default every event and observer pair is a task on a shared pool. With {@link DispatchMode#OBSERVER_LANES} each
+ * observer gets an {@link ObserverLane} of its own instead, which keeps the events it sees in emit order.
+ * <p/>
+ * The bus starts dispatching as soon as it is constructed. {@link #shutdown(long, TimeUnit)} stops accepting events
+ * and lets the ones already emitted be observed, {@link #shutdownNow()} abandons them. The bus threads are daemon
+ * threads, so a bus that is never shut down does not keep the JVM alive. {@link #getMetrics()} tells how well the
+ * observers keep up.
  * 
  * @author jdumay
  */
 public class AsynchronousEventBus implements EventBus
 {
-    private final Set<EventObserver> observers = Collections.synchronizedSet(new HashSet());
+    private enum State
+    {
+        NEW, RUNNING, SHUTDOWN, TERMINATED
+    }
+
+    private final SubscriptionTable subscriptions = new SubscriptionTable();
 
     private final BlockingQueue<Event> events = new LinkedBlockingQueue<Event>();
 
     private final Thread workerThread;
 
-    private final int threads;
+    private final DispatchMode dispatchMode;
+
+    private final ExecutorService service;
+
+    private final Map<EventObserver, ObserverLane> lanes = new ConcurrentHashMap<EventObserver, ObserverLane>();
+
+    private final EventBusMetrics metrics = new EventBusMetrics(events);
+
+    private volatile State state = State.NEW;
 
     public AsynchronousEventBus(int threads)
     {
-        this.threads = threads;
-        workerThread = new Thread(new WorkerRunnable());
-        workerThread.start();
+        this(threads, DispatchMode.SHARED_POOL);
+    }
+
+    public AsynchronousEventBus(int threads, DispatchMode dispatchMode)
+    {
+        this.dispatchMode = dispatchMode;
+        service = Executors.newFixedThreadPool(threads, new DaemonThreadFactory());
+        workerThread = new Thread(new WorkerRunnable(), "event-bus-worker");
+        workerThread.setDaemon(true);
+        start();
+    }
+
+    /**
+     * Starts dispatching events, which the constructor already does
+     * @throws IllegalStateException if the bus was shut down
+     */
+    public synchronized void start()
+    {
+        if (state == State.NEW)
+        {
+            state = State.RUNNING;
+            metrics.started();
+            workerThread.start();
+        }
+        else if (state != State.RUNNING)
+        {
+            throw new IllegalStateException("Event bus is shut down");
+        }
+    }
+
+    /**
+     * Stops accepting events and waits for the events already emitted to be observed
+     * @param timeout the longest time to wait
+     * @param unit
+     * @return true if all events were observed in time, false if the bus is still draining
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (this)
+        {
+            if (state == State.RUNNING)
+            {
+                state = State.SHUTDOWN;
+                // wake the worker if it is waiting for events, so it notices
+                workerThread.interrupt();
+            }
+        }
+
+        long remaining = deadline - System.nanoTime();
+        if (remaining > 0)
+        {
+            TimeUnit.NANOSECONDS.timedJoin(workerThread, remaining);
+        }
+        if (workerThread.isAlive())
+        {
+            return false;
+        }
+        remaining = deadline - System.nanoTime();
+        boolean terminated = service.awaitTermination(Math.max(remaining, 0), TimeUnit.NANOSECONDS);
+        if (terminated)
+        {
+            state = State.TERMINATED;
+        }
+        return terminated;
+    }
+
+    /**
+     * Stops accepting events, discards the ones that have not been handed to an observer yet and interrupts the
+     * observers still running
+     * @return the events that were not dispatched to any observer
+     */
+    public List<Event> shutdownNow()
+    {
+        synchronized (this)
+        {
+            state = State.TERMINATED;
+        }
+        workerThread.interrupt();
+        for (ObserverLane lane : lanes.values())
+        {
+            lane.close();
+        }
+        service.shutdownNow();
+
+        List<Event> remaining = new ArrayList<Event>();
+        events.drainTo(remaining);
+        return remaining;
     }
 
+    /**
+     * @return true once the bus is shut down and every observer has finished
+     */
+    public boolean isTerminated()
+    {
+        return state == State.TERMINATED
+            || (state == State.SHUTDOWN && !workerThread.isAlive() && service.isTerminated());
+    }
+
+    /**
+     * Emit a event
+     * @throws IllegalStateException if the bus is shut down
+     */
     public void emit(EventEmitter emitter, EventMessage message)
     {
-        events.offer(new Event(emitter, message));
+        Event event = new Event(emitter, message);
+        // the worker leaves once it sees the bus shut down and the queue empty, so an event must not be queued after
+        // the state changed
+        synchronized (this)
+        {
+            if (state != State.RUNNING)
+            {
+                throw new IllegalStateException("Event bus is shut down");
+            }
+            events.offer(event);
+        }
+        metrics.emitted();
     }
 
     public void subscribe(EventObserver observer)
     {
-        observers.add(observer);
+        subscribe(EventMessage.class, observer);
+    }
+
+    public void subscribe(Class<? extends EventMessage> type, EventObserver observer)
+    {
+        synchronized (subscriptions)
+        {
+            subscriptions.subscribe(type, observer);
+            metrics.subscribed(observer);
+            if (dispatchMode == DispatchMode.OBSERVER_LANES && !lanes.containsKey(observer))
+            {
+                lanes.put(observer, new ObserverLane(observer, service, metrics));
+            }
+        }
     }
 
     public void unsubscribe(EventObserver observer)
     {
-        observers.remove(observer);
+        synchronized (subscriptions)
+        {
+            subscriptions.unsubscribe(observer);
+            metrics.unsubscribed(observer);
+            ObserverLane lane = lanes.remove(observer);
+            if (lane != null)
+            {
+                lane.close();
+            }
+        }
+    }
+
+    public DispatchMode getDispatchMode()
+    {
+        return dispatchMode;
+    }
+
+    /**
+     * Get the lane of an observer, with its depth and latency
+     * @param observer
+     * @return the lane, or null if the observer is not subscribed or the bus does not use lanes
+     */
+    public ObserverLane getLane(EventObserver observer)
+    {
+        return lanes.get(observer);
+    }
+
+    /**
+     * Get the lanes of all observers, empty unless the bus uses {@link DispatchMode#OBSERVER_LANES}
+     * @return
+     */
+    public Map<EventObserver, ObserverLane> getLanes()
+    {
+        return new HashMap<EventObserver, ObserverLane>(lanes);
+    }
+
+    public EventBusMetrics getMetrics()
+    {
+        return metrics;
     }
 
     public Set<EventObserver> getObservers() {
-        return new HashSet<EventObserver>(observers);
+        return subscriptions.getObservers();
     }
 
     class WorkerRunnable implements Runnable
     {
-        private final ExecutorService service;
-
-        public WorkerRunnable()
-        {
-            service = Executors.newFixedThreadPool(threads);
-        }
-        
         public void run()
         {
-            while (true)
+            try
+            {
+                while (state == State.RUNNING || (state == State.SHUTDOWN && !events.isEmpty()))
+                {
+                    dequeueAndExecute();
+                }
+            }
+            finally
             {
-                dequeueAndExecute();
+                // lets queued observer tasks and lanes finish, see shutdown()
+                service.shutdown();
             }
         }
 
@@ -89,20 +278,42 @@ public class AsynchronousEventBus implements EventBus
         {
             try
             {
-                final Event event = events.take();
-                for (final EventObserver observer : observers)
+                final Event event = state == State.RUNNING ? events.take() : events.poll();
+                if (event == null)
+                {
+                    return;
+                }
+                EventObserver[] interested = subscriptions.getObservers(event.getMessage());
+                if (dispatchMode == DispatchMode.OBSERVER_LANES)
+                {
+                    for (EventObserver observer : interested)
+                    {
+                        ObserverLane lane = lanes.get(observer);
+                        if (lane != null)
+                        {
+                            lane.enqueue(event);
+                        }
+                    }
+                    return;
+                }
+                for (final EventObserver observer : interested)
                 {
                     service.execute(new Runnable()
                     {
                         public void run()
                         {
+                            long start = System.nanoTime();
                             try
                             {
                                 observer.observe(event);
                             }
+                            catch (RuntimeException e)
+                            {
+                                // an observer failing must not take the pool thread with it
+                            }
                             finally
                             {
-                                //log me
+                                metrics.observed(observer, event, start, System.nanoTime());
                             }
                         }
                     });
@@ -110,8 +321,20 @@ public class AsynchronousEventBus implements EventBus
             }
             catch (InterruptedException e)
             {
-                //Do nothing
+                // woken up by a shutdown, the loop condition decides whether to go on
             }
         }
     }
+
+    private final class DaemonThreadFactory implements ThreadFactory
+    {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, "event-bus-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
 }
@@ -0,0 +1,55 @@
+package org.apache.archiva.event;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock free helpers for the counters kept by the bus and its observers
+ */
+final class Atomics
+{
+    private Atomics()
+    {
+    }
+
+    /**
+     * Raises a running maximum to the given value, unless it is already at least as high
+     */
+    static void raise(AtomicLong max, long value)
+    {
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value))
+        {
+        }
+    }
+
+    /**
+     * Raises a running maximum to the given value, unless it is already at least as high
+     */
+    static void raise(AtomicInteger max, int value)
+    {
+        int current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value))
+        {
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package org.apache.archiva.event;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * What a bounded EventBus does with an event emitted while it is full
+ */
+public enum BackpressurePolicy
+{
+    /**
+     * The emitting thread waits until there is room
+     */
+    BLOCK,
+
+    /**
+     * The oldest event not yet dispatched is discarded to make room
+     */
+    DROP_OLDEST,
+
+    /**
+     * The emitting thread dispatches the event to the observers itself, which slows the emitter down to the rate
+     * the observers can take. The event may then be observed before events emitted earlier
+     */
+    CALLER_RUNS
+}
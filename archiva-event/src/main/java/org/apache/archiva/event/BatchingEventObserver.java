@@ -0,0 +1,268 @@
+package org.apache.archiva.event;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the events it observes into batches for a {@link BatchEventObserver}.
+ * <p/>
+ * Observed events are queued and returned to the bus thread at once. A thread of its own drains the queue: once an
+ * event is waiting it collects up to the maximum batch size, waiting at most the maximum delay from the time the first
+ * of them was observed, and hands the batch over in one call. Batch sizes and flush latency, the time from the first
+ * event of a batch being observed until the batch observer returned, are kept as metrics.
+ */
+public class BatchingEventObserver implements EventObserver
+{
+    /**
+     * Queued by close() behind the last events, so the drainer is never interrupted in the middle of a batch
+     */
+    private static final Entry CLOSE = new Entry(null, 0);
+
+    private final BatchEventObserver target;
+
+    private final int maxBatchSize;
+
+    private final long maxDelayNanos;
+
+    private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<Entry>();
+
+    private final Thread drainer;
+
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final AtomicLong batches = new AtomicLong();
+
+    private final AtomicLong events = new AtomicLong();
+
+    private final AtomicLong largestBatch = new AtomicLong();
+
+    private final AtomicLong totalFlushLatency = new AtomicLong();
+
+    private final AtomicLong maxFlushLatency = new AtomicLong();
+
+    /**
+     * @param target the observer to hand the batches to
+     * @param maxBatchSize the largest number of events in a batch
+     * @param maxDelayMillis the longest time an event waits for its batch to fill up
+     */
+    public BatchingEventObserver(BatchEventObserver target, int maxBatchSize, long maxDelayMillis)
+    {
+        if (target == null)
+        {
+            throw new IllegalArgumentException("Batch observer must be given");
+        }
+        if (maxBatchSize < 1)
+        {
+            throw new IllegalArgumentException("Batch size must be at least 1: " + maxBatchSize);
+        }
+        if (maxDelayMillis < 0)
+        {
+            throw new IllegalArgumentException("Delay must not be negative: " + maxDelayMillis);
+        }
+        this.target = target;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+
+        drainer = new Thread(new DrainerRunnable(), "event-batcher");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    public void observe(Event event)
+    {
+        pending.incrementAndGet();
+        queue.add(new Entry(event, System.nanoTime()));
+    }
+
+    /**
+     * Delivers the events still queued and stops the drainer thread. Unsubscribe from the bus first: events observed
+     * afterwards are not delivered
+     * @throws InterruptedException if interrupted while waiting for the last batches
+     */
+    public void close() throws InterruptedException
+    {
+        queue.add(CLOSE);
+        drainer.join();
+    }
+
+    public BatchEventObserver getTarget()
+    {
+        return target;
+    }
+
+    /**
+     * @return the number of events observed but not handed to the batch observer yet
+     */
+    public int getPendingCount()
+    {
+        return pending.get();
+    }
+
+    public long getBatchCount()
+    {
+        return batches.get();
+    }
+
+    public long getEventCount()
+    {
+        return events.get();
+    }
+
+    public double getAverageBatchSize()
+    {
+        long count = batches.get();
+        return count == 0 ? 0 : (double) events.get() / count;
+    }
+
+    public long getLargestBatchSize()
+    {
+        return largestBatch.get();
+    }
+
+    public double getAverageFlushLatencyMillis()
+    {
+        long count = batches.get();
+        return count == 0 ? 0 : totalFlushLatency.get() / (count * 1000000.0);
+    }
+
+    public double getMaxFlushLatencyMillis()
+    {
+        return maxFlushLatency.get() / 1000000.0;
+    }
+
+    class DrainerRunnable implements Runnable
+    {
+        private final List<Entry> entries = new ArrayList<Entry>();
+
+        private final List<Event> batch = new ArrayList<Event>();
+
+        public void run()
+        {
+            boolean closing = false;
+            try
+            {
+                while (!closing)
+                {
+                    Entry first = queue.take();
+                    if (first == CLOSE)
+                    {
+                        break;
+                    }
+                    entries.add(first);
+                    long deadline = first.observed + maxDelayNanos;
+                    while (entries.size() < maxBatchSize && !closing)
+                    {
+                        int drained = entries.size();
+                        if (queue.drainTo(entries, maxBatchSize - entries.size()) > 0)
+                        {
+                            List<Entry> added = entries.subList(drained, entries.size());
+                            closing = added.removeAll(Collections.singleton(CLOSE));
+                            continue;
+                        }
+                        long remaining = deadline - System.nanoTime();
+                        Entry entry = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                        if (entry == null)
+                        {
+                            break;
+                        }
+                        if (entry == CLOSE)
+                        {
+                            closing = true;
+                        }
+                        else
+                        {
+                            entries.add(entry);
+                        }
+                    }
+                    deliver();
+                }
+            }
+            catch (InterruptedException e)
+            {
+                // close() never interrupts, so someone else wants the thread gone: stop all the same
+                Thread.currentThread().interrupt();
+            }
+
+            // closing: deliver what is left without waiting for more
+            queue.drainTo(entries);
+            entries.removeAll(Collections.singleton(CLOSE));
+            while (!entries.isEmpty())
+            {
+                deliver();
+            }
+        }
+
+        /**
+         * Delivers up to a batch from the start of the entries
+         */
+        private void deliver()
+        {
+            int size = Math.min(entries.size(), maxBatchSize);
+            for (int i = 0; i < size; i++)
+            {
+                batch.add(entries.get(i).event);
+            }
+            long first = entries.get(0).observed;
+            entries.subList(0, size).clear();
+            pending.addAndGet(-size);
+
+            try
+            {
+                target.observe(batch);
+            }
+            catch (RuntimeException e)
+            {
+                // a failing batch must not stop the ones after it
+            }
+            finally
+            {
+                batch.clear();
+            }
+
+            long latency = System.nanoTime() - first;
+            batches.incrementAndGet();
+            events.addAndGet(size);
+            Atomics.raise(largestBatch, size);
+            totalFlushLatency.addAndGet(latency);
+            Atomics.raise(maxFlushLatency, latency);
+        }
+    }
+
+    private static final class Entry
+    {
+        private final Event event;
+
+        private final long observed;
+
+        private Entry(Event event, long observed)
+        {
+            this.event = event;
+            this.observed = observed;
+        }
+    }
+}
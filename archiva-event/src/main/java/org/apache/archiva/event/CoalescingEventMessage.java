@@ -0,0 +1,34 @@
+package org.apache.archiva.event;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * EventMessage that stands for the state of something rather than a single change to it, so that when several of them
+ * with the same coalescing key are emitted in quick succession only the latest needs to be observed. For example the
+ * events for the jar, pom, checksums and metadata of a deployed artifact can share the artifact as their key
+ * @see CoalescingEventObserver
+ */
+public interface CoalescingEventMessage extends EventMessage
+{
+    /**
+     * @return the key of the messages this message supersedes; must implement equals and hashCode
+     */
+    Object getCoalescingKey();
+}
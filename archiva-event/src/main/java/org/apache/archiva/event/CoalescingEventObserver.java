@@ -0,0 +1,289 @@
+package org.apache.archiva.event;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds back {@link CoalescingEventMessage}s for a window, so that an observer is handed only the latest of the events
+ * that share a coalescing key within it.
+ * <p/>
+ * The window of a key opens when the first event with that key is observed and the latest event with the key is
+ * handed to the target observer by a thread of its own once the window has passed; the events it replaced are
+ * counted as suppressed. Other events are handed over directly on the bus thread, so they can overtake the coalesced
+ * events emitted before them. The target is handed one event at a time, whichever thread it comes from, so the bus
+ * thread waits while the target observes a coalesced event.
+ */
+public class CoalescingEventObserver implements EventObserver
+{
+    private final EventObserver target;
+
+    private final long windowNanos;
+
+    private final Map<Object, Window> windows = new LinkedHashMap<Object, Window>();
+
+    private final Thread flusher;
+
+    /**
+     * Set by close(), guarded by the windows
+     */
+    private boolean closing;
+
+    /**
+     * Held while the target observes, so that the bus and flusher threads never call it at the same time
+     */
+    private final Object deliveryLock = new Object();
+
+    private final AtomicLong observed = new AtomicLong();
+
+    private final AtomicLong delivered = new AtomicLong();
+
+    private final AtomicLong suppressed = new AtomicLong();
+
+    private final AtomicLong largestWindow = new AtomicLong();
+
+    /**
+     * @param target the observer to hand the events to
+     * @param windowMillis how long the events with a key are collected before the latest of them is handed over
+     */
+    public CoalescingEventObserver(EventObserver target, long windowMillis)
+    {
+        if (target == null)
+        {
+            throw new IllegalArgumentException("Observer must be given");
+        }
+        if (windowMillis < 0)
+        {
+            throw new IllegalArgumentException("Window must not be negative: " + windowMillis);
+        }
+        this.target = target;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+
+        flusher = new Thread(new FlusherRunnable(), "event-coalescer");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    public void observe(Event event)
+    {
+        observed.incrementAndGet();
+        if (!(event.getMessage() instanceof CoalescingEventMessage))
+        {
+            deliver(event);
+            return;
+        }
+
+        Object key = ((CoalescingEventMessage) event.getMessage()).getCoalescingKey();
+        synchronized (windows)
+        {
+            Window window = windows.get(key);
+            if (window == null)
+            {
+                windows.put(key, new Window(event, System.nanoTime() + windowNanos));
+                // windows are kept in the order they close in, so only a new first window moves the deadline
+                if (windows.size() == 1)
+                {
+                    windows.notifyAll();
+                }
+            }
+            else
+            {
+                window.event = event;
+                window.count++;
+                suppressed.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Hands over the events still held back and stops the flusher thread. Unsubscribe from the bus first: coalescing
+     * events observed afterwards are not delivered
+     * @throws InterruptedException if interrupted while waiting for the flusher thread
+     */
+    public void close() throws InterruptedException
+    {
+        synchronized (windows)
+        {
+            closing = true;
+            windows.notifyAll();
+        }
+        flusher.join();
+    }
+
+    public EventObserver getTarget()
+    {
+        return target;
+    }
+
+    /**
+     * @return the number of keys whose window is open
+     */
+    public int getPendingCount()
+    {
+        synchronized (windows)
+        {
+            return windows.size();
+        }
+    }
+
+    public long getObservedCount()
+    {
+        return observed.get();
+    }
+
+    public long getDeliveredCount()
+    {
+        return delivered.get();
+    }
+
+    /**
+     * @return the number of events that were replaced by a later one with the same key
+     */
+    public long getSuppressedCount()
+    {
+        return suppressed.get();
+    }
+
+    /**
+     * @return the fraction of the observed events that were suppressed
+     */
+    public double getSuppressionRatio()
+    {
+        long count = observed.get();
+        return count == 0 ? 0 : (double) suppressed.get() / count;
+    }
+
+    /**
+     * @return the largest number of events collapsed into one
+     */
+    public long getLargestWindowSize()
+    {
+        return largestWindow.get();
+    }
+
+    private void deliver(Event event)
+    {
+        delivered.incrementAndGet();
+        synchronized (deliveryLock)
+        {
+            try
+            {
+                target.observe(event);
+            }
+            catch (RuntimeException e)
+            {
+                // a failing observer must not stop the events after it
+            }
+        }
+    }
+
+    class FlusherRunnable implements Runnable
+    {
+        private final List<Window> closed = new ArrayList<Window>();
+
+        public void run()
+        {
+            try
+            {
+                while (true)
+                {
+                    synchronized (windows)
+                    {
+                        while (closed.isEmpty() && !closing)
+                        {
+                            long now = System.nanoTime();
+                            for (Iterator<Window> i = windows.values().iterator(); i.hasNext();)
+                            {
+                                Window window = i.next();
+                                if (window.deadline - now > 0)
+                                {
+                                    break;
+                                }
+                                closed.add(window);
+                                i.remove();
+                            }
+                            if (closed.isEmpty())
+                            {
+                                if (windows.isEmpty())
+                                {
+                                    windows.wait();
+                                }
+                                else
+                                {
+                                    long remaining = windows.values().iterator().next().deadline - now;
+                                    TimeUnit.NANOSECONDS.timedWait(windows, remaining);
+                                }
+                            }
+                        }
+                        if (closing)
+                        {
+                            break;
+                        }
+                    }
+                    flush();
+                }
+            }
+            catch (InterruptedException e)
+            {
+                // close() never interrupts, so someone else wants the thread gone: stop all the same
+                Thread.currentThread().interrupt();
+            }
+
+            // closing: hand over what is left without waiting for the windows to close
+            synchronized (windows)
+            {
+                closed.addAll(windows.values());
+                windows.clear();
+            }
+            flush();
+        }
+
+        private void flush()
+        {
+            for (Window window : closed)
+            {
+                Atomics.raise(largestWindow, window.count);
+                deliver(window.event);
+            }
+            closed.clear();
+        }
+    }
+
+    private static final class Window
+    {
+        private final long deadline;
+
+        private Event event;
+
+        private long count = 1;
+
+        private Window(Event event, long deadline)
+        {
+            this.event = event;
+            this.deadline = deadline;
+        }
+    }
+}
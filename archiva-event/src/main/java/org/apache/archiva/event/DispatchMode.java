@@ -0,0 +1,38 @@
+package org.apache.archiva.event;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * How {@link AsynchronousEventBus} hands events to its observers
+ */
+public enum DispatchMode
+{
+    /**
+     * Every event and observer pair is a separate task on the shared pool, so an observer may see events
+     * concurrently and out of order
+     */
+    SHARED_POOL,
+
+    /**
+     * Every observer has a lane of its own, a queue that is worked off by one pool thread at a time: each observer
+     * sees events one after the other in the order they were emitted, while different observers run in parallel
+     */
+    OBSERVER_LANES
+}
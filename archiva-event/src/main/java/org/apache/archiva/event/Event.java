@@ -29,6 +29,8 @@ public final class Event
 
     private final EventMessage message;
 
+    private final long created = System.nanoTime();
+
     public Event(EventEmitter emitter, EventMessage message)
     {
         this.emitter = emitter;
@@ -52,4 +54,13 @@ public final class Event
     {
         return message;
     }
+
+    /**
+     * Get the time the Event was created, for measuring how long it took to dispatch
+     * @return the {@link System#nanoTime()} at creation
+     */
+    long getCreated()
+    {
+        return created;
+    }
 }
@@ -40,7 +40,15 @@ public interface EventBus
     void subscribe(EventObserver observer);
 
     /**
-     * Stops the observer from receiving any messages
+     * Allows the subscriber to receive the messages of a type, including its subtypes, from this event bus.
+     * Observers are only handed the messages they subscribed to, so they need not filter them
+     * @param type
+     * @param observer
+     */
+    void subscribe(Class<? extends EventMessage> type, EventObserver observer);
+
+    /**
+     * Stops the observer from receiving any messages, whatever types it subscribed to
      * @param observer
      */
     void unsubscribe(EventObserver observer);
@@ -0,0 +1,137 @@
+package org.apache.archiva.event;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Dispatch metrics of an {@link AsynchronousEventBus}: how many events wait, how fast they come in, how long they wait
+ * from being emitted until an observer starts on them, and how long each observer takes.
+ * <p/>
+ * A queue that keeps growing, or a dispatch latency well above the observers' execution times, means the bus has too
+ * few threads for its observers
+ */
+public final class EventBusMetrics
+{
+    private final Collection<?> queue;
+
+    private final AtomicLong emitted = new AtomicLong();
+
+    private final LatencyHistogram dispatchLatency = new LatencyHistogram();
+
+    private final Map<EventObserver, LatencyHistogram> executionTimes =
+        new ConcurrentHashMap<EventObserver, LatencyHistogram>();
+
+    private volatile long startedNanos;
+
+    EventBusMetrics(Collection<?> queue)
+    {
+        this.queue = queue;
+    }
+
+    /**
+     * @return the number of events emitted but not handed to the observers yet
+     */
+    public int getQueueDepth()
+    {
+        return queue.size();
+    }
+
+    public long getEmittedCount()
+    {
+        return emitted.get();
+    }
+
+    /**
+     * @return the events emitted per second since the bus was started
+     */
+    public double getEmitRate()
+    {
+        long started = startedNanos;
+        long elapsed = System.nanoTime() - started;
+        return started == 0 || elapsed <= 0 ? 0 : emitted.get() * 1000000000.0 / elapsed;
+    }
+
+    /**
+     * @return the time from an event being emitted until an observer starts observing it, once per observer
+     */
+    public LatencyHistogram getDispatchLatency()
+    {
+        return dispatchLatency;
+    }
+
+    /**
+     * Get the time an observer takes to observe an event
+     * @param observer
+     * @return the histogram, or null if the observer is not subscribed
+     */
+    public LatencyHistogram getExecutionTime(EventObserver observer)
+    {
+        return executionTimes.get(observer);
+    }
+
+    /**
+     * @return the execution time histograms of all subscribed observers
+     */
+    public Map<EventObserver, LatencyHistogram> getExecutionTimes()
+    {
+        return new HashMap<EventObserver, LatencyHistogram>(executionTimes);
+    }
+
+    void started()
+    {
+        startedNanos = System.nanoTime();
+    }
+
+    void emitted()
+    {
+        emitted.incrementAndGet();
+    }
+
+    void subscribed(EventObserver observer)
+    {
+        if (!executionTimes.containsKey(observer))
+        {
+            executionTimes.put(observer, new LatencyHistogram());
+        }
+    }
+
+    void unsubscribed(EventObserver observer)
+    {
+        executionTimes.remove(observer);
+    }
+
+    /**
+     * Records one observer having observed an event
+     */
+    void observed(EventObserver observer, Event event, long start, long end)
+    {
+        dispatchLatency.record(start - event.getCreated());
+        LatencyHistogram executionTime = executionTimes.get(observer);
+        if (executionTime != null)
+        {
+            executionTime.record(end - start);
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package org.apache.archiva.event;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of records in memory-mapped segment files of a fixed size.
+ * <p/>
+ * A position is the offset of a record counted over all segments, so segment <code>n</code> holds the positions from
+ * <code>n * segmentSize</code>. A record is its length, the CRC-32 of its data and the data itself; a length of zero
+ * marks the end of the journal, and a length of -1 that the rest of the segment was too small for the next record.
+ * When a journal is opened its end is found by following the records of the last segment until one is missing or
+ * does not match its checksum, so a record torn by a crash is overwritten by the next one.
+ */
+final class EventJournal
+{
+    private static final String SEGMENT_SUFFIX = ".segment";
+
+    private static final int HEADER_LENGTH = 8;
+
+    private static final int SKIP = -1;
+
+    private final File directory;
+
+    private final int segmentSize;
+
+    private final SortedMap<Long, MappedByteBuffer> segments = new TreeMap<Long, MappedByteBuffer>();
+
+    private long end;
+
+    EventJournal(File directory, int segmentSize) throws IOException
+    {
+        if (segmentSize < 64)
+        {
+            throw new IllegalArgumentException("Segment size must be at least 64 bytes: " + segmentSize);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+
+        if (!directory.isDirectory() && !directory.mkdirs())
+        {
+            throw new IOException("Could not create journal directory " + directory);
+        }
+
+        long last = -1;
+        File[] files = directory.listFiles();
+        for (int i = 0; files != null && i < files.length; i++)
+        {
+            String name = files[i].getName();
+            if (name.endsWith(SEGMENT_SUFFIX))
+            {
+                try
+                {
+                    last = Math.max(last, Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                }
+                catch (NumberFormatException e)
+                {
+                    // not one of ours
+                }
+            }
+        }
+
+        end = last < 0 ? 0 : findEnd(last);
+    }
+
+    /**
+     * Appends a record
+     * @param data at least one byte
+     * @return the position of the record
+     */
+    synchronized long append(byte[] data) throws IOException
+    {
+        if (data.length == 0)
+        {
+            // a length of zero is the end marker
+            throw new IllegalArgumentException("Record must not be empty");
+        }
+        if (data.length > segmentSize - 2 * HEADER_LENGTH)
+        {
+            throw new IllegalArgumentException("Record of " + data.length + " bytes does not fit a segment of "
+                + segmentSize + " bytes");
+        }
+
+        int offset = (int) (end % segmentSize);
+        if (offset + HEADER_LENGTH + data.length + 4 > segmentSize)
+        {
+            // no room for the record and the end marker after it
+            if (offset + 4 <= segmentSize)
+            {
+                segment(end / segmentSize).putInt(offset, SKIP);
+            }
+            end += segmentSize - offset;
+            offset = 0;
+        }
+
+        MappedByteBuffer segment = segment(end / segmentSize);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        segment.position(offset + HEADER_LENGTH);
+        segment.put(data);
+        segment.putInt(offset + HEADER_LENGTH + data.length, 0);
+        segment.putInt(offset + 4, (int) crc.getValue());
+        segment.putInt(offset, data.length);
+
+        long position = end;
+        end += HEADER_LENGTH + data.length;
+        notifyAll();
+        return position;
+    }
+
+    /**
+     * Reads the record at a position, or the first one after it if the position is at the end of a segment
+     * @return the record, or null if there is none yet
+     */
+    synchronized Record read(long position) throws IOException
+    {
+        while (position < end)
+        {
+            int offset = (int) (position % segmentSize);
+            MappedByteBuffer segment = segment(position / segmentSize);
+            int length = offset + 4 <= segmentSize ? segment.getInt(offset) : SKIP;
+            if (length == SKIP)
+            {
+                position += segmentSize - offset;
+                continue;
+            }
+
+            byte[] data = new byte[length];
+            ByteBuffer view = segment.duplicate();
+            view.position(offset + HEADER_LENGTH);
+            view.get(data);
+            return new Record(position, position + HEADER_LENGTH + length, data);
+        }
+        return null;
+    }
+
+    /**
+     * Waits until a record is appended at or after the position
+     */
+    synchronized void awaitAppend(long position, long timeoutMillis) throws InterruptedException
+    {
+        if (position >= end)
+        {
+            wait(timeoutMillis);
+        }
+    }
+
+    /**
+     * Wakes the threads waiting in awaitAppend without a record being appended
+     */
+    synchronized void wakeUp()
+    {
+        notifyAll();
+    }
+
+    synchronized long getEnd()
+    {
+        return end;
+    }
+
+    /**
+     * Deletes the segments that only hold records before a position
+     * @return the number of segments deleted
+     */
+    synchronized int deleteBefore(long position)
+    {
+        int deleted = 0;
+        long keep = position / segmentSize;
+        File[] files = directory.listFiles();
+        for (int i = 0; files != null && i < files.length; i++)
+        {
+            String name = files[i].getName();
+            if (!name.endsWith(SEGMENT_SUFFIX))
+            {
+                continue;
+            }
+            long index;
+            try
+            {
+                index = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+            }
+            catch (NumberFormatException e)
+            {
+                continue;
+            }
+            if (index < keep)
+            {
+                segments.remove(Long.valueOf(index));
+                if (files[i].delete())
+                {
+                    deleted++;
+                }
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Writes the mapped segments to disk
+     */
+    synchronized void force()
+    {
+        for (MappedByteBuffer segment : segments.values())
+        {
+            segment.force();
+        }
+    }
+
+    private long findEnd(long last) throws IOException
+    {
+        MappedByteBuffer segment = segment(last);
+        int offset = 0;
+        while (offset + HEADER_LENGTH <= segmentSize)
+        {
+            int length = segment.getInt(offset);
+            if (length <= 0 || offset + HEADER_LENGTH + length > segmentSize)
+            {
+                break;
+            }
+            CRC32 crc = new CRC32();
+            for (int i = 0; i < length; i++)
+            {
+                crc.update(segment.get(offset + HEADER_LENGTH + i));
+            }
+            if ((int) crc.getValue() != segment.getInt(offset + 4))
+            {
+                break;
+            }
+            offset += HEADER_LENGTH + length;
+        }
+        if (offset + 4 <= segmentSize && segment.getInt(offset) == SKIP)
+        {
+            return (last + 1) * segmentSize;
+        }
+        return last * segmentSize + offset;
+    }
+
+    private MappedByteBuffer segment(long index) throws IOException
+    {
+        Long key = Long.valueOf(index);
+        MappedByteBuffer segment = segments.get(key);
+        if (segment == null)
+        {
+            File file = new File(directory, String.format("%020d", key) + SEGMENT_SUFFIX);
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try
+            {
+                if (raf.length() < segmentSize)
+                {
+                    raf.setLength(segmentSize);
+                }
+                segment = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            }
+            finally
+            {
+                // the mapping stays valid once the file is closed
+                raf.close();
+            }
+            segments.put(key, segment);
+        }
+        return segment;
+    }
+
+    static final class Record
+    {
+        final long position;
+
+        final long next;
+
+        final byte[] data;
+
+        Record(long position, long next, byte[] data)
+        {
+            this.position = position;
+            this.next = next;
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,529 @@
+package org.apache.archiva.event;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * EventBus that writes every message to a journal before handing it to another EventBus, so that durable observers
+ * receive the messages emitted while they were not running.
+ * <p/>
+ * A durable observer is subscribed under a name, and the journal position of the next message it has to observe is
+ * stored under that name. When it is subscribed again, after a restart, it is first handed the messages from that
+ * position on. A name that was never used starts at the end of the journal. The position is stored after each
+ * message has been observed, so a message whose observation was interrupted is observed again: delivery is at least
+ * once. A message the observer fails on, or that cannot be decoded, is skipped. The emitter is not journalled; durable
+ * observers see this bus as the emitter of every message.
+ * <p/>
+ * Emitting is serialized, so messages reach the delegate in the order they were journalled.
+ * <p/>
+ * The journal and the positions are memory-mapped, so they survive the process crashing as soon as they are written.
+ * To survive the machine crashing as well they are forced to disk every <code>forceInterval</code> milliseconds and
+ * on {@link #close()}; with an interval of 0 only on close.
+ * <p/>
+ * Messages are written with an {@link EventCodec} into segment files of a fixed size; {@link #compact()} deletes the
+ * segments every durable observer is done with.
+ */
+public class JournalingEventBus
+    implements EventBus, EventEmitter
+{
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    public static final long DEFAULT_FORCE_INTERVAL = 1000;
+
+    private static final Pattern NAME = Pattern.compile("[A-Za-z0-9._-]+");
+
+    private static final String POSITION_SUFFIX = ".position";
+
+    private final EventBus delegate;
+
+    private final EventCodec codec;
+
+    private final EventJournal journal;
+
+    private final File positions;
+
+    private final Map<String, Cursor> cursors = new LinkedHashMap<String, Cursor>();
+
+    private final Object emitLock = new Object();
+
+    private final Syncer syncer;
+
+    private volatile boolean closed;
+
+    public JournalingEventBus(EventBus delegate, File directory, EventCodec codec)
+        throws IOException
+    {
+        this(delegate, directory, codec, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public JournalingEventBus(EventBus delegate, File directory, EventCodec codec, int segmentSize)
+        throws IOException
+    {
+        this(delegate, directory, codec, segmentSize, DEFAULT_FORCE_INTERVAL);
+    }
+
+    /**
+     * @param forceInterval milliseconds between writing the journal and the positions to disk, 0 to only write them
+     * on close
+     */
+    public JournalingEventBus(EventBus delegate, File directory, EventCodec codec, int segmentSize,
+                              long forceInterval)
+        throws IOException
+    {
+        if (forceInterval < 0)
+        {
+            throw new IllegalArgumentException("Force interval must not be negative: " + forceInterval);
+        }
+        this.delegate = delegate;
+        this.codec = codec;
+        this.journal = new EventJournal(new File(directory, "segments"), segmentSize);
+        this.positions = new File(directory, "positions");
+        if (!positions.isDirectory() && !positions.mkdirs())
+        {
+            throw new IOException("Could not create position directory " + positions);
+        }
+        if (forceInterval > 0)
+        {
+            syncer = new Syncer(forceInterval);
+            syncer.start();
+        }
+        else
+        {
+            syncer = null;
+        }
+    }
+
+    /**
+     * Journals the message and emits it on the delegate
+     * @throws IllegalStateException if the bus is closed or the message could not be journalled
+     */
+    public void emit(EventEmitter emitter, EventMessage message)
+    {
+        if (closed)
+        {
+            throw new IllegalStateException("Event bus is closed");
+        }
+        synchronized (emitLock)
+        {
+            try
+            {
+                journal.append(codec.encode(message));
+            }
+            catch (IOException e)
+            {
+                throw new IllegalStateException("Could not journal " + message, e);
+            }
+            delegate.emit(emitter, message);
+        }
+    }
+
+    public void subscribe(EventObserver observer)
+    {
+        delegate.subscribe(observer);
+    }
+
+    public void subscribe(Class<? extends EventMessage> type, EventObserver observer)
+    {
+        delegate.subscribe(type, observer);
+    }
+
+    /**
+     * Subscribes an observer that is handed every journalled message from the position stored under its name
+     * @param name letters, digits, '.', '_' and '-'
+     * @param observer
+     */
+    public void subscribeDurable(String name, EventObserver observer)
+        throws IOException
+    {
+        subscribeDurable(name, EventMessage.class, observer);
+    }
+
+    /**
+     * Subscribes an observer that is handed the journalled messages of a type, including its subtypes, from the
+     * position stored under its name
+     * @param name letters, digits, '.', '_' and '-'
+     * @param type
+     * @param observer
+     */
+    public void subscribeDurable(String name, Class<? extends EventMessage> type, EventObserver observer)
+        throws IOException
+    {
+        if (!NAME.matcher(name).matches())
+        {
+            throw new IllegalArgumentException("Invalid durable subscription name: " + name);
+        }
+        synchronized (cursors)
+        {
+            if (closed)
+            {
+                throw new IllegalStateException("Event bus is closed");
+            }
+            if (cursors.containsKey(name))
+            {
+                throw new IllegalStateException("Durable subscription " + name + " is already active");
+            }
+            Cursor cursor = new Cursor(name, type, observer, openPosition(name));
+            cursors.put(name, cursor);
+            cursor.start();
+        }
+    }
+
+    /**
+     * Unsubscribes the observer from the delegate and stops its durable subscriptions; their positions are kept
+     */
+    public void unsubscribe(EventObserver observer)
+    {
+        delegate.unsubscribe(observer);
+        List<Cursor> halted = new ArrayList<Cursor>();
+        synchronized (cursors)
+        {
+            for (Iterator<Cursor> i = cursors.values().iterator(); i.hasNext();)
+            {
+                Cursor cursor = i.next();
+                // the same test the delegate applies
+                if (cursor.observer.equals(observer))
+                {
+                    halted.add(cursor);
+                    i.remove();
+                }
+            }
+        }
+        // outside the lock, since a cursor takes it to remove itself when it ends
+        for (Cursor cursor : halted)
+        {
+            cursor.halt();
+        }
+    }
+
+    /**
+     * Get the observers of the delegate together with the durable observers
+     */
+    public Set<EventObserver> getObservers()
+    {
+        Set<EventObserver> observers = new HashSet<EventObserver>(delegate.getObservers());
+        synchronized (cursors)
+        {
+            for (Cursor cursor : cursors.values())
+            {
+                observers.add(cursor.observer);
+            }
+        }
+        return observers;
+    }
+
+    /**
+     * Get the position of the next message the durable subscription will observe
+     * @return the position, or -1 if there is no active subscription by that name
+     */
+    public long getPosition(String name)
+    {
+        synchronized (cursors)
+        {
+            Cursor cursor = cursors.get(name);
+            return cursor == null ? -1 : cursor.position.getLong(0);
+        }
+    }
+
+    /**
+     * Get the position the next message will be journalled at
+     */
+    public long getJournalEnd()
+    {
+        return journal.getEnd();
+    }
+
+    /**
+     * Deletes the journal segments that all durable subscriptions, active or not, have observed
+     * @return the number of segments deleted
+     */
+    public int compact()
+        throws IOException
+    {
+        long oldest = journal.getEnd();
+        synchronized (cursors)
+        {
+            File[] files = positions.listFiles();
+            for (int i = 0; files != null && i < files.length; i++)
+            {
+                String name = files[i].getName();
+                if (!name.endsWith(POSITION_SUFFIX))
+                {
+                    continue;
+                }
+                Cursor cursor = cursors.get(name.substring(0, name.length() - POSITION_SUFFIX.length()));
+                oldest = Math.min(oldest, cursor != null ? cursor.position.getLong(0) : readPosition(files[i]));
+            }
+        }
+        return journal.deleteBefore(oldest);
+    }
+
+    /**
+     * Stops the durable subscriptions and writes the journal and their positions to disk. The delegate is left running
+     */
+    public void close()
+    {
+        closed = true;
+        if (syncer != null)
+        {
+            syncer.wakeUp();
+        }
+        List<Cursor> halted;
+        synchronized (cursors)
+        {
+            halted = new ArrayList<Cursor>(cursors.values());
+            cursors.clear();
+        }
+        for (Cursor cursor : halted)
+        {
+            cursor.halt();
+        }
+        journal.force();
+    }
+
+    private MappedByteBuffer openPosition(String name)
+        throws IOException
+    {
+        File file = new File(positions, name + POSITION_SUFFIX);
+        boolean created = !file.exists();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try
+        {
+            raf.setLength(8);
+            MappedByteBuffer position = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, 8);
+            if (created)
+            {
+                position.putLong(0, journal.getEnd());
+                position.force();
+            }
+            return position;
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    private static long readPosition(File file)
+        throws IOException
+    {
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try
+        {
+            return in.readLong();
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    private final class Cursor
+        extends Thread
+    {
+        private final String subscription;
+
+        private final Class<? extends EventMessage> type;
+
+        private final EventObserver observer;
+
+        private final MappedByteBuffer position;
+
+        private volatile boolean running = true;
+
+        Cursor(String name, Class<? extends EventMessage> type, EventObserver observer, MappedByteBuffer position)
+        {
+            super("journal-cursor-" + name);
+            setDaemon(true);
+            this.subscription = name;
+            this.type = type;
+            this.observer = observer;
+            this.position = position;
+        }
+
+        public void run()
+        {
+            try
+            {
+                while (running)
+                {
+                    long next = position.getLong(0);
+                    EventJournal.Record record = journal.read(next);
+                    if (record == null)
+                    {
+                        synchronized (journal)
+                        {
+                            // halt() clears running holding the same monitor, so its wake-up cannot be missed
+                            if (running)
+                            {
+                                journal.awaitAppend(next, 1000);
+                            }
+                        }
+                        continue;
+                    }
+                    observe(record);
+                    position.putLong(0, record.next);
+                }
+            }
+            catch (InterruptedException e)
+            {
+                // halt() never interrupts, so someone else wants the thread gone: stop all the same
+                Thread.currentThread().interrupt();
+            }
+            catch (IOException e)
+            {
+                throw new IllegalStateException(getName() + " could not read the journal", e);
+            }
+            finally
+            {
+                position.force();
+                synchronized (cursors)
+                {
+                    // so that the subscription can be made again
+                    if (cursors.get(subscription) == this)
+                    {
+                        cursors.remove(subscription);
+                    }
+                }
+            }
+        }
+
+        private void observe(EventJournal.Record record)
+        {
+            EventMessage message;
+            try
+            {
+                message = codec.decode(record.data);
+            }
+            catch (IOException e)
+            {
+                // it will not decode the next time either
+                return;
+            }
+            catch (RuntimeException e)
+            {
+                // same as above, for codecs that throw unchecked exceptions
+                return;
+            }
+            if (!type.isInstance(message))
+            {
+                return;
+            }
+            try
+            {
+                observer.observe(new Event(JournalingEventBus.this, message));
+            }
+            catch (RuntimeException e)
+            {
+                // an observer failing must not stop its subscription
+            }
+        }
+
+        /**
+         * Stops the cursor once the message being observed, if any, has been observed; the observer is never
+         * interrupted
+         */
+        void halt()
+        {
+            synchronized (journal)
+            {
+                running = false;
+                journal.wakeUp();
+            }
+            if (Thread.currentThread() != this)
+            {
+                try
+                {
+                    join();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private final class Syncer
+        extends Thread
+    {
+        private final long interval;
+
+        Syncer(long interval)
+        {
+            super("journal-sync");
+            setDaemon(true);
+            this.interval = interval;
+        }
+
+        public void run()
+        {
+            while (true)
+            {
+                synchronized (this)
+                {
+                    try
+                    {
+                        if (!closed)
+                        {
+                            wait(interval);
+                        }
+                    }
+                    catch (InterruptedException e)
+                    {
+                        return;
+                    }
+                    if (closed)
+                    {
+                        // close() forces everything itself
+                        return;
+                    }
+                }
+                journal.force();
+                synchronized (cursors)
+                {
+                    for (Cursor cursor : cursors.values())
+                    {
+                        cursor.position.force();
+                    }
+                }
+            }
+        }
+
+        synchronized void wakeUp()
+        {
+            notifyAll();
+        }
+    }
+}
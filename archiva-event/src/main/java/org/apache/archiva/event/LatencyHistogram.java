@@ -0,0 +1,120 @@
+package org.apache.archiva.event;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations with power-of-two buckets: bucket <code>i</code> counts the durations of at least
+ * <code>2^i</code> and less than <code>2^(i+1)</code> nanoseconds, bucket 0 also those below one nanosecond.
+ * Recording is lock free and allocates nothing; percentiles are accurate to a factor of two
+ */
+public final class LatencyHistogram
+{
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong total = new AtomicLong();
+
+    private final AtomicLong max = new AtomicLong();
+
+    void record(long nanos)
+    {
+        long value = Math.max(nanos, 0);
+        buckets.incrementAndGet(value == 0 ? 0 : 63 - Long.numberOfLeadingZeros(value));
+        count.incrementAndGet();
+        total.addAndGet(value);
+        Atomics.raise(max, value);
+    }
+
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    public double getMeanMillis()
+    {
+        long n = count.get();
+        return n == 0 ? 0 : total.get() / (n * 1000000.0);
+    }
+
+    public double getMaxMillis()
+    {
+        return max.get() / 1000000.0;
+    }
+
+    /**
+     * Get the duration below which the given share of the recorded durations fall
+     * @param percentile between 0 and 100
+     * @return the upper bound of the bucket the percentile falls in, in milliseconds
+     */
+    public double getPercentileMillis(double percentile)
+    {
+        if (percentile < 0 || percentile > 100)
+        {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100: " + percentile);
+        }
+        long[] counts = getBuckets();
+        long n = 0;
+        for (long bucket : counts)
+        {
+            n += bucket;
+        }
+        if (n == 0)
+        {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(n * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++)
+        {
+            seen += counts[i];
+            if (seen >= rank && counts[i] > 0)
+            {
+                return Math.min(Math.pow(2, i + 1), max.get()) / 1000000.0;
+            }
+        }
+        return getMaxMillis();
+    }
+
+    /**
+     * @return the number of durations in each bucket
+     */
+    public long[] getBuckets()
+    {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            counts[i] = buckets.get(i);
+        }
+        return counts;
+    }
+
+    public String toString()
+    {
+        return "count=" + getCount() + " mean=" + getMeanMillis() + "ms p50=" + getPercentileMillis(50) + "ms p99="
+            + getPercentileMillis(99) + "ms max=" + getMaxMillis() + "ms";
+    }
+}
@@ -0,0 +1,212 @@
+package org.apache.archiva.event;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The serial queue of one observer in {@link DispatchMode#OBSERVER_LANES} mode, with its depth and latency.
+ * <p/>
+ * At most one pool thread works off a lane at a time, and it gives the thread back after a few events so that a busy
+ * lane does not starve the others, unless the pool is shutting down and the lane is being drained. Latency is
+ * measured from the moment an event enters the lane until the observer has returned from it.
+ */
+public final class ObserverLane implements Runnable
+{
+    /**
+     * Events observed before the lane gives its thread back to the pool
+     */
+    private static final int EVENTS_PER_RUN = 64;
+
+    private final EventObserver observer;
+
+    private final Executor executor;
+
+    private final EventBusMetrics metrics;
+
+    private final Queue<Entry> queue = new ConcurrentLinkedQueue<Entry>();
+
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    private final AtomicInteger depth = new AtomicInteger();
+
+    private final AtomicInteger maxDepth = new AtomicInteger();
+
+    private final AtomicLong observed = new AtomicLong();
+
+    private final AtomicLong totalLatency = new AtomicLong();
+
+    private final AtomicLong maxLatency = new AtomicLong();
+
+    private volatile boolean closed;
+
+    ObserverLane(EventObserver observer, Executor executor, EventBusMetrics metrics)
+    {
+        this.observer = observer;
+        this.executor = executor;
+        this.metrics = metrics;
+    }
+
+    public EventObserver getObserver()
+    {
+        return observer;
+    }
+
+    /**
+     * @return the number of events waiting in the lane
+     */
+    public int getDepth()
+    {
+        return depth.get();
+    }
+
+    /**
+     * @return the largest number of events that waited in the lane at once
+     */
+    public int getMaxDepth()
+    {
+        return maxDepth.get();
+    }
+
+    /**
+     * @return the number of events the observer has seen through the lane
+     */
+    public long getObservedCount()
+    {
+        return observed.get();
+    }
+
+    public double getAverageLatencyMillis()
+    {
+        long count = observed.get();
+        return count == 0 ? 0 : totalLatency.get() / (count * 1000000.0);
+    }
+
+    public double getMaxLatencyMillis()
+    {
+        return maxLatency.get() / 1000000.0;
+    }
+
+    void enqueue(Event event)
+    {
+        if (closed)
+        {
+            return;
+        }
+        queue.add(new Entry(event, System.nanoTime()));
+        Atomics.raise(maxDepth, depth.incrementAndGet());
+        schedule();
+    }
+
+    /**
+     * Stops the lane, discarding the events still waiting in it
+     */
+    void close()
+    {
+        closed = true;
+    }
+
+    public void run()
+    {
+        try
+        {
+            for (int i = 0; (i < EVENTS_PER_RUN || isDraining()) && !closed; i++)
+            {
+                Entry entry = queue.poll();
+                if (entry == null)
+                {
+                    break;
+                }
+                depth.decrementAndGet();
+
+                long start = System.nanoTime();
+                try
+                {
+                    observer.observe(entry.event);
+                }
+                catch (RuntimeException e)
+                {
+                    // an observer failing must not stop its lane
+                }
+
+                long end = System.nanoTime();
+                if (metrics != null)
+                {
+                    metrics.observed(observer, entry.event, start, end);
+                }
+                long latency = end - entry.enqueued;
+                observed.incrementAndGet();
+                totalLatency.addAndGet(latency);
+                Atomics.raise(maxLatency, latency);
+            }
+        }
+        finally
+        {
+            scheduled.set(false);
+        }
+
+        // events may have arrived after the last poll, while this run still looked scheduled
+        if (!queue.isEmpty() && !closed)
+        {
+            schedule();
+        }
+    }
+
+    private void schedule()
+    {
+        if (scheduled.compareAndSet(false, true))
+        {
+            try
+            {
+                executor.execute(this);
+            }
+            catch (RejectedExecutionException e)
+            {
+                // the pool shut down between two runs: finish the lane on this thread
+                run();
+            }
+        }
+    }
+
+    private boolean isDraining()
+    {
+        return executor instanceof ExecutorService && ((ExecutorService) executor).isShutdown();
+    }
+
+    private static final class Entry
+    {
+        private final Event event;
+
+        private final long enqueued;
+
+        private Entry(Event event, long enqueued)
+        {
+            this.event = event;
+            this.enqueued = enqueued;
+        }
+    }
+}
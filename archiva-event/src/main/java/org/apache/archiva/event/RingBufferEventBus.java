@@ -0,0 +1,445 @@
+package org.apache.archiva.event;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Asynchronous EventBus with a bounded queue.
+ * <p/>
+ * Events are kept in a ring buffer preallocated at a power-of-two capacity and addressed by two ever increasing
+ * sequence counters, the next sequence to publish and the next to dispatch, so the buffer itself never grows or
+ * allocates. Publishing and dispatching take a single lock, which may allocate a queue node for a thread that has to
+ * wait for it under contention. Dispatcher threads hand each event directly to the observers subscribed to its
+ * message type, from a dispatch table that is only rebuilt when subscriptions change or a new message class shows up.
+ * <p/>
+ * When the buffer is full the {@link BackpressurePolicy} decides whether the emitter waits, the oldest event is
+ * dropped or the emitter dispatches the event itself. Events are dispatched in the order they were emitted, but with
+ * more than one dispatcher thread an observer can see them concurrently and out of order.
+ * <p/>
+ * The dispatcher threads are started with the bus. {@link #shutdown(long, TimeUnit)} stops accepting events and lets
+ * the ones already emitted be observed, {@link #shutdownNow()} abandons them. The dispatcher threads are daemon
+ * threads, so a bus that is never shut down does not keep the JVM alive.
+ */
+public class RingBufferEventBus implements EventBus
+{
+    private enum State
+    {
+        NEW, RUNNING, SHUTDOWN, TERMINATED
+    }
+
+    private final Event[] ring;
+
+    private final int mask;
+
+    private final BackpressurePolicy policy;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition notEmpty = lock.newCondition();
+
+    private final Condition notFull = lock.newCondition();
+
+    /**
+     * Sequence of the next event to dispatch, guarded by the lock
+     */
+    private long head;
+
+    /**
+     * Sequence of the next event to publish, guarded by the lock
+     */
+    private long tail;
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final AtomicLong interrupted = new AtomicLong();
+
+    private final SubscriptionTable subscriptions = new SubscriptionTable();
+
+    private final Thread[] dispatchers;
+
+    /**
+     * Guarded by the lock
+     */
+    private State state = State.NEW;
+
+    /**
+     * @param capacity the number of events that can wait for dispatch, rounded up to a power of two
+     * @param threads the number of dispatcher threads
+     * @param policy what to do with an event emitted while the buffer is full
+     */
+    public RingBufferEventBus(int capacity, int threads, BackpressurePolicy policy)
+    {
+        if (capacity < 1 || capacity > 1 << 30)
+        {
+            throw new IllegalArgumentException("Capacity must be between 1 and 2^30: " + capacity);
+        }
+        if (threads < 1)
+        {
+            throw new IllegalArgumentException("Threads must be at least 1: " + threads);
+        }
+        if (policy == null)
+        {
+            throw new IllegalArgumentException("Backpressure policy must be given");
+        }
+
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity)
+        {
+            size <<= 1;
+        }
+        this.ring = new Event[size];
+        this.mask = size - 1;
+        this.policy = policy;
+
+        dispatchers = new Thread[threads];
+        for (int i = 0; i < threads; i++)
+        {
+            dispatchers[i] = new Thread(new DispatcherRunnable(), "event-dispatcher-" + i);
+            dispatchers[i].setDaemon(true);
+        }
+        start();
+    }
+
+    /**
+     * Starts the dispatcher threads, which the constructor already does
+     * @throws IllegalStateException if the bus was shut down
+     */
+    public void start()
+    {
+        lock.lock();
+        try
+        {
+            if (state == State.NEW)
+            {
+                state = State.RUNNING;
+                for (Thread dispatcher : dispatchers)
+                {
+                    dispatcher.start();
+                }
+            }
+            else if (state != State.RUNNING)
+            {
+                throw new IllegalStateException("Event bus is shut down");
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops accepting events and waits for the events already emitted to be observed
+     * @param timeout the longest time to wait
+     * @param unit
+     * @return true if all events were observed in time, false if the bus is still draining
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        lock.lock();
+        try
+        {
+            if (state == State.RUNNING)
+            {
+                state = State.SHUTDOWN;
+                // wake idle dispatchers so they notice, and blocked emitters so they give up
+                notEmpty.signalAll();
+                notFull.signalAll();
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        return awaitTermination(timeout, unit);
+    }
+
+    /**
+     * Stops accepting events, discards the ones that have not been dispatched yet and interrupts the dispatcher
+     * threads
+     * @return the events that were not dispatched to any observer
+     */
+    public List<Event> shutdownNow()
+    {
+        List<Event> remaining = new ArrayList<Event>();
+        lock.lock();
+        try
+        {
+            state = State.TERMINATED;
+            for (; head != tail; head++)
+            {
+                int index = (int) head & mask;
+                remaining.add(ring[index]);
+                ring[index] = null;
+            }
+            notEmpty.signalAll();
+            notFull.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        for (Thread dispatcher : dispatchers)
+        {
+            dispatcher.interrupt();
+        }
+        return remaining;
+    }
+
+    /**
+     * Waits for the dispatcher threads to finish after a shutdown
+     * @param timeout the longest time to wait
+     * @param unit
+     * @return true if the bus terminated in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Thread dispatcher : dispatchers)
+        {
+            long remaining = deadline - System.nanoTime();
+            if (remaining > 0)
+            {
+                TimeUnit.NANOSECONDS.timedJoin(dispatcher, remaining);
+            }
+        }
+        return isTerminated();
+    }
+
+    /**
+     * @return true once the bus is shut down and every dispatcher thread has finished
+     */
+    public boolean isTerminated()
+    {
+        lock.lock();
+        try
+        {
+            if (state != State.SHUTDOWN && state != State.TERMINATED)
+            {
+                return false;
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        for (Thread dispatcher : dispatchers)
+        {
+            if (dispatcher.isAlive())
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Emit a event
+     * @throws IllegalStateException if the bus is shut down, also when it is shut down while the emitter waits for
+     * room
+     */
+    public void emit(EventEmitter emitter, EventMessage message)
+    {
+        Event event = new Event(emitter, message);
+        boolean callerRuns = false;
+
+        lock.lock();
+        try
+        {
+            checkRunning();
+            while (tail - head == ring.length && !callerRuns)
+            {
+                switch (policy)
+                {
+                    case BLOCK:
+                        try
+                        {
+                            notFull.await();
+                        }
+                        catch (InterruptedException e)
+                        {
+                            Thread.currentThread().interrupt();
+                            interrupted.incrementAndGet();
+                            return;
+                        }
+                        checkRunning();
+                        break;
+                    case DROP_OLDEST:
+                        ring[(int) head & mask] = null;
+                        head++;
+                        dropped.incrementAndGet();
+                        break;
+                    default:
+                        callerRuns = true;
+                }
+            }
+
+            if (!callerRuns)
+            {
+                ring[(int) tail & mask] = event;
+                tail++;
+                notEmpty.signal();
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        if (callerRuns)
+        {
+            dispatch(event);
+        }
+    }
+
+    public void subscribe(EventObserver observer)
+    {
+        subscriptions.subscribe(EventMessage.class, observer);
+    }
+
+    public void subscribe(Class<? extends EventMessage> type, EventObserver observer)
+    {
+        subscriptions.subscribe(type, observer);
+    }
+
+    public void unsubscribe(EventObserver observer)
+    {
+        subscriptions.unsubscribe(observer);
+    }
+
+    public Set<EventObserver> getObservers()
+    {
+        return subscriptions.getObservers();
+    }
+
+    /**
+     * @return the number of events the buffer holds
+     */
+    public int getCapacity()
+    {
+        return ring.length;
+    }
+
+    /**
+     * @return the number of events emitted but not dispatched yet
+     */
+    public int getPendingCount()
+    {
+        lock.lock();
+        try
+        {
+            return (int) (tail - head);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of events discarded because the buffer was full
+     */
+    public long getDroppedCount()
+    {
+        return dropped.get();
+    }
+
+    /**
+     * @return the number of events not emitted because the emitter was interrupted while it waited for room, with
+     * its interrupt status set again
+     */
+    public long getInterruptedCount()
+    {
+        return interrupted.get();
+    }
+
+    private void checkRunning()
+    {
+        if (state != State.RUNNING)
+        {
+            throw new IllegalStateException("Event bus is shut down");
+        }
+    }
+
+    private void dispatch(Event event)
+    {
+        for (EventObserver observer : subscriptions.getObservers(event.getMessage()))
+        {
+            try
+            {
+                observer.observe(event);
+            }
+            catch (RuntimeException e)
+            {
+                // an observer failing must not keep the event from the others
+            }
+        }
+    }
+
+    class DispatcherRunnable implements Runnable
+    {
+        public void run()
+        {
+            while (true)
+            {
+                Event event;
+                lock.lock();
+                try
+                {
+                    while (head == tail)
+                    {
+                        if (state != State.RUNNING)
+                        {
+                            return;
+                        }
+                        try
+                        {
+                            notEmpty.await();
+                        }
+                        catch (InterruptedException e)
+                        {
+                            // woken up by a shutdown, the loop decides whether to go on
+                        }
+                    }
+                    int index = (int) head & mask;
+                    event = ring[index];
+                    ring[index] = null;
+                    head++;
+                    notFull.signal();
+                }
+                finally
+                {
+                    lock.unlock();
+                }
+
+                dispatch(event);
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package org.apache.archiva.event;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * EventCodec using Java serialization; the messages must be {@link Serializable}
+ */
+public class SerializableEventCodec implements EventCodec
+{
+    public byte[] encode(EventMessage message) throws IOException
+    {
+        if (!(message instanceof Serializable))
+        {
+            throw new NotSerializableException(message == null ? "null" : message.getClass().getName());
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(message);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    public EventMessage decode(byte[] data) throws IOException
+    {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data));
+        try
+        {
+            return (EventMessage) in.readObject();
+        }
+        catch (ClassNotFoundException e)
+        {
+            IOException exception = new IOException("Unknown message class: " + e.getMessage());
+            exception.initCause(e);
+            throw exception;
+        }
+        catch (ClassCastException e)
+        {
+            IOException exception = new IOException("Not an EventMessage: " + e.getMessage());
+            exception.initCause(e);
+            throw exception;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package org.apache.archiva.event;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The subscriptions of an EventBus, with a dispatch table from message class to the observers interested in it.
+ * <p/>
+ * An observer subscribed to a type receives messages of that type and of its subtypes; an untyped subscription is one
+ * to {@link EventMessage} itself. The table holds an entry for every message class seen so far. Lookups read it
+ * without locking; when the subscriptions change a new table is built for the same classes and swapped in, and a
+ * class seen for the first time is added the same way.
+ */
+final class SubscriptionTable
+{
+    private static final EventObserver[] NO_OBSERVERS = new EventObserver[0];
+
+    /**
+     * Subscribed types and observers, in subscription order, guarded by this
+     */
+    private final List<Subscription> subscriptions = new ArrayList<Subscription>();
+
+    private volatile Map<Class<?>, EventObserver[]> table = Collections.emptyMap();
+
+    synchronized void subscribe(Class<? extends EventMessage> type, EventObserver observer)
+    {
+        if (type == null || observer == null)
+        {
+            throw new IllegalArgumentException("Type and observer must be given");
+        }
+        for (Subscription subscription : subscriptions)
+        {
+            if (subscription.type == type && subscription.observer.equals(observer))
+            {
+                return;
+            }
+        }
+        subscriptions.add(new Subscription(type, observer));
+        rebuild(table.keySet());
+    }
+
+    /**
+     * Removes every subscription of the observer
+     * @return true if the observer was subscribed
+     */
+    synchronized boolean unsubscribe(EventObserver observer)
+    {
+        boolean removed = false;
+        for (int i = subscriptions.size() - 1; i >= 0; i--)
+        {
+            if (subscriptions.get(i).observer.equals(observer))
+            {
+                subscriptions.remove(i);
+                removed = true;
+            }
+        }
+        if (removed)
+        {
+            rebuild(table.keySet());
+        }
+        return removed;
+    }
+
+    synchronized boolean isSubscribed(EventObserver observer)
+    {
+        for (Subscription subscription : subscriptions)
+        {
+            if (subscription.observer.equals(observer))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    synchronized Set<EventObserver> getObservers()
+    {
+        Set<EventObserver> observers = new LinkedHashSet<EventObserver>();
+        for (Subscription subscription : subscriptions)
+        {
+            observers.add(subscription.observer);
+        }
+        return observers;
+    }
+
+    /**
+     * Get the observers interested in a message, each once, in the order they subscribed
+     * @param message the message, or null for observers of every message
+     * @return the observers; the array must not be modified
+     */
+    EventObserver[] getObservers(EventMessage message)
+    {
+        Class<?> messageClass = message != null ? message.getClass() : EventMessage.class;
+        EventObserver[] observers = table.get(messageClass);
+        if (observers == null)
+        {
+            observers = addClass(messageClass);
+        }
+        return observers;
+    }
+
+    private synchronized EventObserver[] addClass(Class<?> messageClass)
+    {
+        EventObserver[] observers = table.get(messageClass);
+        if (observers == null)
+        {
+            Set<Class<?>> classes = new HashSet<Class<?>>(table.keySet());
+            classes.add(messageClass);
+            rebuild(classes);
+            observers = table.get(messageClass);
+        }
+        return observers;
+    }
+
+    private void rebuild(Set<Class<?>> classes)
+    {
+        Map<Class<?>, EventObserver[]> rebuilt = new HashMap<Class<?>, EventObserver[]>();
+        for (Class<?> messageClass : classes)
+        {
+            Set<EventObserver> observers = new LinkedHashSet<EventObserver>();
+            for (Subscription subscription : subscriptions)
+            {
+                if (subscription.type.isAssignableFrom(messageClass))
+                {
+                    observers.add(subscription.observer);
+                }
+            }
+            rebuilt.put(messageClass, observers.isEmpty() ? NO_OBSERVERS
+                : observers.toArray(new EventObserver[observers.size()]));
+        }
+        table = rebuilt;
+    }
+
+    private static final class Subscription
+    {
+        private final Class<? extends EventMessage> type;
+
+        private final EventObserver observer;
+
+        private Subscription(Class<? extends EventMessage> type, EventObserver observer)
+        {
+            this.type = type;
+            this.observer = observer;
+        }
+    }
+}
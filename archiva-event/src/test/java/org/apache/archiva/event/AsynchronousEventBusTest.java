@@ -22,6 +22,9 @@ package org.apache.archiva.event;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import junit.framework.TestCase;
 
 public class AsynchronousEventBusTest extends TestCase
@@ -58,6 +61,280 @@ public class AsynchronousEventBusTest extends TestCase
         assertEquals(10, observer.observedEvents.size());
     }
 
+    public void testLanesKeepEmitOrderPerObserver() throws Exception
+    {
+        AsynchronousEventBus bus = new AsynchronousEventBus(4, DispatchMode.OBSERVER_LANES);
+        MockObserver first = new MockObserver();
+        MockObserver second = new MockObserver();
+        bus.subscribe(first);
+        bus.subscribe(second);
+
+        List<EventMessage> messages = new ArrayList<EventMessage>();
+        for (int i = 0; i < 1000; i++)
+        {
+            EventMessage message = new EventMessage() {};
+            messages.add(message);
+            bus.emit(new EventEmitter() {}, message);
+        }
+
+        for (MockObserver observer : new MockObserver[]{first, second})
+        {
+            awaitEvents(observer, 1000);
+            for (int i = 0; i < 1000; i++)
+            {
+                assertSame(messages.get(i), observer.observedEvents.get(i).getMessage());
+            }
+        }
+
+        ObserverLane lane = bus.getLane(first);
+        // the last event is counted once the observer has returned from it
+        assertTrue(lane.getObservedCount() >= 999);
+        assertEquals(0, lane.getDepth());
+        assertTrue(lane.getMaxDepth() >= 1);
+        assertTrue(lane.getMaxLatencyMillis() >= lane.getAverageLatencyMillis());
+    }
+
+    public void testSlowLaneDoesNotHoldUpOtherObservers() throws Exception
+    {
+        AsynchronousEventBus bus = new AsynchronousEventBus(2, DispatchMode.OBSERVER_LANES);
+        final CountDownLatch release = new CountDownLatch(1);
+        EventObserver slow = new EventObserver()
+        {
+            public void observe(Event event)
+            {
+                try
+                {
+                    release.await();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        MockObserver fast = new MockObserver();
+        bus.subscribe(slow);
+        bus.subscribe(fast);
+
+        for (int i = 0; i < 10; i++)
+        {
+            bus.emit(new EventEmitter() {}, new EventMessage() {});
+        }
+
+        awaitEvents(fast, 10);
+        assertTrue(bus.getLane(slow).getDepth() >= 9);
+        release.countDown();
+
+        bus.unsubscribe(slow);
+        assertNull(bus.getLane(slow));
+        assertEquals(1, bus.getLanes().size());
+    }
+
+    public void testSharedPoolHasNoLanes() throws Exception
+    {
+        AsynchronousEventBus bus = new AsynchronousEventBus(1);
+        MockObserver observer = new MockObserver();
+        bus.subscribe(observer);
+
+        assertEquals(DispatchMode.SHARED_POOL, bus.getDispatchMode());
+        assertNull(bus.getLane(observer));
+    }
+
+    public void testTypedSubscriptionsSeeTheirTypesAndSubtypes() throws Exception
+    {
+        AsynchronousEventBus bus = new AsynchronousEventBus(2);
+        MockObserver all = new MockObserver();
+        MockObserver artifacts = new MockObserver();
+        MockObserver jars = new MockObserver();
+        bus.subscribe(all);
+        bus.subscribe(ArtifactMessage.class, artifacts);
+        bus.subscribe(JarMessage.class, jars);
+        bus.subscribe(ArtifactMessage.class, jars);
+
+        bus.emit(new EventEmitter() {}, new ArtifactMessage());
+        bus.emit(new EventEmitter() {}, new JarMessage());
+        bus.emit(new EventEmitter() {}, new EventMessage() {});
+
+        awaitEvents(all, 3);
+        awaitEvents(artifacts, 2);
+        awaitEvents(jars, 2);
+        assertEquals(3, bus.getObservers().size());
+
+        bus.unsubscribe(jars);
+        assertEquals(2, bus.getObservers().size());
+    }
+
+    public void testTypedSubscriptionsWithLanes() throws Exception
+    {
+        AsynchronousEventBus bus = new AsynchronousEventBus(2, DispatchMode.OBSERVER_LANES);
+        MockObserver jars = new MockObserver();
+        bus.subscribe(JarMessage.class, jars);
+
+        bus.emit(new EventEmitter() {}, new ArtifactMessage());
+        bus.emit(new EventEmitter() {}, new JarMessage());
+
+        awaitEvents(jars, 1);
+        assertTrue(jars.observedEvents.get(0).getMessage() instanceof JarMessage);
+        assertNotNull(bus.getLane(jars));
+    }
+
+    public void testShutdownDrainsEmittedEvents() throws Exception
+    {
+        for (DispatchMode mode : DispatchMode.values())
+        {
+            AsynchronousEventBus bus = new AsynchronousEventBus(2, mode);
+            SlowObserver observer = new SlowObserver();
+            bus.subscribe(observer);
+
+            for (int i = 0; i < 20; i++)
+            {
+                bus.emit(new EventEmitter() {}, new EventMessage() {});
+            }
+
+            assertTrue(bus.shutdown(10, TimeUnit.SECONDS));
+            assertTrue(bus.isTerminated());
+            assertEquals(20, observer.observed.get());
+
+            try
+            {
+                bus.emit(new EventEmitter() {}, new EventMessage() {});
+                fail("emit after shutdown must fail");
+            }
+            catch (IllegalStateException e)
+            {
+                // expected
+            }
+        }
+    }
+
+    public void testNoEventIsLostToShutdown() throws Exception
+    {
+        final AsynchronousEventBus bus = new AsynchronousEventBus(1);
+        MockObserver observer = new MockObserver();
+        bus.subscribe(observer);
+
+        final AtomicInteger accepted = new AtomicInteger();
+        List<Thread> emitters = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++)
+        {
+            Thread emitter = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        while (true)
+                        {
+                            bus.emit(new EventEmitter() {}, new EventMessage() {});
+                            accepted.incrementAndGet();
+                        }
+                    }
+                    catch (IllegalStateException e)
+                    {
+                        // shut down
+                    }
+                }
+            };
+            emitter.start();
+            emitters.add(emitter);
+        }
+
+        Thread.sleep(50);
+        assertTrue(bus.shutdown(10, TimeUnit.SECONDS));
+        for (Thread emitter : emitters)
+        {
+            emitter.join();
+        }
+        assertEquals(accepted.get(), observer.observedEvents.size());
+    }
+
+    public void testShutdownNowReturnsPendingEvents() throws Exception
+    {
+        AsynchronousEventBus bus = new AsynchronousEventBus(1);
+        MockObserver observer = new MockObserver();
+        bus.subscribe(observer);
+        for (int i = 0; i < 100; i++)
+        {
+            bus.emit(new EventEmitter() {}, new EventMessage() {});
+        }
+
+        // whatever the worker has not taken yet is handed back
+        List<Event> pending = bus.shutdownNow();
+        assertTrue(bus.isTerminated());
+        assertTrue(pending.size() + observer.observedEvents.size() <= 100);
+
+        try
+        {
+            bus.emit(new EventEmitter() {}, new EventMessage() {});
+            fail("emit after shutdown must fail");
+        }
+        catch (IllegalStateException e)
+        {
+            // expected
+        }
+    }
+
+    public void testMetrics() throws Exception
+    {
+        AsynchronousEventBus bus = new AsynchronousEventBus(2);
+        SlowObserver slow = new SlowObserver();
+        MockObserver fast = new MockObserver();
+        bus.subscribe(slow);
+        bus.subscribe(fast);
+
+        for (int i = 0; i < 10; i++)
+        {
+            bus.emit(new EventEmitter() {}, new EventMessage() {});
+        }
+        assertTrue(bus.shutdown(10, TimeUnit.SECONDS));
+
+        EventBusMetrics metrics = bus.getMetrics();
+        assertEquals(10, metrics.getEmittedCount());
+        assertEquals(0, metrics.getQueueDepth());
+        assertTrue(metrics.getEmitRate() > 0);
+        assertEquals(20, metrics.getDispatchLatency().getCount());
+        assertEquals(10, metrics.getExecutionTime(slow).getCount());
+        assertEquals(10, metrics.getExecutionTime(fast).getCount());
+        assertTrue(metrics.getExecutionTime(slow).getPercentileMillis(50) >= 5);
+        assertTrue(metrics.getExecutionTime(slow).getMeanMillis() > metrics.getExecutionTime(fast).getMeanMillis());
+    }
+
+    private void awaitEvents(MockObserver observer, int count) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (observer.observedEvents.size() < count && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(10);
+        }
+        assertEquals(count, observer.observedEvents.size());
+    }
+
+    static class ArtifactMessage implements EventMessage
+    {
+    }
+
+    static class JarMessage extends ArtifactMessage
+    {
+    }
+
+    class SlowObserver implements EventObserver
+    {
+        final AtomicInteger observed = new AtomicInteger();
+
+        public void observe(Event event)
+        {
+            try
+            {
+                Thread.sleep(10);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            observed.incrementAndGet();
+        }
+    }
+
     class MockObserver implements EventObserver
     {
         final List<Event> observedEvents = Collections.synchronizedList(new ArrayList());
@@ -0,0 +1,143 @@
+package org.apache.archiva.event;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+
+public class BatchingEventObserverTest extends TestCase
+{
+    public void testFullBatchesAreDeliveredAtOnce() throws Exception
+    {
+        MockBatchObserver target = new MockBatchObserver();
+        BatchingEventObserver observer = new BatchingEventObserver(target, 4, 60000);
+
+        List<Event> emitted = new ArrayList<Event>();
+        for (int i = 0; i < 10; i++)
+        {
+            Event event = new Event(new EventEmitter() {}, new EventMessage() {});
+            emitted.add(event);
+            observer.observe(event);
+        }
+
+        target.awaitEvents(8);
+        assertEquals(2, target.batchSizes.size());
+        assertEquals(4, target.batchSizes.get(0).intValue());
+        assertEquals(4, target.batchSizes.get(1).intValue());
+        assertEquals(2, observer.getPendingCount());
+
+        observer.close();
+        assertEquals(emitted, target.events);
+        assertEquals(3, observer.getBatchCount());
+        assertEquals(10, observer.getEventCount());
+        assertEquals(4, observer.getLargestBatchSize());
+    }
+
+    public void testPartialBatchIsDeliveredAfterDelay() throws Exception
+    {
+        MockBatchObserver target = new MockBatchObserver();
+        BatchingEventObserver observer = new BatchingEventObserver(target, 100, 50);
+
+        observer.observe(new Event(new EventEmitter() {}, new EventMessage() {}));
+        observer.observe(new Event(new EventEmitter() {}, new EventMessage() {}));
+
+        target.awaitEvents(2);
+        assertEquals(1, target.batchSizes.size());
+        assertEquals(2.0, observer.getAverageBatchSize(), 0.0);
+        assertTrue(observer.getMaxFlushLatencyMillis() >= 50);
+        observer.close();
+    }
+
+    public void testBatchesFromEventBus() throws Exception
+    {
+        MockBatchObserver target = new MockBatchObserver();
+        BatchingEventObserver observer = new BatchingEventObserver(target, 16, 10);
+        AsynchronousEventBus bus = new AsynchronousEventBus(1, DispatchMode.OBSERVER_LANES);
+        bus.subscribe(observer);
+
+        for (int i = 0; i < 100; i++)
+        {
+            bus.emit(new EventEmitter() {}, new EventMessage() {});
+        }
+
+        target.awaitEvents(100);
+        assertTrue(observer.getLargestBatchSize() <= 16);
+        bus.unsubscribe(observer);
+        observer.close();
+    }
+
+    public void testCloseDoesNotInterruptTheBatchObserver() throws Exception
+    {
+        final CountDownLatch started = new CountDownLatch(1);
+        final List<Boolean> interrupted = Collections.synchronizedList(new ArrayList<Boolean>());
+        BatchingEventObserver observer = new BatchingEventObserver(new BatchEventObserver()
+        {
+            public void observe(List<Event> batch)
+            {
+                started.countDown();
+                try
+                {
+                    Thread.sleep(200);
+                    interrupted.add(Boolean.FALSE);
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted.add(Boolean.TRUE);
+                }
+            }
+        }, 1, 0);
+
+        observer.observe(new Event(new EventEmitter() {}, new EventMessage() {}));
+        observer.observe(new Event(new EventEmitter() {}, new EventMessage() {}));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        observer.close();
+
+        assertEquals(Arrays.asList(Boolean.FALSE, Boolean.FALSE), interrupted);
+        assertEquals(0, observer.getPendingCount());
+    }
+
+    class MockBatchObserver implements BatchEventObserver
+    {
+        final List<Event> events = Collections.synchronizedList(new ArrayList<Event>());
+
+        final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+
+        public void observe(List<Event> batch)
+        {
+            batchSizes.add(batch.size());
+            events.addAll(batch);
+        }
+
+        void awaitEvents(int count) throws InterruptedException
+        {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (events.size() < count && System.currentTimeMillis() < deadline)
+            {
+                Thread.sleep(10);
+            }
+            assertEquals(count, events.size());
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package org.apache.archiva.event;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+
+public class CoalescingEventObserverTest extends TestCase
+{
+    public void testLatestEventPerKeyIsDelivered() throws Exception
+    {
+        MockObserver target = new MockObserver();
+        CoalescingEventObserver observer = new CoalescingEventObserver(target, 200);
+
+        Event latest = null;
+        for (String file : new String[] { "jar", "pom", "jar.sha1", "pom.sha1", "maven-metadata.xml" })
+        {
+            observer.observe(new Event(new EventEmitter() {}, new ArtifactMessage("a", file)));
+            latest = new Event(new EventEmitter() {}, new ArtifactMessage("b", file));
+            observer.observe(latest);
+        }
+        assertEquals(2, observer.getPendingCount());
+        assertTrue(target.events.isEmpty());
+
+        target.awaitEvents(2);
+        assertEquals(2, target.events.size());
+        assertSame(latest, target.events.get(1));
+        assertEquals(10, observer.getObservedCount());
+        assertEquals(2, observer.getDeliveredCount());
+        assertEquals(8, observer.getSuppressedCount());
+        assertEquals(0.8, observer.getSuppressionRatio(), 0.0);
+        assertEquals(5, observer.getLargestWindowSize());
+        observer.close();
+    }
+
+    public void testOtherEventsAreDeliveredDirectly() throws Exception
+    {
+        MockObserver target = new MockObserver();
+        CoalescingEventObserver observer = new CoalescingEventObserver(target, 60000);
+
+        Event event = new Event(new EventEmitter() {}, new EventMessage() {});
+        observer.observe(event);
+        observer.observe(new Event(new EventEmitter() {}, new ArtifactMessage("a", "jar")));
+
+        assertEquals(1, target.events.size());
+        assertSame(event, target.events.get(0));
+        assertEquals(0, observer.getSuppressedCount());
+        assertEquals(1, observer.getPendingCount());
+
+        observer.close();
+        assertEquals(2, target.events.size());
+        assertEquals(0, observer.getPendingCount());
+    }
+
+    public void testKeyIsDeliveredAgainAfterWindow() throws Exception
+    {
+        MockObserver target = new MockObserver();
+        CoalescingEventObserver observer = new CoalescingEventObserver(target, 20);
+
+        observer.observe(new Event(new EventEmitter() {}, new ArtifactMessage("a", "jar")));
+        target.awaitEvents(1);
+        observer.observe(new Event(new EventEmitter() {}, new ArtifactMessage("a", "pom")));
+        target.awaitEvents(2);
+
+        assertEquals(2, target.events.size());
+        assertEquals(0, observer.getSuppressedCount());
+        observer.close();
+    }
+
+    public void testTargetIsNeverCalledConcurrently() throws Exception
+    {
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger overlaps = new AtomicInteger();
+        final AtomicInteger count = new AtomicInteger();
+        CoalescingEventObserver observer = new CoalescingEventObserver(new EventObserver()
+        {
+            public void observe(Event event)
+            {
+                if (active.incrementAndGet() > 1)
+                {
+                    overlaps.incrementAndGet();
+                }
+                try
+                {
+                    Thread.sleep(1);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                count.incrementAndGet();
+                active.decrementAndGet();
+            }
+        }, 0);
+
+        for (int i = 0; i < 200; i++)
+        {
+            observer.observe(new Event(new EventEmitter() {}, new ArtifactMessage("a" + i, "jar")));
+            observer.observe(new Event(new EventEmitter() {}, new EventMessage() {}));
+        }
+        observer.close();
+
+        assertEquals(400, count.get());
+        assertEquals(0, overlaps.get());
+    }
+
+    public void testCloseDoesNotInterruptTarget() throws Exception
+    {
+        final CountDownLatch started = new CountDownLatch(1);
+        final List<Boolean> interrupted = Collections.synchronizedList(new ArrayList<Boolean>());
+        CoalescingEventObserver observer = new CoalescingEventObserver(new EventObserver()
+        {
+            public void observe(Event event)
+            {
+                started.countDown();
+                try
+                {
+                    Thread.sleep(200);
+                    interrupted.add(Boolean.FALSE);
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted.add(Boolean.TRUE);
+                }
+            }
+        }, 0);
+
+        observer.observe(new Event(new EventEmitter() {}, new ArtifactMessage("a", "a-1.0.jar")));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        observer.close();
+        assertEquals(Arrays.asList(Boolean.FALSE), interrupted);
+    }
+
+    static class ArtifactMessage implements CoalescingEventMessage
+    {
+        private final String artifact;
+
+        private final String file;
+
+        ArtifactMessage(String artifact, String file)
+        {
+            this.artifact = artifact;
+            this.file = file;
+        }
+
+        public Object getCoalescingKey()
+        {
+            return artifact;
+        }
+
+        public String toString()
+        {
+            return artifact + ":" + file;
+        }
+    }
+
+    static class MockObserver implements EventObserver
+    {
+        final List<Event> events = new ArrayList<Event>();
+
+        public synchronized void observe(Event event)
+        {
+            events.add(event);
+            notifyAll();
+        }
+
+        synchronized void awaitEvents(int count) throws InterruptedException
+        {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (events.size() < count && System.currentTimeMillis() < deadline)
+            {
+                wait(100);
+            }
+        }
+    }
+}
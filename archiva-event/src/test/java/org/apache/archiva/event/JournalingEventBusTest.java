@@ -0,0 +1,382 @@
+package org.apache.archiva.event;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import junit.framework.TestCase;
+
+public class JournalingEventBusTest extends TestCase
+{
+    private File directory;
+
+    private AsynchronousEventBus delegate;
+
+    protected void setUp() throws Exception
+    {
+        directory = File.createTempFile("journal", "");
+        directory.delete();
+        delegate = new AsynchronousEventBus(1);
+    }
+
+    protected void tearDown() throws Exception
+    {
+        delegate.shutdownNow();
+        delete(directory);
+    }
+
+    public void testDurableObserverReceivesEmittedMessages() throws Exception
+    {
+        JournalingEventBus bus = new JournalingEventBus(delegate, directory, new SerializableEventCodec());
+        MockObserver durable = new MockObserver();
+        bus.subscribeDurable("durable", durable);
+
+        for (int i = 0; i < 10; i++)
+        {
+            bus.emit(new EventEmitter() {}, new NumberMessage(i));
+        }
+
+        durable.awaitValues(10);
+        assertEquals(range(0, 10), durable.values);
+        assertSame(bus, durable.emitter);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (bus.getPosition("durable") != bus.getJournalEnd() && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(10);
+        }
+        assertEquals(bus.getJournalEnd(), bus.getPosition("durable"));
+        bus.close();
+    }
+
+    public void testReplaysFromLastPositionAfterReopen() throws Exception
+    {
+        JournalingEventBus bus = new JournalingEventBus(delegate, directory, new SerializableEventCodec());
+        MockObserver first = new MockObserver();
+        bus.subscribeDurable("durable", first);
+        for (int i = 0; i < 5; i++)
+        {
+            bus.emit(new EventEmitter() {}, new NumberMessage(i));
+        }
+        first.awaitValues(5);
+        bus.close();
+
+        bus = new JournalingEventBus(delegate, directory, new SerializableEventCodec());
+        for (int i = 5; i < 10; i++)
+        {
+            bus.emit(new EventEmitter() {}, new NumberMessage(i));
+        }
+
+        MockObserver second = new MockObserver();
+        bus.subscribeDurable("durable", second);
+        MockObserver latecomer = new MockObserver();
+        bus.subscribeDurable("latecomer", latecomer);
+        bus.emit(new EventEmitter() {}, new NumberMessage(10));
+
+        second.awaitValues(6);
+        latecomer.awaitValues(1);
+        assertEquals(range(5, 11), second.values);
+        assertEquals(range(10, 11), latecomer.values);
+        bus.close();
+    }
+
+    public void testRollsOverSegmentsAndCompacts() throws Exception
+    {
+        JournalingEventBus bus = new JournalingEventBus(delegate, directory, new SerializableEventCodec(), 1024);
+        MockObserver durable = new MockObserver();
+        bus.subscribeDurable("durable", NumberMessage.class, durable);
+
+        for (int i = 0; i < 100; i++)
+        {
+            bus.emit(new EventEmitter() {}, new NumberMessage(i));
+            bus.emit(new EventEmitter() {}, new OtherMessage());
+        }
+
+        durable.awaitValues(100);
+        assertEquals(range(0, 100), durable.values);
+        assertTrue(bus.getJournalEnd() > 10 * 1024);
+        assertTrue(bus.compact() > 0);
+        bus.close();
+
+        bus = new JournalingEventBus(delegate, directory, new SerializableEventCodec(), 1024);
+        MockObserver reopened = new MockObserver();
+        bus.subscribeDurable("durable", NumberMessage.class, reopened);
+        bus.emit(new EventEmitter() {}, new NumberMessage(100));
+        reopened.awaitValues(1);
+        assertEquals(range(100, 101), reopened.values);
+        bus.close();
+    }
+
+    public void testFailingObserverDoesNotStopSubscription() throws Exception
+    {
+        JournalingEventBus bus = new JournalingEventBus(delegate, directory, new SerializableEventCodec());
+        final MockObserver durable = new MockObserver();
+        bus.subscribeDurable("durable", new EventObserver()
+        {
+            public void observe(Event event)
+            {
+                if (((NumberMessage) event.getMessage()).value == 1)
+                {
+                    throw new IllegalStateException("failing observer");
+                }
+                durable.observe(event);
+            }
+        });
+
+        for (int i = 0; i < 3; i++)
+        {
+            bus.emit(new EventEmitter() {}, new NumberMessage(i));
+        }
+        durable.awaitValues(2);
+        assertEquals(Arrays.asList(Integer.valueOf(0), Integer.valueOf(2)), durable.values);
+        bus.close();
+    }
+
+    public void testEndedCursorCanBeSubscribedAgain() throws Exception
+    {
+        JournalingEventBus bus = new JournalingEventBus(delegate, directory, new SerializableEventCodec());
+        bus.subscribeDurable("durable", new EventObserver()
+        {
+            public void observe(Event event)
+            {
+                throw new Error("observer gave up");
+            }
+        });
+        bus.emit(new EventEmitter() {}, new NumberMessage(0));
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (bus.getPosition("durable") != -1 && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(10);
+        }
+        assertEquals(-1, bus.getPosition("durable"));
+
+        // the message was not acknowledged, so it is observed again
+        MockObserver durable = new MockObserver();
+        bus.subscribeDurable("durable", durable);
+        durable.awaitValues(1);
+        assertEquals(range(0, 1), durable.values);
+        bus.close();
+    }
+
+    public void testLiveObserversSeeTheJournalOrder() throws Exception
+    {
+        // a single dispatcher delivers in the order the delegate was given the messages
+        RingBufferEventBus ordered = new RingBufferEventBus(64, 1, BackpressurePolicy.BLOCK);
+        final JournalingEventBus bus = new JournalingEventBus(ordered, directory, new SerializableEventCodec());
+        MockObserver live = new MockObserver();
+        MockObserver durable = new MockObserver();
+        bus.subscribe(live);
+        bus.subscribeDurable("durable", durable);
+
+        Thread[] emitters = new Thread[4];
+        for (int t = 0; t < emitters.length; t++)
+        {
+            final int first = t * 250;
+            emitters[t] = new Thread()
+            {
+                public void run()
+                {
+                    for (int i = first; i < first + 250; i++)
+                    {
+                        bus.emit(new EventEmitter() {}, new NumberMessage(i));
+                    }
+                }
+            };
+            emitters[t].start();
+        }
+        for (Thread emitter : emitters)
+        {
+            emitter.join();
+        }
+
+        live.awaitValues(1000);
+        durable.awaitValues(1000);
+        assertEquals(1000, live.values.size());
+        assertEquals(durable.values, live.values);
+        bus.close();
+        ordered.shutdownNow();
+    }
+
+    public void testCloseDoesNotInterruptObserver() throws Exception
+    {
+        JournalingEventBus bus = new JournalingEventBus(delegate, directory, new SerializableEventCodec());
+        final MockObserver durable = new MockObserver();
+        final List<Boolean> interrupted = Collections.synchronizedList(new ArrayList<Boolean>());
+        bus.subscribeDurable("durable", new EventObserver()
+        {
+            public void observe(Event event)
+            {
+                durable.observe(event);
+                try
+                {
+                    Thread.sleep(200);
+                    interrupted.add(Boolean.FALSE);
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted.add(Boolean.TRUE);
+                }
+            }
+        });
+        bus.emit(new EventEmitter() {}, new NumberMessage(0));
+        durable.awaitValues(1);
+
+        bus.close();
+        assertEquals(Arrays.asList(Boolean.FALSE), interrupted);
+    }
+
+    public void testUnsubscribeStopsEqualDurableObservers() throws Exception
+    {
+        JournalingEventBus bus = new JournalingEventBus(delegate, directory, new SerializableEventCodec());
+        bus.subscribeDurable("durable", new NamedObserver("indexer"));
+        assertEquals(0, bus.getPosition("durable"));
+
+        bus.unsubscribe(new NamedObserver("indexer"));
+        assertEquals(-1, bus.getPosition("durable"));
+        assertTrue(bus.getObservers().isEmpty());
+        bus.close();
+    }
+
+    public void testRejectsEmptyRecords() throws Exception
+    {
+        JournalingEventBus bus = new JournalingEventBus(delegate, directory, new SerializableEventCodec()
+        {
+            public byte[] encode(EventMessage message)
+            {
+                return new byte[0];
+            }
+        });
+        try
+        {
+            bus.emit(new EventEmitter() {}, new NumberMessage(0));
+            fail("Expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+        assertEquals(0, bus.getJournalEnd());
+        bus.close();
+    }
+
+    public void testRejectsInvalidNames() throws Exception
+    {
+        JournalingEventBus bus = new JournalingEventBus(delegate, directory, new SerializableEventCodec());
+        try
+        {
+            bus.subscribeDurable("../escape", new MockObserver());
+            fail("Expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+        bus.close();
+    }
+
+    private static List<Integer> range(int from, int to)
+    {
+        List<Integer> values = new ArrayList<Integer>();
+        for (int i = from; i < to; i++)
+        {
+            values.add(Integer.valueOf(i));
+        }
+        return values;
+    }
+
+    private static void delete(File file) throws IOException
+    {
+        File[] children = file.listFiles();
+        for (int i = 0; children != null && i < children.length; i++)
+        {
+            delete(children[i]);
+        }
+        file.delete();
+    }
+
+    static class NumberMessage implements EventMessage, Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        final int value;
+
+        NumberMessage(int value)
+        {
+            this.value = value;
+        }
+    }
+
+    static class OtherMessage implements EventMessage, Serializable
+    {
+        private static final long serialVersionUID = 1L;
+    }
+
+    static class NamedObserver implements EventObserver
+    {
+        private final String name;
+
+        NamedObserver(String name)
+        {
+            this.name = name;
+        }
+
+        public void observe(Event event)
+        {
+        }
+
+        public boolean equals(Object other)
+        {
+            return other instanceof NamedObserver && name.equals(((NamedObserver) other).name);
+        }
+
+        public int hashCode()
+        {
+            return name.hashCode();
+        }
+    }
+
+    static class MockObserver implements EventObserver
+    {
+        final List<Integer> values = new ArrayList<Integer>();
+
+        volatile EventEmitter emitter;
+
+        public synchronized void observe(Event event)
+        {
+            emitter = event.getEmitter();
+            values.add(Integer.valueOf(((NumberMessage) event.getMessage()).value));
+            notifyAll();
+        }
+
+        synchronized void awaitValues(int count) throws InterruptedException
+        {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (values.size() < count && System.currentTimeMillis() < deadline)
+            {
+                wait(100);
+            }
+        }
+    }
+}
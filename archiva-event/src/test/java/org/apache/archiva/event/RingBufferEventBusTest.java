@@ -0,0 +1,343 @@
+package org.apache.archiva.event;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+
+public class RingBufferEventBusTest extends TestCase
+{
+    private final List<RingBufferEventBus> buses = new ArrayList<RingBufferEventBus>();
+
+    protected void tearDown() throws Exception
+    {
+        for (RingBufferEventBus bus : buses)
+        {
+            bus.shutdownNow();
+            assertTrue(bus.awaitTermination(10, TimeUnit.SECONDS));
+        }
+    }
+
+    private RingBufferEventBus newBus(int capacity, int threads, BackpressurePolicy policy)
+    {
+        RingBufferEventBus bus = new RingBufferEventBus(capacity, threads, policy);
+        buses.add(bus);
+        return bus;
+    }
+
+    public void testCapacityIsRoundedUpToPowerOfTwo()
+    {
+        assertEquals(1, newBus(1, 1, BackpressurePolicy.BLOCK).getCapacity());
+        assertEquals(8, newBus(5, 1, BackpressurePolicy.BLOCK).getCapacity());
+        assertEquals(16, newBus(16, 1, BackpressurePolicy.BLOCK).getCapacity());
+    }
+
+    public void testSubscribeUnsubscribe()
+    {
+        RingBufferEventBus bus = newBus(4, 1, BackpressurePolicy.BLOCK);
+        MockObserver observer = new MockObserver();
+
+        bus.subscribe(observer);
+        bus.subscribe(observer);
+        assertEquals(1, bus.getObservers().size());
+        assertTrue(bus.getObservers().contains(observer));
+
+        bus.unsubscribe(observer);
+        assertEquals(0, bus.getObservers().size());
+    }
+
+    public void testAllEventsAreObservedInOrder() throws Exception
+    {
+        RingBufferEventBus bus = newBus(4, 1, BackpressurePolicy.BLOCK);
+        MockObserver observer = new MockObserver();
+        bus.subscribe(observer);
+
+        List<EventMessage> messages = new ArrayList<EventMessage>();
+        for (int i = 0; i < 100; i++)
+        {
+            EventMessage message = new EventMessage() {};
+            messages.add(message);
+            bus.emit(new EventEmitter() {}, message);
+        }
+
+        observer.awaitEvents(100);
+        for (int i = 0; i < 100; i++)
+        {
+            assertSame(messages.get(i), observer.observedEvents.get(i).getMessage());
+        }
+        assertEquals(0, bus.getDroppedCount());
+    }
+
+    public void testDropOldestWhenFull() throws Exception
+    {
+        RingBufferEventBus bus = newBus(2, 1, BackpressurePolicy.DROP_OLDEST);
+        BlockingObserver blocker = new BlockingObserver();
+        MockObserver observer = new MockObserver();
+        bus.subscribe(blocker);
+        bus.subscribe(observer);
+
+        EventMessage first = new EventMessage() {};
+        bus.emit(new EventEmitter() {}, first);
+        assertTrue(blocker.started.await(10, TimeUnit.SECONDS));
+
+        // the dispatcher is stuck on the first event, so the buffer holds two of the next three
+        EventMessage[] messages = new EventMessage[3];
+        for (int i = 0; i < messages.length; i++)
+        {
+            messages[i] = new EventMessage() {};
+            bus.emit(new EventEmitter() {}, messages[i]);
+        }
+        assertEquals(1, bus.getDroppedCount());
+        assertEquals(2, bus.getPendingCount());
+
+        blocker.release.countDown();
+        observer.awaitEvents(3);
+        assertSame(first, observer.observedEvents.get(0).getMessage());
+        assertSame(messages[1], observer.observedEvents.get(1).getMessage());
+        assertSame(messages[2], observer.observedEvents.get(2).getMessage());
+    }
+
+    public void testCallerRunsWhenFull() throws Exception
+    {
+        RingBufferEventBus bus = newBus(1, 1, BackpressurePolicy.CALLER_RUNS);
+        BlockingObserver blocker = new BlockingObserver();
+        bus.subscribe(blocker);
+
+        bus.emit(new EventEmitter() {}, new EventMessage() {});
+        assertTrue(blocker.started.await(10, TimeUnit.SECONDS));
+        bus.emit(new EventEmitter() {}, new EventMessage() {});
+
+        MockObserver observer = new MockObserver();
+        bus.subscribe(observer);
+        bus.unsubscribe(blocker);
+        bus.emit(new EventEmitter() {}, new EventMessage() {});
+
+        assertEquals(1, observer.observedEvents.size());
+        assertSame(Thread.currentThread(), observer.threads.get(0));
+        assertEquals(0, bus.getDroppedCount());
+        blocker.release.countDown();
+    }
+
+    public void testBlockWaitsForRoom() throws Exception
+    {
+        final RingBufferEventBus bus = newBus(1, 1, BackpressurePolicy.BLOCK);
+        BlockingObserver blocker = new BlockingObserver();
+        MockObserver observer = new MockObserver();
+        bus.subscribe(blocker);
+        bus.subscribe(observer);
+
+        bus.emit(new EventEmitter() {}, new EventMessage() {});
+        assertTrue(blocker.started.await(10, TimeUnit.SECONDS));
+        bus.emit(new EventEmitter() {}, new EventMessage() {});
+
+        final CountDownLatch emitted = new CountDownLatch(1);
+        new Thread()
+        {
+            public void run()
+            {
+                bus.emit(new EventEmitter() {}, new EventMessage() {});
+                emitted.countDown();
+            }
+        }.start();
+        assertFalse(emitted.await(200, TimeUnit.MILLISECONDS));
+
+        blocker.release.countDown();
+        assertTrue(emitted.await(10, TimeUnit.SECONDS));
+        observer.awaitEvents(3);
+        assertEquals(0, bus.getDroppedCount());
+    }
+
+    public void testInterruptedEmitterIsCountedApart() throws Exception
+    {
+        final RingBufferEventBus bus = newBus(1, 1, BackpressurePolicy.BLOCK);
+        BlockingObserver blocker = new BlockingObserver();
+        bus.subscribe(blocker);
+
+        bus.emit(new EventEmitter() {}, new EventMessage() {});
+        assertTrue(blocker.started.await(10, TimeUnit.SECONDS));
+        bus.emit(new EventEmitter() {}, new EventMessage() {});
+
+        final boolean[] stillInterrupted = new boolean[1];
+        Thread emitter = new Thread()
+        {
+            public void run()
+            {
+                bus.emit(new EventEmitter() {}, new EventMessage() {});
+                stillInterrupted[0] = Thread.currentThread().isInterrupted();
+            }
+        };
+        emitter.start();
+        Thread.sleep(100);
+        emitter.interrupt();
+        emitter.join(10000);
+
+        assertTrue(stillInterrupted[0]);
+        assertEquals(1, bus.getInterruptedCount());
+        assertEquals(0, bus.getDroppedCount());
+        assertEquals(1, bus.getPendingCount());
+        blocker.release.countDown();
+    }
+
+    public void testFailingObserverDoesNotStopDispatch() throws Exception
+    {
+        RingBufferEventBus bus = newBus(4, 1, BackpressurePolicy.BLOCK);
+        bus.subscribe(new EventObserver()
+        {
+            public void observe(Event event)
+            {
+                throw new IllegalStateException("failing observer");
+            }
+        });
+        MockObserver observer = new MockObserver();
+        bus.subscribe(observer);
+
+        for (int i = 0; i < 10; i++)
+        {
+            bus.emit(new EventEmitter() {}, new EventMessage() {});
+        }
+        observer.awaitEvents(10);
+    }
+
+    public void testShutdownDrainsEmittedEvents() throws Exception
+    {
+        RingBufferEventBus bus = newBus(16, 2, BackpressurePolicy.BLOCK);
+        BlockingObserver blocker = new BlockingObserver();
+        MockObserver observer = new MockObserver();
+        bus.subscribe(blocker);
+        bus.subscribe(observer);
+
+        for (int i = 0; i < 10; i++)
+        {
+            bus.emit(new EventEmitter() {}, new EventMessage() {});
+        }
+        assertTrue(blocker.started.await(10, TimeUnit.SECONDS));
+        assertFalse(bus.shutdown(100, TimeUnit.MILLISECONDS));
+        assertFalse(bus.isTerminated());
+
+        blocker.release.countDown();
+        assertTrue(bus.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(10, observer.observedEvents.size());
+
+        try
+        {
+            bus.emit(new EventEmitter() {}, new EventMessage() {});
+            fail("emit after shutdown must fail");
+        }
+        catch (IllegalStateException e)
+        {
+            // expected
+        }
+    }
+
+    public void testShutdownNowReturnsPendingEvents() throws Exception
+    {
+        RingBufferEventBus bus = newBus(4, 1, BackpressurePolicy.BLOCK);
+        BlockingObserver blocker = new BlockingObserver();
+        bus.subscribe(blocker);
+
+        bus.emit(new EventEmitter() {}, new EventMessage() {});
+        assertTrue(blocker.started.await(10, TimeUnit.SECONDS));
+        EventMessage pending = new EventMessage() {};
+        bus.emit(new EventEmitter() {}, pending);
+
+        List<Event> remaining = bus.shutdownNow();
+        assertEquals(1, remaining.size());
+        assertSame(pending, remaining.get(0).getMessage());
+        assertTrue(bus.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    public void testShutdownReleasesBlockedEmitter() throws Exception
+    {
+        final RingBufferEventBus bus = newBus(1, 1, BackpressurePolicy.BLOCK);
+        BlockingObserver blocker = new BlockingObserver();
+        bus.subscribe(blocker);
+
+        bus.emit(new EventEmitter() {}, new EventMessage() {});
+        assertTrue(blocker.started.await(10, TimeUnit.SECONDS));
+        bus.emit(new EventEmitter() {}, new EventMessage() {});
+
+        final CountDownLatch failed = new CountDownLatch(1);
+        new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    bus.emit(new EventEmitter() {}, new EventMessage() {});
+                }
+                catch (IllegalStateException e)
+                {
+                    failed.countDown();
+                }
+            }
+        }.start();
+        assertFalse(failed.await(200, TimeUnit.MILLISECONDS));
+
+        bus.shutdownNow();
+        assertTrue(failed.await(10, TimeUnit.SECONDS));
+    }
+
+    class MockObserver implements EventObserver
+    {
+        final List<Event> observedEvents = Collections.synchronizedList(new ArrayList<Event>());
+
+        final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+
+        public void observe(Event event)
+        {
+            threads.add(Thread.currentThread());
+            observedEvents.add(event);
+        }
+
+        void awaitEvents(int count) throws InterruptedException
+        {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (observedEvents.size() < count && System.currentTimeMillis() < deadline)
+            {
+                Thread.sleep(10);
+            }
+            assertEquals(count, observedEvents.size());
+        }
+    }
+
+    class BlockingObserver implements EventObserver
+    {
+        final CountDownLatch started = new CountDownLatch(1);
+
+        final CountDownLatch release = new CountDownLatch(1);
+
+        public void observe(Event event)
+        {
+            started.countDown();
+            try
+            {
+                release.await();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -41,7 +41,7 @@ public class MimeTypes
 
     private static final String DEFAULT_MIME_TYPE = "application/octet-stream";
 
-    private String resource = "/mime.types";
+    private String resource = "mime.types";
     
     private Map mimeMap = new HashMap();
 
@@ -65,6 +65,20 @@ public interface RepositoryManager
      */
     boolean read(ResourceContext context, OutputStream os);
 
+    /**
+     * Reads part of the data represented by the ResourceContext to the OutputStream
+     *
+     * Used to answer HTTP range requests, so it should not read the data
+     * before the offset where the underlying storage allows it
+     *
+     * @param context
+     * @param os
+     * @param offset the position of the first byte to read
+     * @param length the number of bytes to read
+     * @return success
+     */
+    boolean read(ResourceContext context, OutputStream os, long offset, long length);
+
     /**
      * Writes the data represented by the ResourceContext from the InputStream
      * @param context
@@ -20,6 +20,9 @@ package org.apache.archiva.repository.api;
  */
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Comparator;
 
 /**
@@ -51,6 +54,8 @@ public final class Status
 
     private String name;
 
+    private String eTag;
+
     /**
      * Sets the Name of the resource
      * @param name
@@ -159,28 +164,71 @@ public final class Status
         this.resourceType = resourceType;
     }
 
+    /**
+     * Gets the strong entity tag of the resource, without the quotes,
+     * or null if the RepositoryManager does not provide one
+     * @return eTag
+     */
+    public String getETag()
+    {
+        return eTag;
+    }
+
+    /**
+     * Sets the strong entity tag of the resource, without the quotes
+     *
+     * The tag must change whenever the content of the resource changes,
+     * for example a checksum of the content or its length and last modified date
+     * @param eTag
+     */
+    public void setETag(String eTag)
+    {
+        this.eTag = eTag;
+    }
+
     /**
      * Builds a Status object for the given file.
      *
+     * The attributes are read with a single call to the file system
+     *
      * @param file
-     * @return status
+     * @return status, or null if the file does not exist or its attributes cannot be read
      */
     public static Status fromFile(File file)
     {
+        BasicFileAttributes attributes;
+        try
+        {
+            attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+
         Status status = new Status();
         status.setName(file.getName());
-        status.setLastModified(file.lastModified());
-        status.setCreatedDate(file.lastModified());
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        status.setLastModified(lastModified);
+        status.setCreatedDate(lastModified);
 
-        if (file.isDirectory())
+        if (attributes.isDirectory())
         {
             status.setResourceType(Status.ResourceType.Collection);
         }
         else
         {
             status.setContentType(mimeTypes.getMimeType(file.getName()));
-            status.setContentLength(file.length());
+            status.setContentLength(attributes.size());
             status.setResourceType(Status.ResourceType.Resource);
+            String eTag = Long.toHexString(status.getContentLength()) + "-" + Long.toHexString(lastModified);
+            //The file key, the inode on Unix, tells apart a file replaced by one of the same length and date
+            final Object fileKey = attributes.fileKey();
+            if (fileKey != null)
+            {
+                eTag = Integer.toHexString(fileKey.hashCode()) + "-" + eTag;
+            }
+            status.setETag(eTag);
         }
         return status;
     }
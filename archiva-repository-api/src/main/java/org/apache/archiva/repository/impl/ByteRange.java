@@ -0,0 +1,193 @@
+package org.apache.archiva.repository.impl;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * A satisfiable byte range of a resource, as requested by an HTTP Range header
+ */
+final class ByteRange
+{
+    /**
+     * Requests with more ranges than this are answered with the whole resource
+     */
+    static final int MAX_RANGES = 32;
+
+    private static final String BYTES_UNIT = "bytes=";
+
+    private final long first;
+
+    private final long last;
+
+    ByteRange(long first, long last)
+    {
+        this.first = first;
+        this.last = last;
+    }
+
+    long getFirst()
+    {
+        return first;
+    }
+
+    long getLast()
+    {
+        return last;
+    }
+
+    long getLength()
+    {
+        return last - first + 1;
+    }
+
+    /**
+     * @param contentLength
+     * @return the value of the Content-Range header for this range
+     */
+    String toContentRange(long contentLength)
+    {
+        return "bytes " + first + "-" + last + "/" + contentLength;
+    }
+
+    /**
+     * Parses a Range header against the length of the resource
+     *
+     * Ranges that lie past the end of the resource are left out and the others are clipped to it.
+     * Ranges that overlap or adjoin are merged, so that no part of the resource is sent more than once.
+     *
+     * @param header
+     * @param contentLength
+     * @return the satisfiable ranges in the requested order, or in ascending order if some of them were merged,
+     *  an empty list if none of them is satisfiable,
+     *  or null if the header is not a valid bytes range or asks for too many ranges, in which case it must be ignored
+     */
+    static List<ByteRange> parse(String header, long contentLength)
+    {
+        if (header == null || !header.startsWith(BYTES_UNIT))
+        {
+            return null;
+        }
+
+        final String[] specs = StringUtils.split(header.substring(BYTES_UNIT.length()), ',');
+        if (specs == null || specs.length == 0 || specs.length > MAX_RANGES)
+        {
+            return null;
+        }
+
+        final List<ByteRange> ranges = new ArrayList<ByteRange>(specs.length);
+        for (String spec : specs)
+        {
+            spec = spec.trim();
+            final int dash = spec.indexOf('-');
+            if (dash < 0)
+            {
+                return null;
+            }
+
+            long first;
+            long last;
+            try
+            {
+                if (dash == 0)
+                {
+                    //suffix range: the last n bytes
+                    final long suffix = Long.parseLong(spec.substring(1));
+                    if (suffix < 0)
+                    {
+                        return null;
+                    }
+                    if (suffix == 0)
+                    {
+                        continue;
+                    }
+                    first = Math.max(0, contentLength - suffix);
+                    last = contentLength - 1;
+                }
+                else
+                {
+                    first = Long.parseLong(spec.substring(0, dash));
+                    last = contentLength - 1;
+                    if (dash < spec.length() - 1)
+                    {
+                        final long requested = Long.parseLong(spec.substring(dash + 1));
+                        if (requested < first)
+                        {
+                            return null;
+                        }
+                        last = Math.min(last, requested);
+                    }
+                }
+            }
+            catch (NumberFormatException e)
+            {
+                return null;
+            }
+
+            if (first < 0)
+            {
+                return null;
+            }
+            if (first < contentLength)
+            {
+                ranges.add(new ByteRange(first, last));
+            }
+        }
+        return ranges.isEmpty() ? Collections.<ByteRange>emptyList() : coalesce(ranges);
+    }
+
+    /**
+     * @param ranges
+     * @return the ranges if none of them overlap or adjoin, otherwise the merged ranges in ascending order
+     */
+    private static List<ByteRange> coalesce(List<ByteRange> ranges)
+    {
+        final List<ByteRange> sorted = new ArrayList<ByteRange>(ranges);
+        Collections.sort(sorted, new Comparator<ByteRange>()
+        {
+            public int compare(ByteRange a, ByteRange b)
+            {
+                return a.first < b.first ? -1 : (a.first == b.first ? 0 : 1);
+            }
+        });
+
+        final List<ByteRange> merged = new ArrayList<ByteRange>(sorted.size());
+        ByteRange current = sorted.get(0);
+        for (int i = 1; i < sorted.size(); i++)
+        {
+            final ByteRange next = sorted.get(i);
+            if (next.first <= current.last + 1)
+            {
+                current = new ByteRange(current.first, Math.max(current.last, next.last));
+            }
+            else
+            {
+                merged.add(current);
+                current = next;
+            }
+        }
+        merged.add(current);
+        return merged.size() == ranges.size() ? ranges : merged;
+    }
+}
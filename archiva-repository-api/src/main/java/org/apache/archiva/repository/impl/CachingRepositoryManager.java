@@ -0,0 +1,251 @@
+package org.apache.archiva.repository.impl;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.archiva.repository.api.RepositoryManager;
+import org.apache.archiva.repository.api.ResourceContext;
+import org.apache.archiva.repository.api.Status;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * RepositoryManager decorator that caches the results of stat
+ *
+ * Results are kept per repository and logical path for a time to live, in a map bounded
+ * to the most recently used entries. A write through this manager invalidates the path
+ * written and the collections above it; changes made behind its back are seen once the
+ * entries expire. The cached Status objects are shared and must not be modified.
+ */
+public class CachingRepositoryManager implements RepositoryManager
+{
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    public static final long DEFAULT_TIME_TO_LIVE = 5000;
+
+    private final RepositoryManager delegate;
+
+    private final long timeToLiveNanos;
+
+    private final Map<String, CachedStat> cache;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Incremented on every invalidation, so that a stat which raced with a write is not cached
+     */
+    private long generation;
+
+    public CachingRepositoryManager(RepositoryManager delegate)
+    {
+        this(delegate, DEFAULT_MAX_ENTRIES, DEFAULT_TIME_TO_LIVE);
+    }
+
+    /**
+     * @param delegate the RepositoryManager to cache
+     * @param maxEntries the number of paths to keep
+     * @param timeToLive the time in milliseconds a result is kept
+     */
+    public CachingRepositoryManager(RepositoryManager delegate, final int maxEntries, long timeToLive)
+    {
+        if (maxEntries < 1)
+        {
+            throw new IllegalArgumentException("Cache must hold at least one entry: " + maxEntries);
+        }
+        this.delegate = delegate;
+        this.timeToLiveNanos = TimeUnit.MILLISECONDS.toNanos(timeToLive);
+        this.cache = new LinkedHashMap<String, CachedStat>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedStat> eldest)
+            {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public RepositoryManager getDelegate()
+    {
+        return delegate;
+    }
+
+    public ResourceContext handles(ResourceContext context)
+    {
+        return delegate.handles(context);
+    }
+
+    public boolean exists(String repositoryId)
+    {
+        return delegate.exists(repositoryId);
+    }
+
+    public List<Status> stat(ResourceContext context)
+    {
+        final String key = key(context.getRepositoryId(), context.getLogicalPath());
+        final long startGeneration;
+        synchronized (cache)
+        {
+            final CachedStat cached = cache.get(key);
+            if (cached != null && System.nanoTime() - cached.expires < 0)
+            {
+                hits.incrementAndGet();
+                return cached.statuses;
+            }
+            startGeneration = generation;
+        }
+
+        misses.incrementAndGet();
+        final List<Status> statuses = delegate.stat(context);
+        if (statuses == null)
+        {
+            //the repository is unknown to the delegate, which is not worth remembering
+            return null;
+        }
+
+        final List<Status> result = Collections.unmodifiableList(statuses);
+        synchronized (cache)
+        {
+            if (generation == startGeneration)
+            {
+                cache.put(key, new CachedStat(result, System.nanoTime() + timeToLiveNanos));
+            }
+        }
+        return result;
+    }
+
+    public boolean read(ResourceContext context, OutputStream os)
+    {
+        return delegate.read(context, os);
+    }
+
+    public boolean read(ResourceContext context, OutputStream os, long offset, long length)
+    {
+        return delegate.read(context, os, offset, length);
+    }
+
+    public boolean write(ResourceContext context, InputStream is)
+    {
+        try
+        {
+            return delegate.write(context, is);
+        }
+        finally
+        {
+            invalidate(context.getRepositoryId(), context.getLogicalPath());
+        }
+    }
+
+    /**
+     * Removes the cached results for the path and the collections above it
+     * @param repositoryId
+     * @param logicalPath
+     */
+    public void invalidate(String repositoryId, String logicalPath)
+    {
+        String path = normalize(logicalPath);
+        synchronized (cache)
+        {
+            generation++;
+            while (true)
+            {
+                cache.remove(repositoryId + ':' + path);
+                if ("/".equals(path))
+                {
+                    break;
+                }
+                final int slash = path.lastIndexOf('/');
+                path = slash <= 0 ? "/" : path.substring(0, slash);
+            }
+        }
+    }
+
+    /**
+     * Removes all cached results
+     */
+    public void clear()
+    {
+        synchronized (cache)
+        {
+            generation++;
+            cache.clear();
+        }
+    }
+
+    public int getSize()
+    {
+        synchronized (cache)
+        {
+            return cache.size();
+        }
+    }
+
+    public long getHitCount()
+    {
+        return hits.get();
+    }
+
+    public long getMissCount()
+    {
+        return misses.get();
+    }
+
+    private static String key(String repositoryId, String logicalPath)
+    {
+        return repositoryId + ':' + normalize(logicalPath);
+    }
+
+    private static String normalize(String logicalPath)
+    {
+        if (logicalPath == null || logicalPath.length() == 0)
+        {
+            return "/";
+        }
+        String path = logicalPath.replace('\\', '/');
+        if (!path.startsWith("/"))
+        {
+            path = "/" + path;
+        }
+        while (path.length() > 1 && path.endsWith("/"))
+        {
+            path = path.substring(0, path.length() - 1);
+        }
+        return path;
+    }
+
+    private static final class CachedStat
+    {
+        private final List<Status> statuses;
+
+        private final long expires;
+
+        private CachedStat(List<Status> statuses, long expires)
+        {
+            this.statuses = statuses;
+            this.expires = expires;
+        }
+    }
+}
@@ -32,6 +32,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -59,6 +60,14 @@ public class DefaultRepositoryManager implements SystemRepositoryManager
     }
 
     public boolean read(ResourceContext context, OutputStream os)
+    {
+        return read(context, os, 0, -1);
+    }
+
+    /**
+     * Reads length bytes from the offset, or the rest of the resource if length is negative
+     */
+    public boolean read(ResourceContext context, OutputStream os, long offset, long length)
     {
         final Repository repository = repositoryFactory.getRepositories().get(context.getRepositoryId());
         if (repository == null)
@@ -70,7 +79,8 @@ public class DefaultRepositoryManager implements SystemRepositoryManager
         try
         {
             fis = new FileInputStream(new File(repository.getLocalPath(), context.getLogicalPath()));
-            IOUtils.copyLarge(fis, os);
+            final FileChannel channel = fis.getChannel();
+            FileTransfer.transfer(channel, offset, length < 0 ? channel.size() - offset : length, os);
             return true;
         }
         catch (IOException e)
@@ -119,22 +129,28 @@ public class DefaultRepositoryManager implements SystemRepositoryManager
         if (repository != null)
         {
             final File file = new File(repository.getLocalPath(), context.getLogicalPath());
-            if (file.exists())
+            final Status status = Status.fromFile(file);
+            if (status != null)
             {
                 final ArrayList<Status> result = new ArrayList<Status>();
-                if (file.isDirectory())
+                result.add(status);
+                if (Status.ResourceType.Collection.equals(status.getResourceType()))
                 {
-                    result.add(Status.fromFile(file));
-                    for (final File child : file.listFiles())
+                    final File[] children = file.listFiles();
+                    if (children != null)
                     {
-                        result.add(Status.fromFile(child));
+                        result.ensureCapacity(children.length + 1);
+                        for (final File child : children)
+                        {
+                            //Children deleted since the listing are left out
+                            final Status childStatus = Status.fromFile(child);
+                            if (childStatus != null)
+                            {
+                                result.add(childStatus);
+                            }
+                        }
                     }
                 }
-
-                if (file.isFile())
-                {
-                    result.add(Status.fromFile(file));
-                }
                 return result;
             }
             return Collections.EMPTY_LIST;
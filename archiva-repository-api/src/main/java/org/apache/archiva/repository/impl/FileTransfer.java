@@ -0,0 +1,123 @@
+package org.apache.archiva.repository.impl;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Copies a region of a file to an OutputStream without passing it through a heap buffer where the stream allows it.
+ *
+ * When the stream is itself a channel, such as the response stream of some containers, or a FileOutputStream, the
+ * region is handed to FileChannel.transferTo so the kernel can copy it directly. Otherwise, or when the channel stops
+ * taking bytes, it is read into a buffer of up to 256KB allocated for the transfer, and written to the stream from
+ * there in large chunks. The buffer is not kept per thread, so that container worker threads do not each pin one.
+ */
+final class FileTransfer
+{
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private FileTransfer()
+    {
+    }
+
+    /**
+     * Copies count bytes of the channel, starting at position, to the stream
+     * @param channel
+     * @param position
+     * @param count
+     * @param os
+     * @throws IOException if the file ends before count bytes were copied
+     */
+    static void transfer(FileChannel channel, long position, long count, OutputStream os)
+        throws IOException
+    {
+        WritableByteChannel target = null;
+        if (os instanceof WritableByteChannel)
+        {
+            target = (WritableByteChannel)os;
+        }
+        else if (os instanceof FileOutputStream)
+        {
+            target = ((FileOutputStream)os).getChannel();
+        }
+
+        if (target != null)
+        {
+            transferTo(channel, position, count, target, os);
+        }
+        else
+        {
+            copy(channel, position, count, os);
+        }
+    }
+
+    private static void transferTo(FileChannel channel, long position, long count, WritableByteChannel target,
+                                   OutputStream os)
+        throws IOException
+    {
+        long end = position + count;
+        while (position < end)
+        {
+            long transferred = channel.transferTo(position, end - position, target);
+            if (transferred > 0)
+            {
+                position += transferred;
+            }
+            else if (position >= channel.size())
+            {
+                throw new IOException("Unexpected end of file at " + position);
+            }
+            else
+            {
+                // the channel takes nothing, e.g. because it is non-blocking: copy the rest rather than spin
+                copy(channel, position, end - position, os);
+                return;
+            }
+        }
+    }
+
+    private static void copy(FileChannel channel, long position, long count, OutputStream os)
+        throws IOException
+    {
+        final byte[] bytes = new byte[(int)Math.min(BUFFER_SIZE, Math.max(count, 1))];
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        long end = position + count;
+        while (position < end)
+        {
+            buffer.clear();
+            if (end - position < buffer.capacity())
+            {
+                buffer.limit((int)(end - position));
+            }
+            int read = channel.read(buffer, position);
+            if (read < 0)
+            {
+                throw new IOException("Unexpected end of file at " + position);
+            }
+            os.write(bytes, 0, read);
+            position += read;
+        }
+    }
+}
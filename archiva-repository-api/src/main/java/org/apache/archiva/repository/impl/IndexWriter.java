@@ -23,44 +23,104 @@ import org.apache.archiva.repository.api.ResourceContext;
 import org.apache.archiva.repository.api.Status;
 import org.apache.commons.lang.StringUtils;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Date;
-import java.io.PrintWriter;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
 import java.util.List;
 import javax.servlet.http.HttpServletResponse;
-import org.apache.commons.io.output.ByteArrayOutputStream;
 
+/**
+ * Renders the HTML listing of a collection
+ *
+ * The listing is rendered once into a buffer that grows as needed, which gives its length
+ * before any of it is written to the response.
+ */
 public final class IndexWriter
 {
+    static final String CONTENT_TYPE = "text/html; charset=UTF-8";
+
+    private static final String ENCODING = "UTF-8";
+
+    private IndexWriter()
+    {
+    }
+
     public static void write(List<Status> resources, ResourceContext context, HttpServletResponse resp, boolean writeContent) throws IOException
     {
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        PrintWriter writer = new PrintWriter(outputStream, true);
+        final ByteArrayOutputStream listing = renderListing(resources, context);
 
-        resp.setDateHeader("last-modified", new Date().getTime());
-        resp.setContentType("text/html");
+        resp.setContentType(CONTENT_TYPE);
+        resp.setContentLength(listing.size());
+        if (writeContent)
+        {
+            listing.writeTo(resp.getOutputStream());
+        }
+    }
+
+    /**
+     * Renders the listing into an array of exactly its length
+     * @param resources
+     * @param context
+     * @return listing
+     */
+    static byte[] render(List<Status> resources, ResourceContext context) throws IOException
+    {
+        return renderListing(resources, context).toByteArray();
+    }
+
+    private static ByteArrayOutputStream renderListing(List<Status> resources, ResourceContext context)
+        throws IOException
+    {
+        final Status[] children = sortChildren(resources);
+        //Room for the page around the links and a typical link per child, so the buffer rarely has to grow
+        final ByteArrayOutputStream listing = new ByteArrayOutputStream(256 + 64 * children.length);
+        write(children, context, listing);
+        return listing;
+    }
+
+    private static void write(Status[] children, ResourceContext context, OutputStream os) throws IOException
+    {
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(os, ENCODING));
         writeDocumentStart(context, writer);
-        writeHyperlinks(resources, context, writer);
+        writeHyperlinks(children, writer);
         writeDocumentEnd(writer);
+        writer.flush();
+    }
 
-        resp.setContentLength(outputStream.toByteArray().length);
-        if (writeContent)
+    /**
+     * The children of the collection that are listed, in order of name
+     */
+    private static Status[] sortChildren(List<Status> resources)
+    {
+        //First entry is the stat for the collection itself
+        int count = 0;
+        final Status[] children = new Status[resources.size() - 1];
+        for (final Status status : resources.subList(1, resources.size()))
         {
-            resp.getOutputStream().write(outputStream.toByteArray());
+            //Ignore hidden directories
+            if (!status.getName().startsWith("."))
+            {
+                children[count++] = status;
+            }
         }
+        final Status[] listed = count == children.length ? children : Arrays.copyOf(children, count);
+        Arrays.sort(listed, new Status.StatusNameComparator());
+        return listed;
     }
 
-    private static void writeDocumentStart(ResourceContext context, PrintWriter writer)
+    private static void writeDocumentStart(ResourceContext context, Writer writer) throws IOException
     {
-        writer.println("<html>");
-        writer.println("<head>");
-        writer.println("<title>Collection: " + context.getLogicalPath() + "</title>");
-        writer.println("</head>");
-        writer.println("<body>");
-        writer.println("<h3>Collection: " + context.getLogicalPath() + "</h3>");
+        writer.write("<html>\n");
+        writer.write("<head>\n");
+        writer.write("<title>Collection: " + context.getLogicalPath() + "</title>\n");
+        writer.write("</head>\n");
+        writer.write("<body>\n");
+        writer.write("<h3>Collection: " + context.getLogicalPath() + "</h3>\n");
 
         //Check if not root
         if (!"/".equals(context.getLogicalPath()))
@@ -71,46 +131,39 @@ public final class IndexWriter
             //convert to unix path in case archiva is hosted on windows
             parentName = StringUtils.replace(parentName, "\\", "/" );
 
-            writer.println("<ul>");
-            writer.println("<li><a href=\"../\">" + parentName + "</a> <i><small>(Parent)</small></i></li>");
-            writer.println("</ul>");
+            writer.write("<ul>\n");
+            writer.write("<li><a href=\"../\">" + parentName + "</a> <i><small>(Parent)</small></i></li>\n");
+            writer.write("</ul>\n");
         }
 
-        writer.println("<ul>");
+        writer.write("<ul>\n");
     }
 
-    private static void writeDocumentEnd(PrintWriter writer)
+    private static void writeDocumentEnd(Writer writer) throws IOException
     {
-        writer.println("</ul>");
-        writer.println("</body>");
-        writer.println("</html>");
+        writer.write("</ul>\n");
+        writer.write("</body>\n");
+        writer.write("</html>\n");
     }
 
-    private static void writeHyperlinks(List<Status> resources, ResourceContext context, PrintWriter writer)
+    private static void writeHyperlinks(Status[] children, Writer writer) throws IOException
     {
-        ArrayList<Status> sortedResources = new ArrayList<Status>(resources);
-        sortedResources.remove(0); //First entry is the stat for the collection itself
-        Collections.sort(sortedResources, new Status.StatusNameComparator());
-
-        for( Status status : sortedResources)
+        for (final Status status : children)
         {
-            //Ignore hidden directories
-            if (!status.getName().startsWith("."))
-            {
-                writeHyperlink(writer, status);
-            }
+            writeHyperlink(writer, status);
         }
     }
 
-    private static void writeHyperlink(PrintWriter writer, Status status )
+    private static void writeHyperlink(Writer writer, Status status) throws IOException
     {
+        writer.write("<li><a href=\"");
+        writer.write(status.getName());
         if (Status.ResourceType.Collection.equals(status.getResourceType()))
         {
-            writer.println("<li><a href=\"" + status.getName() + "/\">" + status.getName() + "</a></li>");
-        }
-        else
-        {
-            writer.println("<li><a href=\"" + status.getName() + "\">" + status.getName() + "</a></li>");
+            writer.write('/');
         }
+        writer.write("\">");
+        writer.write(status.getName());
+        writer.write("</a></li>\n");
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,281 @@
+package org.apache.archiva.repository.impl;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.archiva.repository.api.ResourceContext;
+import org.apache.archiva.repository.api.Status;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Keeps the rendered listings of collections in memory, so repeated requests for the same listing are
+ * answered without rendering it again
+ *
+ * A listing is kept per repository and logical path, and is used for as long as the last modified date
+ * and the number of children of the collection are unchanged, as the names in a directory cannot change
+ * without changing those. A gzip copy is made the first time a client that accepts it asks for the listing.
+ * The least recently used listings are dropped once their total size is over the limit.
+ */
+public class ListingCache
+{
+    public static final long DEFAULT_MAX_SIZE = 32 * 1024 * 1024;
+
+    private static final String ACCEPT_ENCODING = "Accept-Encoding";
+
+    private static final String CONTENT_ENCODING = "Content-Encoding";
+
+    private static final String VARY = "Vary";
+
+    private static final String GZIP = "gzip";
+
+    private final long maxSize;
+
+    private final Map<String, Listing> listings = new LinkedHashMap<String, Listing>(16, 0.75f, true);
+
+    private long size;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    public ListingCache()
+    {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param maxSize the number of bytes of listings to keep, counting both the plain and the gzip copies
+     */
+    public ListingCache(long maxSize)
+    {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Writes the listing of a collection, gzip encoded if the client accepts it
+     * @param resources the stat of the collection, itself first
+     * @param context
+     * @param req
+     * @param resp
+     * @param writeContent
+     */
+    public void write(List<Status> resources, ResourceContext context, HttpServletRequest req, HttpServletResponse resp,
+        boolean writeContent)
+        throws IOException
+    {
+        final Listing listing = getListing(resources, context);
+        byte[] content = listing.content;
+        if (acceptsGzip(req.getHeader(ACCEPT_ENCODING)))
+        {
+            content = getGzipContent(key(context), listing);
+            resp.setHeader(CONTENT_ENCODING, GZIP);
+        }
+
+        resp.setHeader(VARY, ACCEPT_ENCODING);
+        resp.setContentType(IndexWriter.CONTENT_TYPE);
+        resp.setContentLength(content.length);
+        if (writeContent)
+        {
+            resp.getOutputStream().write(content);
+        }
+    }
+
+    public long getHitCount()
+    {
+        return hits.get();
+    }
+
+    public long getMissCount()
+    {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of bytes of listings kept
+     */
+    public synchronized long getSize()
+    {
+        return size;
+    }
+
+    private Listing getListing(List<Status> resources, ResourceContext context)
+        throws IOException
+    {
+        final String key = key(context);
+        final long lastModified = resources.get(0).getLastModified();
+        final int children = resources.size() - 1;
+
+        synchronized (this)
+        {
+            final Listing listing = listings.get(key);
+            if (listing != null && listing.lastModified == lastModified && listing.children == children)
+            {
+                hits.incrementAndGet();
+                return listing;
+            }
+        }
+
+        misses.incrementAndGet();
+        final Listing listing = new Listing(lastModified, children, IndexWriter.render(resources, context));
+        synchronized (this)
+        {
+            final Listing previous = listings.put(key, listing);
+            if (previous != null)
+            {
+                size -= previous.size();
+            }
+            size += listing.size();
+            evict();
+        }
+        return listing;
+    }
+
+    private byte[] getGzipContent(String key, Listing listing)
+        throws IOException
+    {
+        synchronized (this)
+        {
+            if (listing.gzipContent != null)
+            {
+                return listing.gzipContent;
+            }
+        }
+
+        final ByteArrayOutputStream os = new ByteArrayOutputStream(listing.content.length / 4 + 64);
+        final GZIPOutputStream gzip = new GZIPOutputStream(os);
+        gzip.write(listing.content);
+        gzip.close();
+        final byte[] gzipContent = os.toByteArray();
+
+        synchronized (this)
+        {
+            if (listing.gzipContent == null)
+            {
+                listing.gzipContent = gzipContent;
+                //only count it if the listing is still cached
+                if (listings.get(key) == listing)
+                {
+                    size += gzipContent.length;
+                    evict();
+                }
+            }
+            return listing.gzipContent;
+        }
+    }
+
+    private static String key(ResourceContext context)
+    {
+        return context.getRepositoryId() + ':' + context.getLogicalPath();
+    }
+
+    private void evict()
+    {
+        final Iterator<Listing> i = listings.values().iterator();
+        while (size > maxSize && i.hasNext())
+        {
+            size -= i.next().size();
+            i.remove();
+        }
+    }
+
+    /**
+     * Checks an Accept-Encoding header for gzip with a quality above zero, or else any encoding
+     * @param acceptEncoding
+     * @return accepted
+     */
+    static boolean acceptsGzip(String acceptEncoding)
+    {
+        if (acceptEncoding == null)
+        {
+            return false;
+        }
+        float any = 0;
+        for (final String coding : StringUtils.split(acceptEncoding, ','))
+        {
+            final String[] parameters = StringUtils.split(coding, ';');
+            if (parameters.length == 0)
+            {
+                continue;
+            }
+            final String name = parameters[0].trim();
+            if (GZIP.equalsIgnoreCase(name) || "x-gzip".equalsIgnoreCase(name))
+            {
+                return quality(parameters) > 0;
+            }
+            if ("*".equals(name))
+            {
+                any = quality(parameters);
+            }
+        }
+        return any > 0;
+    }
+
+    private static float quality(String[] parameters)
+    {
+        for (int p = 1; p < parameters.length; p++)
+        {
+            final String parameter = parameters[p].trim();
+            if (parameter.startsWith("q="))
+            {
+                try
+                {
+                    return Float.parseFloat(parameter.substring(2));
+                }
+                catch (NumberFormatException e)
+                {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    private static final class Listing
+    {
+        private final long lastModified;
+
+        private final int children;
+
+        private final byte[] content;
+
+        private byte[] gzipContent;
+
+        private Listing(long lastModified, int children, byte[] content)
+        {
+            this.lastModified = lastModified;
+            this.children = children;
+            this.content = content;
+        }
+
+        private long size()
+        {
+            return content.length + (gzipContent != null ? gzipContent.length : 0);
+        }
+    }
+}
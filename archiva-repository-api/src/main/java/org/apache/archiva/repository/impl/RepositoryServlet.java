@@ -28,12 +28,17 @@ import org.apache.archiva.repository.api.interceptor.PostRepositoryInterceptor;
 import org.apache.archiva.repository.api.interceptor.PreRepositoryInterceptor;
 import org.apache.archiva.repository.api.interceptor.RepositoryInterceptorFactory;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Random;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 
 public class RepositoryServlet extends HttpServlet
@@ -46,10 +51,34 @@ public class RepositoryServlet extends HttpServlet
 
     private final RepositoryManagerFactory repositoryManagerFactory;
 
+    private final ListingCache listingCache = new ListingCache();
+
     private static final String MKCOL_METHOD = "MKCOL";
 
     private static final String LAST_MODIFIED = "last-modified";
 
+    private static final String CONTENT_LENGTH = "Content-Length";
+
+    private static final String CONTENT_RANGE = "Content-Range";
+
+    private static final String ACCEPT_RANGES = "Accept-Ranges";
+
+    private static final String RANGE = "Range";
+
+    private static final String IF_RANGE = "If-Range";
+
+    private static final String ETAG = "ETag";
+
+    private static final String IF_NONE_MATCH = "If-None-Match";
+
+    private static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    private static final String BYTES = "bytes";
+
+    private static final String CRLF = "\r\n";
+
+    private static final Random boundaries = new Random();
+
     public RepositoryServlet( RepositoryInterceptorFactory<PreRepositoryInterceptor> preRepositoryInterceptorFactory,
             RepositoryInterceptorFactory<PostRepositoryInterceptor> postRepositoryInterceptorFactory,
             RepositoryManagerFactory repositoryManagerFactory)
@@ -165,18 +194,57 @@ public class RepositoryServlet extends HttpServlet
                 resp.setDateHeader(LAST_MODIFIED, collectionStatus.getLastModified());
                 resp.setStatus(HttpServletResponse.SC_OK);
 
-                IndexWriter.write(results, context, resp, withBody);
+                listingCache.write(results, context, req, resp, withBody);
             }
             else
             {
-                resp.setStatus(HttpServletResponse.SC_OK);
-                resp.setContentLength((int)status.getContentLength());
-                resp.setContentType(status.getContentType());
+                resp.setHeader(ACCEPT_RANGES, BYTES);
                 resp.setDateHeader(LAST_MODIFIED, status.getLastModified());
+                if (status.getETag() != null)
+                {
+                    resp.setHeader(ETAG, quote(status.getETag()));
+                }
+
+                if (isNotModified(req, status))
+                {
+                    resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                    return;
+                }
+
+                //Ranges are only defined for GET, and are ignored if the client's copy is out of date
+                final List<ByteRange> ranges = "GET".equals(req.getMethod()) && isRangeCurrent(req, status)
+                    ? ByteRange.parse(req.getHeader(RANGE), status.getContentLength()) : null;
+
+                if (ranges == null)
+                {
+                    resp.setStatus(HttpServletResponse.SC_OK);
+                    setContentLength(resp, status.getContentLength());
+                    resp.setContentType(status.getContentType());
 
-                if (withBody)
+                    if (withBody)
+                    {
+                        read(repositoryManager, context, resp, resp.getOutputStream(), 0, -1);
+                    }
+                }
+                else if (ranges.isEmpty())
                 {
-                    repositoryManager.read(context, resp.getOutputStream());
+                    resp.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    resp.setHeader(CONTENT_RANGE, BYTES + " */" + status.getContentLength());
+                    resp.setContentLength(0);
+                }
+                else if (ranges.size() == 1)
+                {
+                    final ByteRange range = ranges.get(0);
+                    resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                    resp.setHeader(CONTENT_RANGE, range.toContentRange(status.getContentLength()));
+                    setContentLength(resp, range.getLength());
+                    resp.setContentType(status.getContentType());
+                    read(repositoryManager, context, resp, resp.getOutputStream(), range.getFirst(), range.getLength());
+                }
+                else
+                {
+                    resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                    writeByteRanges(repositoryManager, context, status, ranges, resp);
                 }
             }
         }
@@ -185,4 +253,178 @@ public class RepositoryServlet extends HttpServlet
             resp.sendError(HttpServletResponse.SC_NOT_FOUND);
         }
     }
+
+    /**
+     * Copies length bytes of a resource from the offset to the response body, or the rest of it if length is negative
+     *
+     * If the resource can no longer be read the response is answered with 404 when nothing of it was sent yet,
+     * and otherwise an exception is thrown so the connection is closed instead of ending a truncated body normally
+     * @return false if the response was answered with an error
+     */
+    private static boolean read(final RepositoryManager repositoryManager, final ResourceContext context,
+        final HttpServletResponse resp, final OutputStream os, final long offset, final long length)
+        throws IOException
+    {
+        if (repositoryManager.read(context, os, offset, length))
+        {
+            return true;
+        }
+        if (resp.isCommitted())
+        {
+            throw new IOException("Could not read " + context.getLogicalPath() + " after the response was committed");
+        }
+        resp.reset();
+        resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+        return false;
+    }
+
+    /**
+     * Sets the content length, which setContentLength(int) cannot do for resources over 2GB
+     * @param resp
+     * @param contentLength
+     */
+    private static void setContentLength(final HttpServletResponse resp, final long contentLength)
+    {
+        if (contentLength <= Integer.MAX_VALUE)
+        {
+            resp.setContentLength((int)contentLength);
+        }
+        else
+        {
+            resp.setHeader(CONTENT_LENGTH, Long.toString(contentLength));
+        }
+    }
+
+    /**
+     * Checks the If-Range header, which makes a range request conditional on the
+     * client's copy of the resource being current
+     * @param req
+     * @param status
+     * @return true if the ranges should be served
+     */
+    private static boolean isRangeCurrent(final HttpServletRequest req, final Status status)
+    {
+        final String ifRange = req.getHeader(IF_RANGE);
+        if (ifRange == null)
+        {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/"))
+        {
+            //Only a strong entity tag can make a range current
+            return status.getETag() != null && ifRange.trim().equals(quote(status.getETag()));
+        }
+        try
+        {
+            //HTTP dates only have a resolution of seconds
+            return req.getDateHeader(IF_RANGE) / 1000 == status.getLastModified() / 1000;
+        }
+        catch (IllegalArgumentException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Checks the If-None-Match and If-Modified-Since headers of a GET or HEAD request
+     *
+     * If-Modified-Since is only used when there is no If-None-Match,
+     * as entity tags are the more precise validator
+     * @param req
+     * @param status
+     * @return true if the client's copy of the resource is current
+     */
+    private static boolean isNotModified(final HttpServletRequest req, final Status status)
+    {
+        final String ifNoneMatch = req.getHeader(IF_NONE_MATCH);
+        if (ifNoneMatch != null)
+        {
+            if (status.getETag() == null)
+            {
+                return false;
+            }
+            for (String tag : StringUtils.split(ifNoneMatch, ','))
+            {
+                tag = tag.trim();
+                //If-None-Match uses the weak comparison, so a weak tag matches its strong counterpart
+                if (tag.startsWith("W/"))
+                {
+                    tag = tag.substring(2);
+                }
+                if ("*".equals(tag) || quote(status.getETag()).equals(tag))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        try
+        {
+            final long ifModifiedSince = req.getDateHeader(IF_MODIFIED_SINCE);
+            //HTTP dates only have a resolution of seconds
+            return ifModifiedSince >= 0 && status.getLastModified() / 1000 <= ifModifiedSince / 1000;
+        }
+        catch (IllegalArgumentException e)
+        {
+            return false;
+        }
+    }
+
+    private static String quote(final String eTag)
+    {
+        return "\"" + eTag + "\"";
+    }
+
+    /**
+     * Writes several ranges of a resource as a multipart/byteranges body
+     */
+    private static void writeByteRanges(final RepositoryManager repositoryManager, final ResourceContext context,
+        final Status status, final List<ByteRange> ranges, final HttpServletResponse resp)
+        throws IOException
+    {
+        final String boundary = "ARCHIVA_" + Long.toHexString(boundaries.nextLong());
+
+        //Render the part headers first so the length of the body is known before it is written
+        final List<byte[]> partHeaders = new ArrayList<byte[]>(ranges.size());
+        long contentLength = 0;
+        for (final ByteRange range : ranges)
+        {
+            final StringBuilder header = new StringBuilder();
+            header.append(CRLF).append("--").append(boundary).append(CRLF);
+            if (status.getContentType() != null)
+            {
+                header.append("Content-Type: ").append(status.getContentType()).append(CRLF);
+            }
+            header.append(CONTENT_RANGE).append(": ").append(range.toContentRange(status.getContentLength()));
+            header.append(CRLF).append(CRLF);
+
+            final byte[] bytes = ascii(header.toString());
+            partHeaders.add(bytes);
+            contentLength += bytes.length + range.getLength();
+        }
+        final byte[] end = ascii(CRLF + "--" + boundary + "--" + CRLF);
+        contentLength += end.length;
+
+        resp.setContentType("multipart/byteranges; boundary=" + boundary);
+        setContentLength(resp, contentLength);
+
+        final OutputStream os = resp.getOutputStream();
+        for (int i = 0; i < ranges.size(); i++)
+        {
+            final ByteRange range = ranges.get(i);
+            os.write(partHeaders.get(i));
+            if (!read(repositoryManager, context, resp, os, range.getFirst(), range.getLength()))
+            {
+                return;
+            }
+        }
+        os.write(end);
+    }
+
+    private static byte[] ascii(final String value)
+        throws UnsupportedEncodingException
+    {
+        return value.getBytes("US-ASCII");
+    }
 }
@@ -50,6 +50,11 @@ public class RepositoryWeightComparitor implements Comparator<RepositoryManager>
 
     private RepositoryManagerWeight getRepositoryManagerWeight(RepositoryManager manager)
     {
+        //A cache takes the place of the manager it decorates
+        while (manager instanceof CachingRepositoryManager)
+        {
+            manager = ((CachingRepositoryManager)manager).getDelegate();
+        }
         return manager.getClass().getAnnotation(RepositoryManagerWeight.class);
     }
 }
@@ -0,0 +1,96 @@
+package org.apache.archiva.repository.api;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class StatusTest
+{
+    @Test
+    public void testFromFile() throws Exception
+    {
+        File file = File.createTempFile("status", ".pom");
+        try
+        {
+            FileUtils.writeStringToFile(file, "<project/>");
+            file.setLastModified(1000000000000L);
+
+            Status status = Status.fromFile(file);
+            assertEquals(file.getName(), status.getName());
+            assertEquals(Status.ResourceType.Resource, status.getResourceType());
+            assertEquals(10, status.getContentLength());
+            assertEquals(1000000000000L, status.getLastModified());
+            assertNotNull(status.getETag());
+
+            FileUtils.writeStringToFile(file, "<project></project>");
+            file.setLastModified(1000000000000L);
+            assertFalse(status.getETag().equals(Status.fromFile(file).getETag()));
+
+            Status directory = Status.fromFile(file.getParentFile());
+            assertEquals(Status.ResourceType.Collection, directory.getResourceType());
+            assertNull(directory.getETag());
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testMissingFile() throws Exception
+    {
+        File file = File.createTempFile("status", ".jar");
+        file.delete();
+        assertNull(Status.fromFile(file));
+    }
+
+    @Test
+    public void testReplacedFileChangesETag() throws Exception
+    {
+        File file = File.createTempFile("status", ".jar");
+        File replacement = File.createTempFile("status", ".jar");
+        try
+        {
+            FileUtils.writeStringToFile(file, "jar");
+            FileUtils.writeStringToFile(replacement, "jar");
+            file.setLastModified(1000000000000L);
+            replacement.setLastModified(1000000000000L);
+            if (Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey() == null)
+            {
+                //The file system does not tell files apart
+                return;
+            }
+
+            String eTag = Status.fromFile(file).getETag();
+            assertTrue(replacement.renameTo(file));
+            assertFalse(eTag.equals(Status.fromFile(file).getETag()));
+        }
+        finally
+        {
+            file.delete();
+            replacement.delete();
+        }
+    }
+}
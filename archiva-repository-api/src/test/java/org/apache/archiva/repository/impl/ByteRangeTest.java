@@ -0,0 +1,92 @@
+package org.apache.archiva.repository.impl;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ByteRangeTest
+{
+    @Test
+    public void testSingleRanges() throws Exception
+    {
+        assertRanges("bytes=0-99", 1000, 0, 99);
+        assertRanges("bytes=500-", 1000, 500, 999);
+        assertRanges("bytes=-200", 1000, 800, 999);
+        assertRanges("bytes=-2000", 1000, 0, 999);
+        assertRanges("bytes=900-5000", 1000, 900, 999);
+        assertEquals("bytes 900-999/1000", ByteRange.parse("bytes=900-", 1000).get(0).toContentRange(1000));
+    }
+
+    @Test
+    public void testMultipleRanges() throws Exception
+    {
+        assertRanges("bytes=0-0, 10-19,-1", 1000, 0, 0, 10, 19, 999, 999);
+        assertRanges("bytes=0-9,1000-1100", 1000, 0, 9);
+    }
+
+    @Test
+    public void testOverlappingRangesAreMerged() throws Exception
+    {
+        assertRanges("bytes=0-,0-,0-,0-", 1000, 0, 999);
+        assertRanges("bytes=500-599,0-99,100-199,550-", 1000, 0, 199, 500, 999);
+        assertRanges("bytes=-100,0-9", 1000, 900, 999, 0, 9);
+    }
+
+    @Test
+    public void testUnsatisfiableRanges() throws Exception
+    {
+        assertTrue(ByteRange.parse("bytes=1000-", 1000).isEmpty());
+        assertTrue(ByteRange.parse("bytes=-0", 1000).isEmpty());
+        assertTrue(ByteRange.parse("bytes=0-", 0).isEmpty());
+    }
+
+    @Test
+    public void testInvalidRangesAreIgnored() throws Exception
+    {
+        assertNull(ByteRange.parse(null, 1000));
+        assertNull(ByteRange.parse("items=0-9", 1000));
+        assertNull(ByteRange.parse("bytes=", 1000));
+        assertNull(ByteRange.parse("bytes=9-0", 1000));
+        assertNull(ByteRange.parse("bytes=a-b", 1000));
+        assertNull(ByteRange.parse("bytes=5", 1000));
+        assertNull(ByteRange.parse("bytes=--5", 1000));
+
+        StringBuilder header = new StringBuilder("bytes=0-0");
+        for (int i = 1; i <= ByteRange.MAX_RANGES; i++)
+        {
+            header.append(",").append(i).append("-").append(i);
+        }
+        assertNull(ByteRange.parse(header.toString(), 1000));
+    }
+
+    private static void assertRanges(String header, long contentLength, long... bounds)
+    {
+        List<ByteRange> ranges = ByteRange.parse(header, contentLength);
+        assertNotNull(ranges);
+        assertEquals(bounds.length / 2, ranges.size());
+        for (int i = 0; i < ranges.size(); i++)
+        {
+            assertEquals(bounds[2 * i], ranges.get(i).getFirst());
+            assertEquals(bounds[2 * i + 1], ranges.get(i).getLast());
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package org.apache.archiva.repository.impl;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.archiva.repository.api.RepositoryManager;
+import org.apache.archiva.repository.api.ResourceContext;
+import org.apache.archiva.repository.api.Status;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class CachingRepositoryManagerTest
+{
+    private final CountingRepositoryManager delegate = new CountingRepositoryManager();
+
+    @Test
+    public void testStatIsCached() throws Exception
+    {
+        CachingRepositoryManager manager = new CachingRepositoryManager(delegate);
+
+        List<Status> statuses = manager.stat(context("repo", "/org/apache"));
+        assertSame(statuses, manager.stat(context("repo", "/org/apache/")));
+        assertNotSame(statuses, manager.stat(context("other", "/org/apache")));
+        assertEquals(2, delegate.stats);
+        assertEquals(1, manager.getHitCount());
+        assertEquals(2, manager.getMissCount());
+    }
+
+    @Test
+    public void testUnknownRepositoryIsNotCached() throws Exception
+    {
+        CachingRepositoryManager manager = new CachingRepositoryManager(delegate);
+
+        assertNull(manager.stat(context("unknown", "/")));
+        assertNull(manager.stat(context("unknown", "/")));
+        assertEquals(2, delegate.stats);
+        assertEquals(0, manager.getSize());
+    }
+
+    @Test
+    public void testEntriesExpire() throws Exception
+    {
+        CachingRepositoryManager manager = new CachingRepositoryManager(delegate, 10, 20);
+
+        manager.stat(context("repo", "/org"));
+        Thread.sleep(50);
+        manager.stat(context("repo", "/org"));
+        assertEquals(2, delegate.stats);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntriesAreEvicted() throws Exception
+    {
+        CachingRepositoryManager manager = new CachingRepositoryManager(delegate, 2, 60000);
+
+        manager.stat(context("repo", "/a"));
+        manager.stat(context("repo", "/b"));
+        manager.stat(context("repo", "/a"));
+        manager.stat(context("repo", "/c"));
+        assertEquals(2, manager.getSize());
+        assertEquals(3, delegate.stats);
+
+        manager.stat(context("repo", "/a"));
+        assertEquals(3, delegate.stats);
+        manager.stat(context("repo", "/b"));
+        assertEquals(4, delegate.stats);
+    }
+
+    @Test
+    public void testWriteInvalidatesPathAndCollections() throws Exception
+    {
+        CachingRepositoryManager manager = new CachingRepositoryManager(delegate);
+
+        manager.stat(context("repo", "/"));
+        manager.stat(context("repo", "/org"));
+        manager.stat(context("repo", "/org/foo.pom"));
+        manager.stat(context("repo", "/com"));
+        manager.stat(context("other", "/org"));
+        assertEquals(5, manager.getSize());
+
+        assertTrue(manager.write(context("repo", "/org/foo.pom"), new ByteArrayInputStream(new byte[0])));
+        assertEquals(2, manager.getSize());
+
+        manager.stat(context("repo", "/com"));
+        manager.stat(context("other", "/org"));
+        assertEquals(5, delegate.stats);
+    }
+
+    @Test
+    public void testWeightIsThatOfDelegate() throws Exception
+    {
+        RepositoryWeightComparitor comparitor = new RepositoryWeightComparitor();
+        DefaultRepositoryManager repositoryManager = new DefaultRepositoryManager(null);
+        assertEquals(0, comparitor.compare(new CachingRepositoryManager(repositoryManager), repositoryManager));
+    }
+
+    private static ResourceContext context(final String repositoryId, final String logicalPath)
+    {
+        return new ResourceContext()
+        {
+            public String getLogicalPath()
+            {
+                return logicalPath;
+            }
+
+            public String getRepositoryId()
+            {
+                return repositoryId;
+            }
+        };
+    }
+
+    class CountingRepositoryManager implements RepositoryManager
+    {
+        int stats;
+
+        public ResourceContext handles(ResourceContext context)
+        {
+            return context;
+        }
+
+        public boolean exists(String repositoryId)
+        {
+            return !"unknown".equals(repositoryId);
+        }
+
+        public boolean read(ResourceContext context, OutputStream os)
+        {
+            throw new UnsupportedOperationException("Not supported yet.");
+        }
+
+        public boolean read(ResourceContext context, OutputStream os, long offset, long length)
+        {
+            throw new UnsupportedOperationException("Not supported yet.");
+        }
+
+        public List<Status> stat(ResourceContext context)
+        {
+            stats++;
+            if (!exists(context.getRepositoryId()))
+            {
+                return null;
+            }
+            final Status status = Status.fromFile(new File(context.getLogicalPath()));
+            return status != null ? Collections.singletonList(status) : new ArrayList<Status>();
+        }
+
+        public boolean write(ResourceContext context, InputStream is)
+        {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package org.apache.archiva.repository.impl;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Random;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class FileTransferTest
+{
+    private File source;
+
+    private File target;
+
+    private byte[] content;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        content = new byte[600 * 1024 + 17];
+        new Random(42).nextBytes(content);
+        source = File.createTempFile("transfer", ".src");
+        target = File.createTempFile("transfer", ".dst");
+        FileUtils.writeByteArrayToFile(source, content);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        source.delete();
+        target.delete();
+    }
+
+    @Test
+    public void testCopyToStream() throws Exception
+    {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        transfer(0, content.length, os);
+        assertArrayEquals(content, os.toByteArray());
+
+        os = new ByteArrayOutputStream();
+        transfer(1000, 300 * 1024, os);
+        assertArrayEquals(range(1000, 1000 + 300 * 1024), os.toByteArray());
+    }
+
+    @Test
+    public void testTransferToChannel() throws Exception
+    {
+        FileOutputStream os = new FileOutputStream(target);
+        try
+        {
+            transfer(5, content.length - 5, os);
+        }
+        finally
+        {
+            os.close();
+        }
+        assertArrayEquals(range(5, content.length), FileUtils.readFileToByteArray(target));
+    }
+
+    @Test
+    public void testChannelTakingNothingFallsBackToCopy() throws Exception
+    {
+        StalledChannelStream os = new StalledChannelStream();
+        transfer(7, content.length - 7, os);
+        assertArrayEquals(range(7, content.length), os.toByteArray());
+    }
+
+    @Test(expected = IOException.class)
+    public void testPastEndOfFile() throws Exception
+    {
+        transfer(content.length - 10, 20, new ByteArrayOutputStream());
+    }
+
+    private void transfer(long position, long count, OutputStream os) throws IOException
+    {
+        FileInputStream fis = new FileInputStream(source);
+        try
+        {
+            FileChannel channel = fis.getChannel();
+            FileTransfer.transfer(channel, position, count, os);
+        }
+        finally
+        {
+            fis.close();
+        }
+    }
+
+    /**
+     * A stream that is also a channel, like a non-blocking container response whose channel accepts nothing
+     */
+    private static class StalledChannelStream
+        extends ByteArrayOutputStream
+        implements WritableByteChannel
+    {
+        public int write(ByteBuffer src)
+        {
+            return 0;
+        }
+
+        public boolean isOpen()
+        {
+            return true;
+        }
+    }
+
+    private byte[] range(int from, int to)
+    {
+        byte[] range = new byte[to - from];
+        System.arraycopy(content, from, range, 0, range.length);
+        return range;
+    }
+}
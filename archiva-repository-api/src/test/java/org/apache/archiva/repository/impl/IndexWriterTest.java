@@ -0,0 +1,109 @@
+package org.apache.archiva.repository.impl;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.archiva.repository.api.ResourceContext;
+import org.apache.archiva.repository.api.Status;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class IndexWriterTest
+{
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        directory = File.createTempFile("listing", "");
+        directory.delete();
+        new File(directory, "1.0").mkdirs();
+        new File(directory, ".svn").mkdirs();
+        FileUtils.writeStringToFile(new File(directory, "maven-metadata.xml"), "<metadata/>");
+        FileUtils.writeStringToFile(new File(directory, "index.txt"), "");
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Test
+    public void testRender() throws Exception
+    {
+        String listing = new String(IndexWriter.render(stat(), context("/org/apache")), "UTF-8");
+
+        assertTrue(listing.startsWith("<html>\n"));
+        assertTrue(listing.contains("<title>Collection: /org/apache</title>"));
+        assertTrue(listing.contains("<li><a href=\"../\">/org</a> <i><small>(Parent)</small></i></li>"));
+        int version = listing.indexOf("<li><a href=\"1.0/\">1.0</a></li>");
+        int text = listing.indexOf("<li><a href=\"index.txt\">index.txt</a></li>");
+        int metadata = listing.indexOf("<li><a href=\"maven-metadata.xml\">maven-metadata.xml</a></li>");
+        assertTrue(version > 0 && text > version && metadata > text);
+        assertFalse(listing.contains(".svn"));
+        assertTrue(listing.endsWith("</html>\n"));
+    }
+
+    @Test
+    public void testAcceptsGzip() throws Exception
+    {
+        assertFalse(ListingCache.acceptsGzip(null));
+        assertFalse(ListingCache.acceptsGzip("identity"));
+        assertTrue(ListingCache.acceptsGzip("gzip, deflate"));
+        assertTrue(ListingCache.acceptsGzip("deflate;q=1.0, GZIP;q=0.5"));
+        assertFalse(ListingCache.acceptsGzip("gzip;q=0"));
+        assertTrue(ListingCache.acceptsGzip("*"));
+        assertFalse(ListingCache.acceptsGzip("*, gzip;q=0"));
+        assertTrue(ListingCache.acceptsGzip("*;q=0, gzip"));
+    }
+
+    private List<Status> stat()
+    {
+        List<Status> statuses = new ArrayList<Status>();
+        statuses.add(Status.fromFile(directory));
+        for (File child : directory.listFiles())
+        {
+            statuses.add(Status.fromFile(child));
+        }
+        return statuses;
+    }
+
+    private static ResourceContext context(final String logicalPath)
+    {
+        return new ResourceContext()
+        {
+            public String getLogicalPath()
+            {
+                return logicalPath;
+            }
+
+            public String getRepositoryId()
+            {
+                return "repo";
+            }
+        };
+    }
+}
@@ -0,0 +1,215 @@
+package org.apache.archiva.repository.impl;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.archiva.repository.api.ResourceContext;
+import org.apache.archiva.repository.api.Status;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ListingCacheTest
+{
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        directory = File.createTempFile("listing", "");
+        directory.delete();
+        new File(directory, "1.0").mkdirs();
+        FileUtils.writeStringToFile(new File(directory, "maven-metadata.xml"), "<metadata/>");
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Test
+    public void testReusesUnchangedListing() throws Exception
+    {
+        ListingCache cache = new ListingCache();
+        List<Status> resources = stat();
+
+        String first = get(cache, resources, "/org/apache", null).getBody();
+        String second = get(cache, resources, "/org/apache", null).getBody();
+
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(first, second);
+        assertEquals(first.length(), cache.getSize());
+    }
+
+    @Test
+    public void testRendersAgainWhenLastModifiedChanges() throws Exception
+    {
+        ListingCache cache = new ListingCache();
+        List<Status> resources = stat();
+        get(cache, resources, "/org/apache", null);
+
+        resources.get(0).setLastModified(resources.get(0).getLastModified() + 1000);
+        get(cache, resources, "/org/apache", null);
+
+        assertEquals(2, cache.getMissCount());
+        assertEquals(0, cache.getHitCount());
+    }
+
+    @Test
+    public void testRendersAgainWhenChildCountChanges() throws Exception
+    {
+        ListingCache cache = new ListingCache();
+        get(cache, stat(), "/org/apache", null);
+
+        // the new child is listed even if the directory kept its last modified date
+        List<Status> resources = stat();
+        Status child = Status.fromFile(new File(directory, "1.0"));
+        child.setName("2.0");
+        resources.add(child);
+        String listing = get(cache, resources, "/org/apache", null).getBody();
+
+        assertEquals(2, cache.getMissCount());
+        assertTrue(listing.contains("<li><a href=\"2.0/\">2.0</a></li>"));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws Exception
+    {
+        List<Status> resources = stat();
+        long length = IndexWriter.render(resources, context("/a")).length;
+        ListingCache cache = new ListingCache(2 * length);
+
+        get(cache, resources, "/a", null);
+        get(cache, resources, "/b", null);
+        // uses /a, so /b is the least recently used when /c is added
+        get(cache, resources, "/a", null);
+        get(cache, resources, "/c", null);
+        assertEquals(2 * length, cache.getSize());
+        assertEquals(3, cache.getMissCount());
+
+        get(cache, resources, "/a", null);
+        assertEquals(3, cache.getMissCount());
+        get(cache, resources, "/b", null);
+        assertEquals(4, cache.getMissCount());
+        assertEquals(2 * length, cache.getSize());
+    }
+
+    @Test
+    public void testCountsGzipCopy() throws Exception
+    {
+        ListingCache cache = new ListingCache();
+        List<Status> resources = stat();
+        String plain = get(cache, resources, "/org/apache", null).getBody();
+        assertEquals(plain.length(), cache.getSize());
+
+        RepositoryServletTest.StubResponse response = get(cache, resources, "/org/apache", "gzip");
+        byte[] gzip = response.body.toByteArray();
+        assertEquals("gzip", response.getHeader("Content-Encoding"));
+        assertEquals("Accept-Encoding", response.getHeader("Vary"));
+        assertEquals(String.valueOf(gzip.length), response.getHeader("Content-Length"));
+        assertEquals(plain, IOUtils.toString(new GZIPInputStream(new ByteArrayInputStream(gzip)), "UTF-8"));
+        assertEquals(plain.length() + gzip.length, cache.getSize());
+
+        // the gzip copy is made once
+        get(cache, resources, "/org/apache", "gzip");
+        assertEquals(plain.length() + gzip.length, cache.getSize());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testGzipCopyCountsTowardsEviction() throws Exception
+    {
+        List<Status> resources = stat();
+        long length = IndexWriter.render(resources, context("/a")).length;
+        ListingCache cache = new ListingCache(2 * length);
+
+        get(cache, resources, "/a", null);
+        get(cache, resources, "/b", null);
+        // the gzip copy of /b takes the total over the limit, so /a goes
+        get(cache, resources, "/b", "gzip");
+        assertTrue(cache.getSize() < 2 * length);
+
+        get(cache, resources, "/a", null);
+        assertEquals(3, cache.getMissCount());
+    }
+
+    @Test
+    public void testHeadWritesNoContent() throws Exception
+    {
+        ListingCache cache = new ListingCache();
+        RepositoryServletTest.StubResponse response = new RepositoryServletTest.StubResponse();
+        cache.write(stat(), context("/org/apache"), new RepositoryServletTest.StubRequest("HEAD").proxy(),
+            response.proxy(), false);
+
+        assertEquals(0, response.body.size());
+        assertEquals(String.valueOf(cache.getSize()), response.getHeader("Content-Length"));
+        assertEquals(IndexWriter.CONTENT_TYPE, response.getHeader("Content-Type"));
+    }
+
+    private RepositoryServletTest.StubResponse get(ListingCache cache, List<Status> resources, String logicalPath,
+        String acceptEncoding)
+        throws Exception
+    {
+        RepositoryServletTest.StubRequest request = new RepositoryServletTest.StubRequest("GET");
+        if (acceptEncoding != null)
+        {
+            request.headers.put("Accept-Encoding", acceptEncoding);
+        }
+        RepositoryServletTest.StubResponse response = new RepositoryServletTest.StubResponse();
+        cache.write(resources, context(logicalPath), request.proxy(), response.proxy(), true);
+        return response;
+    }
+
+    private List<Status> stat()
+    {
+        List<Status> statuses = new ArrayList<Status>();
+        statuses.add(Status.fromFile(directory));
+        for (File child : directory.listFiles())
+        {
+            statuses.add(Status.fromFile(child));
+        }
+        return statuses;
+    }
+
+    private static ResourceContext context(final String logicalPath)
+    {
+        return new ResourceContext()
+        {
+            public String getLogicalPath()
+            {
+                return logicalPath;
+            }
+
+            public String getRepositoryId()
+            {
+                return "repo";
+            }
+        };
+    }
+}
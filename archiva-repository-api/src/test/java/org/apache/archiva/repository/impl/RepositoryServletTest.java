@@ -0,0 +1,542 @@
+package org.apache.archiva.repository.impl;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.archiva.repository.api.RepositoryManager;
+import org.apache.archiva.repository.api.RepositoryManagerFactory;
+import org.apache.archiva.repository.api.ResourceContext;
+import org.apache.archiva.repository.api.Status;
+import org.apache.archiva.repository.api.interceptor.PostRepositoryInterceptor;
+import org.apache.archiva.repository.api.interceptor.PreRepositoryInterceptor;
+import org.apache.archiva.repository.api.interceptor.RepositoryInterceptorFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Drives the servlet with stub requests and responses against a resource of 36 bytes
+ */
+public class RepositoryServletTest
+{
+    private static final String CONTENT = "0123456789abcdefghijklmnopqrstuvwxyz";
+
+    /**
+     * Not on a whole second, as a file system may keep it, while HTTP dates only have seconds
+     */
+    private static final long LAST_MODIFIED = 1262304000123L;
+
+    private static final String ETAG = "24-4b3d3a00";
+
+    private File file;
+
+    private Status status;
+
+    private StubRepositoryManager manager;
+
+    private RepositoryServlet servlet;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        file = File.createTempFile("servlet", ".jar");
+        FileUtils.writeStringToFile(file, CONTENT);
+        status = Status.fromFile(file);
+        status.setLastModified(LAST_MODIFIED);
+        status.setETag(ETAG);
+
+        manager = new StubRepositoryManager();
+        servlet = new RepositoryServlet(new RepositoryInterceptorFactory<PreRepositoryInterceptor>()
+        {
+            public Collection<PreRepositoryInterceptor> getRepositoryInterceptors()
+            {
+                return Collections.emptyList();
+            }
+        }, new RepositoryInterceptorFactory<PostRepositoryInterceptor>()
+        {
+            public Collection<PostRepositoryInterceptor> getRepositoryInterceptors()
+            {
+                return Collections.emptyList();
+            }
+        }, new RepositoryManagerFactory()
+        {
+            public Collection<RepositoryManager> getRepositoryManagers()
+            {
+                return Collections.<RepositoryManager>singletonList(manager);
+            }
+        });
+    }
+
+    @After
+    public void tearDown()
+    {
+        file.delete();
+    }
+
+    @Test
+    public void testWholeResource() throws Exception
+    {
+        StubResponse response = request("GET");
+        assertEquals(200, response.status);
+        assertEquals("36", response.getHeader("Content-Length"));
+        assertEquals("bytes", response.getHeader("Accept-Ranges"));
+        assertEquals("\"" + ETAG + "\"", response.getHeader("ETag"));
+        assertEquals(CONTENT, response.getBody());
+    }
+
+    @Test
+    public void testSingleRange() throws Exception
+    {
+        StubResponse response = request("GET", "Range", "bytes=2-5");
+        assertEquals(206, response.status);
+        assertEquals("bytes 2-5/36", response.getHeader("Content-Range"));
+        assertEquals("4", response.getHeader("Content-Length"));
+        assertEquals(status.getContentType(), response.getHeader("Content-Type"));
+        assertEquals("2345", response.getBody());
+    }
+
+    @Test
+    public void testMultipleRanges() throws Exception
+    {
+        StubResponse response = request("GET", "Range", "bytes=0-1,10-12,-2");
+        assertEquals(206, response.status);
+        assertNull(response.getHeader("Content-Range"));
+
+        Matcher matcher = Pattern.compile("multipart/byteranges; boundary=(\\S+)")
+            .matcher(response.getHeader("Content-Type"));
+        assertTrue(matcher.matches());
+        String boundary = matcher.group(1);
+        String part = "\r\n--" + boundary + "\r\nContent-Type: " + status.getContentType() + "\r\nContent-Range: ";
+        assertEquals(part + "bytes 0-1/36\r\n\r\n01"
+            + part + "bytes 10-12/36\r\n\r\nabc"
+            + part + "bytes 34-35/36\r\n\r\nyz"
+            + "\r\n--" + boundary + "--\r\n", response.getBody());
+        assertEquals(String.valueOf(response.body.size()), response.getHeader("Content-Length"));
+    }
+
+    @Test
+    public void testUnsatisfiableRange() throws Exception
+    {
+        StubResponse response = request("GET", "Range", "bytes=36-40");
+        assertEquals(416, response.status);
+        assertEquals("bytes */36", response.getHeader("Content-Range"));
+        assertEquals("0", response.getHeader("Content-Length"));
+        assertEquals("", response.getBody());
+    }
+
+    @Test
+    public void testRangeIsIgnoredForHead() throws Exception
+    {
+        StubResponse response = request("HEAD", "Range", "bytes=2-5");
+        assertEquals(200, response.status);
+        assertEquals("36", response.getHeader("Content-Length"));
+        assertEquals("", response.getBody());
+    }
+
+    @Test
+    public void testIfRangeTag() throws Exception
+    {
+        StubResponse response = request("GET", "Range", "bytes=2-5", "If-Range", "\"" + ETAG + "\"");
+        assertEquals(206, response.status);
+        assertEquals("2345", response.getBody());
+
+        response = request("GET", "Range", "bytes=2-5", "If-Range", "\"other\"");
+        assertEquals(200, response.status);
+        assertNull(response.getHeader("Content-Range"));
+        assertEquals(CONTENT, response.getBody());
+
+        //A weak tag never makes a range current
+        response = request("GET", "Range", "bytes=2-5", "If-Range", "W/\"" + ETAG + "\"");
+        assertEquals(200, response.status);
+        assertEquals(CONTENT, response.getBody());
+    }
+
+    @Test
+    public void testIfRangeDate() throws Exception
+    {
+        StubResponse response = request("GET", "Range", "bytes=2-5", "If-Range", httpDate(LAST_MODIFIED));
+        assertEquals(206, response.status);
+        assertEquals("2345", response.getBody());
+
+        response = request("GET", "Range", "bytes=2-5", "If-Range", httpDate(LAST_MODIFIED - 1000));
+        assertEquals(200, response.status);
+        assertEquals(CONTENT, response.getBody());
+    }
+
+    @Test
+    public void testReadFailureIsNotFound() throws Exception
+    {
+        manager.failAt = 0;
+        StubResponse response = request("GET", "Range", "bytes=2-5");
+        assertEquals(404, response.status);
+        assertTrue(response.reset);
+        assertNull(response.getHeader("Content-Range"));
+        assertNull(response.getHeader("ETag"));
+        assertEquals("", response.getBody());
+    }
+
+    @Test
+    public void testReadFailureAfterCommitIsAnError() throws Exception
+    {
+        manager.failAt = 1;
+        try
+        {
+            request("GET", "Range", "bytes=0-1,10-12");
+            fail("Expected IOException");
+        }
+        catch (IOException e)
+        {
+            // the connection is closed rather than the body ending short
+        }
+    }
+
+    @Test
+    public void testIfNoneMatch() throws Exception
+    {
+        assertNotModified(request("GET", "If-None-Match", "\"" + ETAG + "\""));
+        assertNotModified(request("GET", "If-None-Match", "\"other\", \"" + ETAG + "\""));
+        assertNotModified(request("GET", "If-None-Match", "W/\"" + ETAG + "\""));
+        assertNotModified(request("GET", "If-None-Match", "*"));
+
+        StubResponse response = request("GET", "If-None-Match", "\"other\", W/\"another\"");
+        assertEquals(200, response.status);
+        assertEquals(CONTENT, response.getBody());
+    }
+
+    @Test
+    public void testIfNoneMatchTakesPrecedence() throws Exception
+    {
+        StubResponse response = request("GET", "If-None-Match", "\"other\"",
+                                        "If-Modified-Since", httpDate(LAST_MODIFIED));
+        assertEquals(200, response.status);
+        assertEquals(CONTENT, response.getBody());
+
+        assertNotModified(request("GET", "If-None-Match", "\"" + ETAG + "\"",
+                                  "If-Modified-Since", httpDate(LAST_MODIFIED - 60000)));
+    }
+
+    @Test
+    public void testIfModifiedSince() throws Exception
+    {
+        //The milliseconds of the modification time are not compared
+        assertNotModified(request("GET", "If-Modified-Since", httpDate(LAST_MODIFIED)));
+        assertNotModified(request("GET", "If-Modified-Since", httpDate(LAST_MODIFIED + 60000)));
+
+        StubResponse response = request("GET", "If-Modified-Since", httpDate(LAST_MODIFIED - 1000));
+        assertEquals(200, response.status);
+        assertEquals(CONTENT, response.getBody());
+
+        response = request("GET", "If-Modified-Since", "not a date");
+        assertEquals(200, response.status);
+    }
+
+    @Test
+    public void testHead() throws Exception
+    {
+        StubResponse response = request("HEAD");
+        assertEquals(200, response.status);
+        assertEquals("36", response.getHeader("Content-Length"));
+        assertEquals("", response.getBody());
+
+        assertNotModified(request("HEAD", "If-None-Match", "\"" + ETAG + "\""));
+        assertNotModified(request("HEAD", "If-Modified-Since", httpDate(LAST_MODIFIED)));
+    }
+
+    private static void assertNotModified(StubResponse response) throws IOException
+    {
+        assertEquals(304, response.status);
+        assertEquals("\"" + ETAG + "\"", response.getHeader("ETag"));
+        assertEquals("", response.getBody());
+    }
+
+    /**
+     * @param headers names and values of the request headers
+     */
+    private StubResponse request(String method, String... headers) throws Exception
+    {
+        StubRequest request = new StubRequest(method);
+        for (int i = 0; i < headers.length; i += 2)
+        {
+            request.headers.put(headers[i], headers[i + 1]);
+        }
+        StubResponse response = new StubResponse();
+        servlet.service(request.proxy(), response.proxy());
+        return response;
+    }
+
+    private static SimpleDateFormat httpDateFormat()
+    {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format;
+    }
+
+    private static String httpDate(long time)
+    {
+        return httpDateFormat().format(time);
+    }
+
+    /**
+     * @return the default of a primitive return type, which a stub cannot answer with null
+     */
+    private static Object defaultValue(Class<?> type)
+    {
+        if (type == boolean.class)
+        {
+            return Boolean.FALSE;
+        }
+        if (type == int.class)
+        {
+            return Integer.valueOf(-1);
+        }
+        if (type == long.class)
+        {
+            return Long.valueOf(-1);
+        }
+        return null;
+    }
+
+    class StubRepositoryManager implements RepositoryManager
+    {
+        /**
+         * The number of the read that fails, or -1
+         */
+        int failAt = -1;
+
+        int reads;
+
+        public ResourceContext handles(ResourceContext context)
+        {
+            return context;
+        }
+
+        public boolean exists(String repositoryId)
+        {
+            return true;
+        }
+
+        public List<Status> stat(ResourceContext context)
+        {
+            return Collections.singletonList(status);
+        }
+
+        public boolean read(ResourceContext context, OutputStream os)
+        {
+            return read(context, os, 0, -1);
+        }
+
+        public boolean read(ResourceContext context, OutputStream os, long offset, long length)
+        {
+            if (reads++ == failAt)
+            {
+                return false;
+            }
+            int end = length < 0 ? CONTENT.length() : (int)(offset + length);
+            try
+            {
+                os.write(CONTENT.substring((int)offset, end).getBytes("US-ASCII"));
+            }
+            catch (IOException e)
+            {
+                throw new IllegalStateException(e);
+            }
+            return true;
+        }
+
+        public boolean write(ResourceContext context, InputStream is)
+        {
+            return true;
+        }
+    }
+
+    static class StubRequest implements InvocationHandler
+    {
+        final String method;
+
+        final Map<String, String> headers = new HashMap<String, String>();
+
+        StubRequest(String method)
+        {
+            this.method = method;
+        }
+
+        HttpServletRequest proxy()
+        {
+            return (HttpServletRequest)Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { HttpServletRequest.class }, this);
+        }
+
+        public Object invoke(Object proxy, Method m, Object[] args)
+        {
+            String name = m.getName();
+            if ("getMethod".equals(name))
+            {
+                return method;
+            }
+            if ("getPathInfo".equals(name) || "getRequestURI".equals(name))
+            {
+                return "/repo/org/foo/foo-1.0.jar";
+            }
+            if ("getProtocol".equals(name))
+            {
+                return "HTTP/1.1";
+            }
+            if ("getHeader".equals(name))
+            {
+                return headers.get(args[0]);
+            }
+            if ("getDateHeader".equals(name))
+            {
+                String value = headers.get(args[0]);
+                if (value == null)
+                {
+                    return Long.valueOf(-1);
+                }
+                try
+                {
+                    return Long.valueOf(httpDateFormat().parse(value).getTime());
+                }
+                catch (ParseException e)
+                {
+                    throw new IllegalArgumentException(value);
+                }
+            }
+            return defaultValue(m.getReturnType());
+        }
+    }
+
+    /**
+     * Records status, headers and body. The response counts as committed once a byte of the body was written,
+     * as a container would after flushing its buffer
+     */
+    static class StubResponse implements InvocationHandler
+    {
+        int status = 200;
+
+        final Map<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        boolean committed;
+
+        boolean reset;
+
+        HttpServletResponse proxy()
+        {
+            return (HttpServletResponse)Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { HttpServletResponse.class }, this);
+        }
+
+        String getHeader(String name)
+        {
+            return headers.get(name);
+        }
+
+        String getBody() throws IOException
+        {
+            return body.toString("US-ASCII");
+        }
+
+        public Object invoke(Object proxy, Method m, Object[] args)
+        {
+            String name = m.getName();
+            if ("setStatus".equals(name))
+            {
+                status = ((Integer)args[0]).intValue();
+            }
+            else if ("sendError".equals(name))
+            {
+                status = ((Integer)args[0]).intValue();
+                committed = true;
+            }
+            else if ("setHeader".equals(name) || "setDateHeader".equals(name) || "setIntHeader".equals(name))
+            {
+                headers.put((String)args[0], String.valueOf(args[1]));
+            }
+            else if ("setContentLength".equals(name))
+            {
+                headers.put("Content-Length", String.valueOf(args[0]));
+            }
+            else if ("setContentType".equals(name))
+            {
+                headers.put("Content-Type", (String)args[0]);
+            }
+            else if ("containsHeader".equals(name))
+            {
+                return Boolean.valueOf(headers.containsKey(args[0]));
+            }
+            else if ("isCommitted".equals(name))
+            {
+                return Boolean.valueOf(committed);
+            }
+            else if ("reset".equals(name))
+            {
+                if (committed)
+                {
+                    throw new IllegalStateException("Response already committed");
+                }
+                status = 200;
+                headers.clear();
+                body.reset();
+                reset = true;
+            }
+            else if ("getOutputStream".equals(name))
+            {
+                return new ServletOutputStream()
+                {
+                    public void write(int b)
+                    {
+                        body.write(b);
+                        committed = true;
+                    }
+                };
+            }
+            else
+            {
+                return defaultValue(m.getReturnType());
+            }
+            return null;
+        }
+    }
+}
@@ -68,6 +68,11 @@ public class RepositoryWeightComparitorTest
             throw new UnsupportedOperationException("Not supported yet.");
         }
 
+        public boolean read(ResourceContext context, OutputStream os, long offset, long length)
+        {
+            throw new UnsupportedOperationException("Not supported yet.");
+        }
+
         public List<Status> stat(ResourceContext context)
         {
             throw new UnsupportedOperationException("Not supported yet.");
@@ -97,6 +102,11 @@ public class RepositoryWeightComparitorTest
             throw new UnsupportedOperationException("Not supported yet.");
         }
 
+        public boolean read(ResourceContext context, OutputStream os, long offset, long length)
+        {
+            throw new UnsupportedOperationException("Not supported yet.");
+        }
+
         public List<Status> stat(ResourceContext context)
         {
             throw new UnsupportedOperationException("Not supported yet.");
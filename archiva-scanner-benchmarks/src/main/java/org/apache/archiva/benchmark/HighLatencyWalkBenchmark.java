@@ -0,0 +1,139 @@
+package org.apache.archiva.benchmark;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.archiva.App;
+import org.apache.archiva.DirectoryWalker;
+import org.apache.archiva.RepositoryGenerator;
+import org.apache.archiva.repository.scanner.RepositoryScanner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sequential, fork/join and virtual thread walkers on a filesystem where every directory listing takes
+ * <code>latency</code> milliseconds, as on an NFS mount. The latency is injected by the <code>Slow*</code> walkers of
+ * {@link App}, which sleep before listing a local directory.
+ * <p/>
+ * Run with <code>java -jar target/benchmarks.jar HighLatencyWalkBenchmark</code>. The generated repository is kept
+ * small by default since the sequential walker pays the latency once per directory.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 2 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class HighLatencyWalkBenchmark
+{
+    /**
+     * An existing repository to walk as it is. By default a repository of {@link #files} files is generated below
+     * <code>java.io.tmpdir</code>.
+     */
+    @Param( "" )
+    public String basedir;
+
+    /**
+     * The number of files in the generated repository, ignored when {@link #basedir} is given.
+     */
+    @Param( "10000" )
+    public long files;
+
+    /**
+     * Milliseconds added to each directory listing.
+     */
+    @Param( { "1", "5" } )
+    public long latency;
+
+    /**
+     * Outstanding listings allowed to the virtual thread walker.
+     */
+    @Param( "64" )
+    public int outstanding;
+
+    private File dir;
+
+    private List<String> excludes;
+
+    @Setup( Level.Trial )
+    public void setUp()
+        throws IOException
+    {
+        if ( basedir.length() > 0 )
+        {
+            dir = new File( basedir );
+        }
+        else
+        {
+            File corpus = new File( System.getProperty( "java.io.tmpdir" ), "archiva-scanner-corpus-" + files );
+            dir = RepositoryGenerator.ensureCorpus( corpus, files, 0 );
+        }
+        if ( !dir.isDirectory() )
+        {
+            throw new IllegalStateException( "Not a directory: " + dir );
+        }
+        excludes = Arrays.asList( RepositoryScanner.IGNORABLE_CONTENT );
+    }
+
+    @Benchmark
+    public int sequentialWalker()
+    {
+        return walk( new App.SlowDirectoryWalker( latency ) );
+    }
+
+    @Benchmark
+    public int forkJoinWalker()
+    {
+        return walk( new App.SlowParallelDirectoryWalker( latency ) );
+    }
+
+    @Benchmark
+    public int virtualThreadWalker()
+    {
+        App.SlowVirtualThreadDirectoryWalker walker = new App.SlowVirtualThreadDirectoryWalker( latency );
+        walker.setMaxOutstandingListings( outstanding );
+        return walk( walker );
+    }
+
+    private int walk( DirectoryWalker walker )
+    {
+        walker.setBaseDir( dir );
+        walker.setExcludes( excludes );
+        App.MyDirectoryWalkListener listener = new App.MyDirectoryWalkListener();
+        walker.addDirectoryWalkListener( listener );
+        walker.scan();
+        return listener.getCount();
+    }
+}
@@ -0,0 +1,263 @@
+package org.apache.archiva.benchmark;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.archiva.App;
+import org.apache.archiva.DirectoryWalker;
+import org.apache.archiva.NioDirectoryWalker;
+import org.apache.archiva.ParallelDirectoryWalker;
+import org.apache.archiva.RepositoryGenerator;
+import org.apache.archiva.VirtualThreadDirectoryWalker;
+import org.apache.archiva.configuration.ManagedRepositoryConfiguration;
+import org.apache.archiva.consumers.InvalidRepositoryContentConsumer;
+import org.apache.archiva.consumers.KnownRepositoryContentConsumer;
+import org.apache.archiva.repository.scanner.DefaultRepositoryScanner;
+import org.apache.archiva.repository.scanner.RepositoryScanStatistics;
+import org.apache.archiva.repository.scanner.RepositoryScanner;
+import org.apache.archiva.repository.scanner.RepositoryScannerException;
+import org.apache.tools.ant.DirectoryScanner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH version of the contenders in {@link App}: every walker and scanner walks the same repository with the
+ * repository scanner's ignorable content excluded.
+ * <p/>
+ * Each benchmark is measured both as throughput and as sampled time per walk. With <code>cache=cold</code> the page
+ * cache is dropped before every invocation, so the walk pays for the disk; this needs root, or a different command in
+ * the <code>scanner.dropCachesCommand</code> system property of the forked JVMs (pass it with
+ * <code>-jvmArgsAppend</code>).
+ * <p/>
+ * Build with <code>mvn package</code> and run <code>java -jar target/benchmarks.jar -p basedir=/path/to/repo</code>, or
+ * <code>-p files=1000000</code> for a reproducible generated repository.
+ * The GC profiler is always added for allocation rates, and unless <code>-rf</code>/<code>-rff</code> are given the
+ * results are written to <code>scanner-benchmark.json</code> so they can be compared across releases. Any other JMH
+ * option can be given on the command line.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( { Mode.Throughput, Mode.SampleTime } )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 2 )
+public class ScannerBenchmark
+{
+    private static final String DEFAULT_DROP_CACHES_COMMAND = "sync; echo 3 > /proc/sys/vm/drop_caches";
+
+    /**
+     * The repository to walk. Defaults to the local Maven repository, or to a directory below
+     * <code>java.io.tmpdir</code> when a generated corpus is requested with {@link #files}.
+     */
+    @Param( "" )
+    public String basedir;
+
+    /**
+     * When positive, walk a synthetic repository of this many files from {@link RepositoryGenerator}, e.g.
+     * <code>-p files=100000,1000000,10000000</code>. It is generated on first use and reused afterwards.
+     */
+    @Param( "0" )
+    public long files;
+
+    /**
+     * <code>warm</code> to walk with whatever the previous iteration left in the page cache, <code>cold</code> to drop
+     * it first.
+     */
+    @Param( { "warm", "cold" } )
+    public String cache;
+
+    private File dir;
+
+    private String[] excludes;
+
+    private List<String> excludeList;
+
+    public static void main( String[] args )
+        throws Exception
+    {
+        CommandLineOptions commandLine = new CommandLineOptions( args );
+
+        ChainedOptionsBuilder options = new OptionsBuilder().parent( commandLine ).addProfiler( GCProfiler.class );
+        if ( commandLine.getIncludes().isEmpty() )
+        {
+            options.include( ScannerBenchmark.class.getName() );
+        }
+        if ( !commandLine.getResult().hasValue() && !commandLine.getResultFormat().hasValue() )
+        {
+            options.result( "scanner-benchmark.json" ).resultFormat( ResultFormatType.JSON );
+        }
+
+        new Runner( options.build() ).run();
+    }
+
+    @Setup( Level.Trial )
+    public void setUp()
+        throws IOException
+    {
+        if ( files > 0 )
+        {
+            File corpus = basedir.length() > 0 ? new File( basedir ) : new File(
+                System.getProperty( "java.io.tmpdir" ), "archiva-scanner-corpus-" + files );
+            dir = RepositoryGenerator.ensureCorpus( corpus, files, 0 );
+        }
+        else
+        {
+            dir = basedir.length() > 0 ? new File( basedir ) : new File( System.getProperty( "user.home" ),
+                                                                         ".m2/repository" );
+        }
+        if ( !dir.isDirectory() )
+        {
+            throw new IllegalStateException( "Not a directory: " + dir );
+        }
+
+        excludes = RepositoryScanner.IGNORABLE_CONTENT;
+        excludeList = Arrays.asList( excludes );
+    }
+
+    @Setup( Level.Invocation )
+    public void dropCaches()
+        throws IOException, InterruptedException
+    {
+        if ( !"cold".equals( cache ) )
+        {
+            return;
+        }
+
+        String command = System.getProperty( "scanner.dropCachesCommand", DEFAULT_DROP_CACHES_COMMAND );
+        Process process = new ProcessBuilder( "sh", "-c", command ).redirectErrorStream( true ).start();
+        if ( process.waitFor() != 0 )
+        {
+            throw new IllegalStateException(
+                "Could not drop the page cache with '" + command + "' (exit " + process.exitValue() + ")" );
+        }
+    }
+
+    @Benchmark
+    public int antScanner()
+    {
+        DirectoryScanner scanner = new DirectoryScanner();
+        scanner.setBasedir( dir );
+        scanner.setIncludes( new String[]{"**/*"} );
+        scanner.setExcludes( excludes );
+        scanner.scan();
+        return scanner.getIncludedFilesCount();
+    }
+
+    @Benchmark
+    public int plexusUtilsScanner()
+    {
+        org.codehaus.plexus.util.DirectoryScanner scanner = new org.codehaus.plexus.util.DirectoryScanner();
+        scanner.setBasedir( dir );
+        scanner.setIncludes( new String[]{"**/*"} );
+        scanner.setExcludes( excludes );
+        scanner.scan();
+        return scanner.getIncludedFiles().length;
+    }
+
+    @Benchmark
+    public int plexusUtilsWalker()
+    {
+        org.codehaus.plexus.util.DirectoryWalker walker = new org.codehaus.plexus.util.DirectoryWalker();
+        walker.setBaseDir( dir );
+        walker.setExcludes( excludeList );
+        App.PlexusUtilsDirectoryWalkListener listener = new App.PlexusUtilsDirectoryWalkListener();
+        walker.addDirectoryWalkListener( listener );
+        walker.scan();
+        return listener.getCount();
+    }
+
+    @Benchmark
+    public int commonsIoWalker()
+        throws IOException
+    {
+        App.MyDirectoryWalker walker = new App.MyDirectoryWalker( dir, excludeList );
+        walker.scan();
+        return walker.getCount();
+    }
+
+    @Benchmark
+    public int directoryWalker()
+    {
+        return walk( new DirectoryWalker() );
+    }
+
+    @Benchmark
+    public int nioWalker()
+    {
+        return walk( new NioDirectoryWalker() );
+    }
+
+    @Benchmark
+    public int parallelWalker()
+    {
+        return walk( new ParallelDirectoryWalker() );
+    }
+
+    @Benchmark
+    public int virtualThreadWalker()
+    {
+        return walk( new VirtualThreadDirectoryWalker() );
+    }
+
+    @Benchmark
+    public RepositoryScanStatistics repositoryScanner()
+        throws RepositoryScannerException
+    {
+        ManagedRepositoryConfiguration config = new ManagedRepositoryConfiguration();
+        config.setLocation( dir.getAbsolutePath() );
+
+        RepositoryScanner scanner = new DefaultRepositoryScanner();
+        return scanner.scan( config, Collections.<KnownRepositoryContentConsumer>emptyList(),
+                             Collections.<InvalidRepositoryContentConsumer>emptyList(), excludeList,
+                             RepositoryScanner.FRESH_SCAN );
+    }
+
+    private int walk( DirectoryWalker walker )
+    {
+        walker.setBaseDir( dir );
+        walker.setExcludes( excludeList );
+        App.MyDirectoryWalkListener listener = new App.MyDirectoryWalkListener();
+        walker.addDirectoryWalkListener( listener );
+        walker.scan();
+        return listener.getCount();
+    }
+}
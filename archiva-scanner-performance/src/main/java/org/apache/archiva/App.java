@@ -12,11 +12,14 @@ import org.apache.tools.ant.DirectoryScanner;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import javax.management.JMException;
 
 /**
  * Hello world!
@@ -24,16 +27,36 @@ import java.util.List;
  * Note: run with -XX:NewSize=1024m to get accurate values for "used memory" You need to avoid any GC during the method,
  * which can be monitored with -verbose:gc. Even without the NewSize, watching the quantity of GC gives a reasonable
  * expectation of memory use.
+ *
+ * Usage: <code>App [basedir [files]]</code>. With <code>files</code>, a synthetic repository of that many files is
+ * generated into <code>basedir</code> by {@link RepositoryGenerator} if it is not already there.
+ *
+ * For numbers that are comparable between runs and machines, use the JMH benchmarks in archiva-scanner-benchmarks,
+ * which run the same contenders with warm-up, forks and a GC profiler.
  */
 public class App
 {
     private static final Runtime RUNTIME = Runtime.getRuntime();
 
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private static final int[] PARALLELISM_LEVELS = {1, 2, 4, 8, 16};
+
+    /**
+     * Milliseconds added to every directory listing in the high latency comparison, standing in for an NFS round trip.
+     */
+    private static final long LISTING_LATENCY = Long.getLong( "scanner.listingLatency", 1 ).longValue();
+
     public static void main( String[] args )
-        throws RepositoryScannerException, IOException, InterruptedException
+        throws RepositoryScannerException, IOException, InterruptedException, JMException
     {
         File basedir = args.length > 0 ? new File( args[0] ) : new File( System.getProperty( "user.home" ),
                                                                          ".m2/repository" );
+        if ( args.length > 1 )
+        {
+            // reproducible corpus of the given number of files, generated on first use
+            basedir = RepositoryGenerator.ensureCorpus( basedir, Long.parseLong( args[1] ), 0 );
+        }
 
         String[] excludes = RepositoryScanner.IGNORABLE_CONTENT;
 
@@ -50,6 +73,12 @@ public class App
         System.out.println( "new walker" );
         scanUsingNewWalker( basedir, Arrays.asList( excludes ) );
 
+        System.out.println( "new walker, batch listener" );
+        scanUsingBatchListener( basedir, Arrays.asList( excludes ) );
+
+        System.out.println( "nio walker" );
+        scanUsingNioWalker( basedir, Arrays.asList( excludes ) );
+
         System.out.println( "commons-io walker" );
         scanUsingCommonsWalker( basedir, Arrays.asList( excludes ) );
 
@@ -58,6 +87,24 @@ public class App
         
         System.out.println( "plexus-utils scanner" );
         scanUsingUtilsScanner( basedir, excludes );
+
+        System.out.println( "parallel walker" );
+        scanUsingParallelWalker( basedir, Arrays.asList( excludes ) );
+
+        System.out.println( "high latency listing (" + LISTING_LATENCY + " ms)" );
+        compareHighLatencyWalkers( basedir, Arrays.asList( excludes ) );
+
+        System.out.println( "incremental walker" );
+        scanUsingIncrementalWalker( basedir, Arrays.asList( excludes ) );
+
+        System.out.println( "scan snapshot" );
+        scanUsingSnapshot( basedir, Arrays.asList( excludes ) );
+
+        System.out.println( "walk statistics" );
+        scanWithStatistics( basedir, Arrays.asList( excludes ) );
+
+        System.out.println( "exclude matching" );
+        compareExcludeMatching( basedir, Arrays.asList( excludes ) );
     }
 
     private static void scanUsingCommonsWalker( File basedir, List<String> excludes )
@@ -65,9 +112,11 @@ public class App
     {
         long startMemory = getUsedMemory();
         long start = System.currentTimeMillis();
+        long startAllocated = getAllocatedBytes();
         MyDirectoryWalker walker = new MyDirectoryWalker( basedir, excludes );
         walker.scan();
         printTime( start );
+        showAllocatedMemory( startAllocated, walker.getCount() );
         showFreeMemory( startMemory );
         System.out.println( "Files: " + walker.getCount() );
     }
@@ -77,6 +126,7 @@ public class App
     {
         long startMemory = getUsedMemory();
         long start = System.currentTimeMillis();
+        long startAllocated = getAllocatedBytes();
 
         DirectoryScanner scanner = new DirectoryScanner();
         scanner.setBasedir( basedir );
@@ -84,6 +134,7 @@ public class App
         scanner.setExcludes( excludes );
         scanner.scan();
         printTime( start );
+        showAllocatedMemory( startAllocated, scanner.getIncludedFiles().length );
         showFreeMemory( startMemory );
         System.out.println( "Files: " + scanner.getIncludedFiles().length );
     }
@@ -93,6 +144,7 @@ public class App
     {
         long startMemory = getUsedMemory();
         long start = System.currentTimeMillis();
+        long startAllocated = getAllocatedBytes();
 
         org.codehaus.plexus.util.DirectoryScanner scanner = new org.codehaus.plexus.util.DirectoryScanner();
         scanner.setBasedir( basedir );
@@ -100,6 +152,7 @@ public class App
         scanner.setExcludes( excludes );
         scanner.scan();
         printTime( start );
+        showAllocatedMemory( startAllocated, scanner.getIncludedFiles().length );
         showFreeMemory( startMemory );
         System.out.println( "Files: " + scanner.getIncludedFiles().length );
     }
@@ -109,6 +162,7 @@ public class App
     {
         long startMemory = getUsedMemory();
         long start = System.currentTimeMillis();
+        long startAllocated = getAllocatedBytes();
         org.codehaus.plexus.util.DirectoryWalker walker = new org.codehaus.plexus.util.DirectoryWalker();
         walker.setBaseDir( basedir );
         walker.setExcludes( excludes );
@@ -116,6 +170,7 @@ public class App
         walker.addDirectoryWalkListener( walkListener );
         walker.scan();
         printTime( start );
+        showAllocatedMemory( startAllocated, walkListener.getCount() );
         showFreeMemory( startMemory );
         System.out.println( "Files: " + walkListener.getCount() );
     }
@@ -125,17 +180,285 @@ public class App
     {
         long startMemory = getUsedMemory();
         long start = System.currentTimeMillis();
+        long startAllocated = getAllocatedBytes();
+        DirectoryWalker walker = new DirectoryWalker();
+        walker.setBaseDir( basedir );
+        walker.setExcludes( excludes );
+        MyDirectoryWalkListener walkListener = new MyDirectoryWalkListener();
+        walker.addDirectoryWalkListener( walkListener );
+        walker.scan();
+        printTime( start );
+        showAllocatedMemory( startAllocated, walkListener.getCount() );
+        showFreeMemory( startMemory );
+        System.out.println( "Files: " + walkListener.getCount() );
+    }
+
+    private static void scanUsingBatchListener( File basedir, List<String> excludes )
+        throws InterruptedException
+    {
+        long startMemory = getUsedMemory();
+        long start = System.currentTimeMillis();
+        long startAllocated = getAllocatedBytes();
         DirectoryWalker walker = new DirectoryWalker();
         walker.setBaseDir( basedir );
         walker.setExcludes( excludes );
+        BatchCountingListener walkListener = new BatchCountingListener();
+        walker.addBatchDirectoryWalkListener( walkListener );
+        walker.scan();
+        printTime( start );
+        showAllocatedMemory( startAllocated, walkListener.count );
+        showFreeMemory( startMemory );
+        System.out.println( "Files: " + walkListener.count + "; batches " + walkListener.batches );
+    }
+
+    private static void scanUsingNioWalker( File basedir, List<String> excludes )
+        throws InterruptedException
+    {
+        long startMemory = getUsedMemory();
+        long start = System.currentTimeMillis();
+        long startAllocated = getAllocatedBytes();
+        DirectoryWalker walker = new NioDirectoryWalker();
+        walker.setBaseDir( basedir );
+        walker.setExcludes( excludes );
         MyDirectoryWalkListener walkListener = new MyDirectoryWalkListener();
         walker.addDirectoryWalkListener( walkListener );
         walker.scan();
         printTime( start );
+        showAllocatedMemory( startAllocated, walkListener.getCount() );
         showFreeMemory( startMemory );
         System.out.println( "Files: " + walkListener.getCount() );
     }
 
+    private static void scanUsingParallelWalker( File basedir, List<String> excludes )
+        throws InterruptedException
+    {
+        long sequentialStart = System.currentTimeMillis();
+        DirectoryWalker sequential = new DirectoryWalker();
+        sequential.setBaseDir( basedir );
+        sequential.setExcludes( excludes );
+        sequential.scan();
+        long sequentialTime = System.currentTimeMillis() - sequentialStart;
+        System.out.println( "sequential: " + sequentialTime + " ms" );
+
+        for ( int parallelism : PARALLELISM_LEVELS )
+        {
+            long startMemory = getUsedMemory();
+            long start = System.currentTimeMillis();
+            ParallelDirectoryWalker walker = new ParallelDirectoryWalker();
+            walker.setParallelism( parallelism );
+            walker.setBaseDir( basedir );
+            walker.setExcludes( excludes );
+            MyDirectoryWalkListener walkListener = new MyDirectoryWalkListener();
+            walker.addDirectoryWalkListener( walkListener );
+            walker.scan();
+            long time = System.currentTimeMillis() - start;
+            System.out.print( parallelism + " threads: " );
+            printTime( start );
+            System.out.print( "speedup " + String.format( "%.2f", (double) sequentialTime / Math.max( time, 1 ) ) + "x; " );
+            showFreeMemory( startMemory );
+            System.out.println( "Files: " + walkListener.getCount() );
+        }
+    }
+
+    private static void compareHighLatencyWalkers( File basedir, List<String> excludes )
+    {
+        DirectoryWalker[] walkers = {new SlowDirectoryWalker( LISTING_LATENCY ),
+            new SlowParallelDirectoryWalker( LISTING_LATENCY ), new SlowVirtualThreadDirectoryWalker( LISTING_LATENCY )};
+        String[] names = {"sequential: ", "fork/join: ", VirtualThreadDirectoryWalker.isVirtualThreadsAvailable()
+            ? "virtual threads: " : "listing threads (no virtual threads): "};
+
+        for ( int i = 0; i < walkers.length; i++ )
+        {
+            long start = System.currentTimeMillis();
+            DirectoryWalker walker = walkers[i];
+            walker.setBaseDir( basedir );
+            walker.setExcludes( excludes );
+            MyDirectoryWalkListener walkListener = new MyDirectoryWalkListener();
+            walker.addDirectoryWalkListener( walkListener );
+            walker.scan();
+            System.out.print( names[i] );
+            printTime( start );
+            System.out.println( "Files: " + walkListener.getCount() );
+        }
+    }
+
+    private static void scanUsingIncrementalWalker( File basedir, List<String> excludes )
+        throws IOException, InterruptedException
+    {
+        File manifest = File.createTempFile( "walk-manifest", ".gz" );
+        manifest.delete();
+        try
+        {
+            // the first walk has no manifest and lists everything, the second one finds nothing changed
+            for ( String walk : new String[]{"initial: ", "rescan: "} )
+            {
+                long startMemory = getUsedMemory();
+                long start = System.currentTimeMillis();
+                long startAllocated = getAllocatedBytes();
+                IncrementalDirectoryWalker walker = new IncrementalDirectoryWalker();
+                walker.setBaseDir( basedir );
+                walker.setExcludes( excludes );
+                walker.setManifestFile( manifest );
+                MyDirectoryWalkListener walkListener = new MyDirectoryWalkListener();
+                walker.addDirectoryWalkListener( walkListener );
+                ChangeCountingListener changeListener = new ChangeCountingListener();
+                walker.addDirectoryChangeListener( changeListener );
+                walker.scan();
+                System.out.print( walk );
+                printTime( start );
+                showAllocatedMemory( startAllocated, walkListener.getCount() );
+                showFreeMemory( startMemory );
+                System.out.println( "Files: " + walkListener.getCount() + "; added " + changeListener.added
+                    + "; removed " + changeListener.removed + "; manifest " + manifest.length() + " bytes" );
+            }
+        }
+        finally
+        {
+            manifest.delete();
+        }
+    }
+
+    private static void scanUsingSnapshot( File basedir, List<String> excludes )
+        throws IOException, InterruptedException
+    {
+        File first = File.createTempFile( "scan-snapshot", ".bin" );
+        File second = File.createTempFile( "scan-snapshot", ".bin" );
+        try
+        {
+            // record two walks, then read one back and compare them without touching the repository
+            for ( File snapshotFile : new File[]{first, second} )
+            {
+                long startMemory = getUsedMemory();
+                long start = System.currentTimeMillis();
+                long startAllocated = getAllocatedBytes();
+                NioDirectoryWalker walker = new NioDirectoryWalker();
+                walker.setBaseDir( basedir );
+                walker.setExcludes( excludes );
+                walker.addBatchDirectoryWalkListener( new ScanSnapshotWriter( snapshotFile ) );
+                walker.scan();
+                System.out.print( "write: " );
+                printTime( start );
+                showAllocatedMemory( startAllocated, ScanSnapshot.open( snapshotFile ).size() );
+                showFreeMemory( startMemory );
+                System.out.println( "snapshot " + snapshotFile.length() + " bytes" );
+            }
+
+            long startMemory = getUsedMemory();
+            long start = System.currentTimeMillis();
+            long startAllocated = getAllocatedBytes();
+            ScanSnapshot snapshot = ScanSnapshot.open( first );
+            ScanSnapshot.Cursor cursor = snapshot.cursor();
+            long bytes = 0;
+            while ( cursor.next() )
+            {
+                bytes += cursor.getLength();
+            }
+            System.out.print( "read: " );
+            printTime( start );
+            showAllocatedMemory( startAllocated, snapshot.size() );
+            showFreeMemory( startMemory );
+            System.out.println( "Files: " + snapshot.size() + "; " + bytes + " bytes" );
+
+            start = System.currentTimeMillis();
+            ScanSnapshotDiff diff = snapshot.diff( ScanSnapshot.open( second ) );
+            System.out.print( "diff: " );
+            printTime( start );
+            System.out.println( diff );
+        }
+        finally
+        {
+            first.delete();
+            second.delete();
+        }
+    }
+
+    private static void scanWithStatistics( File basedir, List<String> excludes )
+        throws JMException
+    {
+        long start = System.currentTimeMillis();
+        WalkStatistics statistics = new WalkStatistics();
+        // visible in jconsole as org.apache.archiva:type=WalkStatistics while the walk runs
+        statistics.register( basedir.getPath() );
+        try
+        {
+            DirectoryWalker walker = new DirectoryWalker();
+            walker.setBaseDir( basedir );
+            walker.setExcludes( excludes );
+            walker.setStatistics( statistics );
+            MyDirectoryWalkListener walkListener = new MyDirectoryWalkListener();
+            walker.addDirectoryWalkListener( walkListener );
+            walker.scan();
+            printTime( start );
+            System.out.println( "Files: " + walkListener.getCount() );
+            System.out.print( statistics.getReport() );
+        }
+        finally
+        {
+            statistics.unregister();
+        }
+    }
+
+    private static void compareExcludeMatching( File basedir, List<String> excludes )
+    {
+        final int offset = basedir.getAbsolutePath().length() + 1;
+        final List<String> paths = new ArrayList<String>();
+        DirectoryWalker walker = new DirectoryWalker();
+        walker.setBaseDir( basedir );
+        walker.addDirectoryWalkListener( new MyDirectoryWalkListener()
+        {
+            @Override
+            public void directoryWalkStep( int percentage, File file )
+            {
+                paths.add( file.getAbsolutePath().substring( offset ) );
+            }
+        } );
+        walker.scan();
+
+        List<TokenizedPattern> patterns = new ArrayList<TokenizedPattern>( excludes.size() );
+        for ( String exclude : excludes )
+        {
+            patterns.add( new TokenizedPattern( exclude ) );
+        }
+        ExcludeMatcher matcher = new ExcludeMatcher( patterns, true );
+
+        for ( int round = 0; round < 2; round++ )
+        {
+            long start = System.currentTimeMillis();
+            long startAllocated = getAllocatedBytes();
+            int matched = 0;
+            for ( String path : paths )
+            {
+                for ( TokenizedPattern pattern : patterns )
+                {
+                    if ( pattern.matchPath( path, true ) )
+                    {
+                        matched++;
+                        break;
+                    }
+                }
+            }
+            System.out.print( "SelectorUtils: " );
+            printTime( start );
+            showAllocatedMemory( startAllocated, paths.size() );
+            System.out.println( "Excluded: " + matched + " of " + paths.size() );
+
+            start = System.currentTimeMillis();
+            startAllocated = getAllocatedBytes();
+            matched = 0;
+            for ( String path : paths )
+            {
+                if ( matcher.matchPath( path ) )
+                {
+                    matched++;
+                }
+            }
+            System.out.print( "ExcludeMatcher: " );
+            printTime( start );
+            showAllocatedMemory( startAllocated, paths.size() );
+            System.out.println( "Excluded: " + matched + " of " + paths.size() );
+        }
+    }
+
     private static void scanUsingRepositoryScanner( File basedir, List<String> excludes )
         throws RepositoryScannerException, InterruptedException
     {
@@ -174,13 +497,39 @@ public class App
         System.out.print( "retained memory ~" + ( endMemory - startMemory ) + "; (used ~" + used + "); " );
     }
 
+    /**
+     * Bytes allocated by the current thread so far, or -1 if the JVM cannot tell. Unlike the free memory estimate
+     * this is not disturbed by garbage collection during the scan.
+     */
+    private static long getAllocatedBytes()
+    {
+        if ( THREADS instanceof com.sun.management.ThreadMXBean )
+        {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+            if ( threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled() )
+            {
+                return threads.getThreadAllocatedBytes( Thread.currentThread().getId() );
+            }
+        }
+        return -1;
+    }
+
+    private static void showAllocatedMemory( long startAllocated, int files )
+    {
+        if ( startAllocated >= 0 )
+        {
+            long allocated = getAllocatedBytes() - startAllocated;
+            System.out.print( "allocated " + allocated + " (" + ( allocated / Math.max( files, 1 ) ) + " per file); " );
+        }
+    }
+
     private static void gc()
         throws InterruptedException
     {
         System.gc();
     }
 
-    private static final class MyDirectoryWalker
+    public static final class MyDirectoryWalker
         extends org.apache.commons.io.DirectoryWalker
     {
         private final File basedir;
@@ -248,8 +597,76 @@ public class App
         }
     }
 
+    /**
+     * Lists a directory after sleeping for <code>latency</code> milliseconds, a local stand-in for a filesystem where
+     * every listing is a network round trip.
+     */
+    static String[] listSlowly( File dir, long latency )
+    {
+        try
+        {
+            Thread.sleep( latency );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+        return dir.list();
+    }
+
+    public static class SlowDirectoryWalker
+        extends DirectoryWalker
+    {
+        private final long latency;
+
+        public SlowDirectoryWalker( long latency )
+        {
+            this.latency = latency;
+        }
+
+        @Override
+        protected String[] list( File dir )
+        {
+            return listSlowly( dir, latency );
+        }
+    }
+
+    public static class SlowParallelDirectoryWalker
+        extends ParallelDirectoryWalker
+    {
+        private final long latency;
+
+        public SlowParallelDirectoryWalker( long latency )
+        {
+            this.latency = latency;
+        }
+
+        @Override
+        protected String[] list( File dir )
+        {
+            return listSlowly( dir, latency );
+        }
+    }
+
+    public static class SlowVirtualThreadDirectoryWalker
+        extends VirtualThreadDirectoryWalker
+    {
+        private final long latency;
+
+        public SlowVirtualThreadDirectoryWalker( long latency )
+        {
+            this.latency = latency;
+        }
+
+        @Override
+        protected String[] list( File dir )
+        {
+            return listSlowly( dir, latency );
+        }
+    }
+
     @SuppressWarnings( {"UnusedDeclaration"} )
-    private static abstract class AbstractDirectoryWalkListener
+    public static abstract class AbstractDirectoryWalkListener
     {
         private int count = 0;
 
@@ -276,14 +693,54 @@ public class App
         }
     }
 
-    private static class PlexusUtilsDirectoryWalkListener
+    public static class PlexusUtilsDirectoryWalkListener
         extends AbstractDirectoryWalkListener
         implements org.codehaus.plexus.util.DirectoryWalkListener
     {
 
     }
 
-    private static class MyDirectoryWalkListener
+    private static class BatchCountingListener
+        implements BatchDirectoryWalkListener
+    {
+        private int count;
+
+        private int batches;
+
+        public void directoryWalkStarting( File basedir )
+        {
+        }
+
+        public void directoryWalkBatch( WalkBatch batch )
+        {
+            count += batch.size();
+            batches++;
+        }
+
+        public void directoryWalkFinished()
+        {
+        }
+    }
+
+    private static class ChangeCountingListener
+        implements DirectoryChangeListener
+    {
+        private int added;
+
+        private int removed;
+
+        public void fileAdded( File file )
+        {
+            added++;
+        }
+
+        public void fileRemoved( File file )
+        {
+            removed++;
+        }
+    }
+
+    public static class MyDirectoryWalkListener
         extends AbstractDirectoryWalkListener
         implements DirectoryWalkListener
     {
@@ -0,0 +1,50 @@
+package org.apache.archiva;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+
+/**
+ * Receives the included files of a walk in batches rather than one call per file, so that listeners forwarding to a
+ * queue, an index or a database can work in bulk.
+ *
+ * @see DirectoryWalker#setBatchSize(int)
+ */
+public interface BatchDirectoryWalkListener
+{
+    /**
+     * The directory walking has begun.
+     *
+     * @param basedir the basedir that walk started in.
+     */
+    void directoryWalkStarting( File basedir );
+
+    /**
+     * The next included files. The batch is reused by the walker once this method returns, so it must not be kept.
+     *
+     * @param batch the files.
+     */
+    void directoryWalkBatch( WalkBatch batch );
+
+    /**
+     * The directory walking has finished.
+     */
+    void directoryWalkFinished();
+}
@@ -0,0 +1,42 @@
+package org.apache.archiva;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+
+/**
+ * Receives the changes that {@link IncrementalDirectoryWalker} found since the previous walk.
+ */
+public interface DirectoryChangeListener
+{
+    /**
+     * An included file that was not there in the previous walk.
+     *
+     * @param file the new file.
+     */
+    void fileAdded( File file );
+
+    /**
+     * A file from the previous walk that is gone or no longer included.
+     *
+     * @param file the removed file.
+     */
+    void fileRemoved( File file );
+}
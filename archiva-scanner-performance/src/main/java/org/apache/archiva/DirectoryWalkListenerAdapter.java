@@ -0,0 +1,72 @@
+package org.apache.archiva;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+
+/**
+ * Delivers the batches of a walk to a per-file {@link DirectoryWalkListener}, one
+ * {@link DirectoryWalkListener#directoryWalkStep(int, File)} call per file. A resumed walk is passed on if the listener
+ * is a {@link DirectoryWalkResumeListener}.
+ */
+public class DirectoryWalkListenerAdapter
+    implements BatchDirectoryWalkListener, DirectoryWalkResumeListener
+{
+    private final DirectoryWalkListener listener;
+
+    public DirectoryWalkListenerAdapter( DirectoryWalkListener listener )
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * @return the adapted listener.
+     */
+    public DirectoryWalkListener getListener()
+    {
+        return listener;
+    }
+
+    public void directoryWalkStarting( File basedir )
+    {
+        listener.directoryWalkStarting( basedir );
+    }
+
+    public void directoryWalkResumed( File basedir, String path )
+    {
+        if ( listener instanceof DirectoryWalkResumeListener )
+        {
+            ( (DirectoryWalkResumeListener) listener ).directoryWalkResumed( basedir, path );
+        }
+    }
+
+    public void directoryWalkBatch( WalkBatch batch )
+    {
+        for ( int i = 0; i < batch.size(); i++ )
+        {
+            listener.directoryWalkStep( 0, batch.getFile( i ) );
+        }
+    }
+
+    public void directoryWalkFinished()
+    {
+        listener.directoryWalkFinished();
+    }
+}
@@ -0,0 +1,39 @@
+package org.apache.archiva;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+
+/**
+ * Implemented by walk listeners that need to know when a walk continues from a checkpoint, see
+ * {@link DirectoryWalker#setCheckpointFile(File)}. Both per-file and batch listeners can implement it.
+ */
+public interface DirectoryWalkResumeListener
+{
+    /**
+     * The walk is continuing from a checkpoint of an earlier walk that did not finish, rather than starting over.
+     * Called right after <code>directoryWalkStarting</code>. The files before <code>path</code> were delivered by the
+     * earlier walk and will not be delivered again; files delivered by the earlier walk after its last checkpoint will.
+     *
+     * @param basedir the basedir of the walk.
+     * @param path the path, relative to the basedir, of the first entry the walk resumes at.
+     */
+    void directoryWalkResumed( File basedir, String path );
+}
@@ -19,8 +19,16 @@ package org.apache.archiva;
  * under the License.
  */
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -30,15 +38,36 @@ import java.util.List;
  */
 public class DirectoryWalker
 {
+    private static final int CHECKPOINT_MAGIC = 0x41534331; // "ASC1"
+
     private File baseDir;
 
     private int baseDirOffset;
 
     private List<TokenizedPattern> excludes;
 
+    private ExcludeMatcher excludeMatcher;
+
     private boolean isCaseSensitive = true;
 
-    private List<DirectoryWalkListener> listeners;
+    private List<BatchDirectoryWalkListener> listeners;
+
+    private int batchSize = 1024;
+
+    private WalkBatch batch;
+
+    private WalkStatistics statistics;
+
+    private File checkpointFile;
+
+    private long checkpointInterval = 60000;
+
+    /**
+     * The directories being walked, outermost first, while checkpointing.
+     */
+    private List<Frame> frontier;
+
+    private long nextCheckpoint;
 
     public static final String[] DEFAULTEXCLUDES = {
         // Miscellaneous typical temporary files
@@ -71,17 +100,117 @@ public class DirectoryWalker
     public DirectoryWalker()
     {
         this.excludes = new ArrayList<TokenizedPattern>();
-        this.listeners = new ArrayList<DirectoryWalkListener>();
+        this.listeners = new ArrayList<BatchDirectoryWalkListener>();
     }
 
+    /**
+     * Adds a per-file listener. Included files are delivered to it from the same batches as to
+     * {@link BatchDirectoryWalkListener}s, through a {@link DirectoryWalkListenerAdapter}, so it sees them when a batch
+     * is complete rather than as soon as each file is found.
+     *
+     * @param listener the listener to add.
+     */
     public void addDirectoryWalkListener( DirectoryWalkListener listener )
+    {
+        this.listeners.add( new DirectoryWalkListenerAdapter( listener ) );
+    }
+
+    public void addBatchDirectoryWalkListener( BatchDirectoryWalkListener listener )
     {
         this.listeners.add( listener );
     }
 
+    public void removeBatchDirectoryWalkListener( BatchDirectoryWalkListener listener )
+    {
+        this.listeners.remove( listener );
+    }
+
+    /**
+     * @return the maximum number of files delivered to the listeners in one batch.
+     */
+    public int getBatchSize()
+    {
+        return batchSize;
+    }
+
+    /**
+     * @param batchSize the maximum number of files delivered to the listeners in one batch.
+     */
+    public void setBatchSize( int batchSize )
+    {
+        if ( batchSize < 1 )
+        {
+            throw new IllegalArgumentException( "Batch size must be at least 1: " + batchSize );
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return the statistics collected by the walk, or <code>null</code> if they are not collected.
+     */
+    public WalkStatistics getStatistics()
+    {
+        return statistics;
+    }
+
+    /**
+     * @param statistics where to collect statistics of the walk, or <code>null</code> to not collect any.
+     */
+    public void setStatistics( WalkStatistics statistics )
+    {
+        this.statistics = statistics;
+    }
+
+    /**
+     * @return the file the walk is checkpointed to, or <code>null</code>.
+     */
+    public File getCheckpointFile()
+    {
+        return checkpointFile;
+    }
+
+    /**
+     * Makes the walk record how far it got every {@link #setCheckpointInterval(long) interval}, so that a walk that
+     * was interrupted resumes from its last checkpoint instead of starting over. Directories are then walked in sorted
+     * order, and the checkpoint holds the position in each directory from the basedir down to the one being walked.
+     * The checkpoint is removed once a walk finishes.
+     * <p/>
+     * A checkpoint taken with another basedir or other excludes is ignored. Listeners implementing
+     * {@link DirectoryWalkResumeListener} are told when a walk resumes. Only the walk of this class is checkpointed;
+     * subclasses with their own traversal ignore this setting.
+     *
+     * @param checkpointFile the file to checkpoint the walk to, or <code>null</code> to not checkpoint.
+     */
+    public void setCheckpointFile( File checkpointFile )
+    {
+        this.checkpointFile = checkpointFile;
+    }
+
+    /**
+     * @return the time between checkpoints, in milliseconds.
+     */
+    public long getCheckpointInterval()
+    {
+        return checkpointInterval;
+    }
+
+    /**
+     * @param checkpointInterval the time between checkpoints, in milliseconds. Each checkpoint delivers the files
+     *                           collected so far, so very short intervals also mean small batches.
+     */
+    public void setCheckpointInterval( long checkpointInterval )
+    {
+        if ( checkpointInterval < 1 )
+        {
+            throw new IllegalArgumentException( "Checkpoint interval must be at least 1 ms: " + checkpointInterval );
+        }
+        this.checkpointInterval = checkpointInterval;
+    }
+
     public void addExclude( String exclude )
     {
         this.excludes.add( fixPattern( exclude ) );
+        this.excludeMatcher = null;
     }
 
     /**
@@ -96,17 +225,54 @@ public class DirectoryWalker
         }
     }
 
-    private void fireStep( File file )
+    protected void fireStep( File file )
     {
-        for ( DirectoryWalkListener listener : this.listeners )
+        fireStep( null, file, -1, -1 );
+    }
+
+    /**
+     * Adds an included file to the current batch, delivering the batch once it is full. Walkers pass what they
+     * already know about the file; the rest is computed by {@link WalkBatch} when a listener asks for it.
+     *
+     * @param path the path relative to the baseDir, or <code>null</code>.
+     * @param file the file, or <code>null</code> if <code>path</code> is given.
+     * @param length the length of the file, or -1.
+     * @param lastModified the modification time of the file, or -1.
+     */
+    protected void fireStep( String path, File file, long length, long lastModified )
+    {
+        if ( batch.add( path, file, length, lastModified ) )
         {
-            listener.directoryWalkStep( 0, file );
+            flushSteps();
         }
     }
 
+    /**
+     * Delivers the files collected so far, without waiting for the batch to fill up.
+     */
+    protected void flushSteps()
+    {
+        if ( batch.size() == 0 )
+        {
+            return;
+        }
+        long start = statistics != null ? System.nanoTime() : 0;
+        for ( BatchDirectoryWalkListener listener : this.listeners )
+        {
+            listener.directoryWalkBatch( batch );
+        }
+        if ( statistics != null )
+        {
+            statistics.addListenerNanos( System.nanoTime() - start );
+            statistics.filesIncluded( batch.size() );
+        }
+        batch.clear();
+    }
+
     private void fireWalkFinished()
     {
-        for ( DirectoryWalkListener listener : this.listeners )
+        flushSteps();
+        for ( BatchDirectoryWalkListener listener : this.listeners )
         {
             listener.directoryWalkFinished();
         }
@@ -114,12 +280,23 @@ public class DirectoryWalker
 
     private void fireWalkStarting()
     {
-        for ( DirectoryWalkListener listener : this.listeners )
+        for ( BatchDirectoryWalkListener listener : this.listeners )
         {
             listener.directoryWalkStarting( this.baseDir );
         }
     }
 
+    private void fireWalkResumed( String path )
+    {
+        for ( BatchDirectoryWalkListener listener : this.listeners )
+        {
+            if ( listener instanceof DirectoryWalkResumeListener )
+            {
+                ( (DirectoryWalkResumeListener) listener ).directoryWalkResumed( this.baseDir, path );
+            }
+        }
+    }
+
     private TokenizedPattern fixPattern( String pattern )
     {
         String cleanPattern = pattern;
@@ -153,27 +330,30 @@ public class DirectoryWalker
         return excludes;
     }
 
-    private boolean isExcluded( String name )
+    protected boolean isExcluded( String name )
     {
-        return isMatch( this.excludes, name );
+        return getExcludeMatcher().matchPath( name );
     }
 
-    private boolean isMatch( List<TokenizedPattern> patterns, String name )
+    /**
+     * @return the excludes compiled into a single matcher.
+     */
+    protected ExcludeMatcher getExcludeMatcher()
     {
-        for ( TokenizedPattern pattern : patterns )
+        if ( excludeMatcher == null )
         {
-            if ( pattern.matchPath( name, isCaseSensitive ) )
-            {
-                return true;
-            }
+            excludeMatcher = new ExcludeMatcher( excludes, isCaseSensitive );
         }
-
-        return false;
+        return excludeMatcher;
     }
 
-    private String relativeToBaseDir( File file )
+    /**
+     * @param absolutePath an absolute path below the baseDir.
+     * @return the path relative to the baseDir, as used for exclude matching.
+     */
+    protected String relativeToBaseDir( String absolutePath )
     {
-        return file.getAbsolutePath().substring( baseDirOffset + 1 );
+        return absolutePath.substring( baseDirOffset + 1 );
     }
 
     /**
@@ -183,7 +363,15 @@ public class DirectoryWalker
      */
     public void removeDirectoryWalkListener( DirectoryWalkListener listener )
     {
-        this.listeners.remove( listener );
+        for ( BatchDirectoryWalkListener candidate : this.listeners )
+        {
+            if ( candidate instanceof DirectoryWalkListenerAdapter
+                && ( (DirectoryWalkListenerAdapter) candidate ).getListener() == listener )
+            {
+                this.listeners.remove( candidate );
+                return;
+            }
+        }
     }
 
     /**
@@ -206,38 +394,350 @@ public class DirectoryWalker
             throw new IllegalStateException( "Scan Failure.  BaseDir is not a directory." );
         }
 
-        fireWalkStarting();
-        scanDir( this.baseDir );
-        fireWalkFinished();
+        // compile the excludes before any walker thread needs them
+        getExcludeMatcher();
+        batch = new WalkBatch( baseDir, batchSize );
+
+        if ( statistics != null )
+        {
+            statistics.walkStarting( excludes, isCaseSensitive );
+        }
+        try
+        {
+            fireWalkStarting();
+            walk();
+            fireWalkFinished();
+        }
+        finally
+        {
+            if ( statistics != null )
+            {
+                statistics.walkFinished();
+            }
+        }
+    }
+
+    /**
+     * Walks the tree below the baseDir, reporting every included file through {@link #fireStep(java.io.File)}.
+     * Subclasses may override this to provide an alternative traversal strategy.
+     */
+    protected void walk()
+    {
+        if ( checkpointFile == null )
+        {
+            scanDir( this.baseDir, getExcludeMatcher().root() );
+            return;
+        }
+
+        String[] resume = readCheckpoint();
+        if ( resume != null )
+        {
+            StringBuilder path = new StringBuilder();
+            for ( String name : resume )
+            {
+                path.append( path.length() > 0 ? String.valueOf( File.separatorChar ) : "" ).append( name );
+            }
+            fireWalkResumed( path.toString() );
+        }
+
+        frontier = new ArrayList<Frame>();
+        nextCheckpoint = System.currentTimeMillis() + checkpointInterval;
+        try
+        {
+            scanDir( this.baseDir, getExcludeMatcher().root(), resume, 0 );
+        }
+        finally
+        {
+            frontier = null;
+        }
+        checkpointFile.delete();
+    }
+
+    /**
+     * Lists the names in a directory. Every walker based on <code>java.io.File</code> lists directories through this
+     * method, so it can be overridden to observe or slow down listings.
+     *
+     * @param dir the directory.
+     * @return the names in the directory, or <code>null</code> if it can not be read.
+     */
+    protected String[] list( File dir )
+    {
+        return dir.list();
+    }
+
+    /**
+     * Lists a directory through {@link #list(java.io.File)}, recording it in the statistics.
+     */
+    protected final String[] listDirectory( File dir )
+    {
+        if ( statistics == null )
+        {
+            return list( dir );
+        }
+
+        long start = System.nanoTime();
+        String[] names = list( dir );
+        statistics.addListingNanos( System.nanoTime() - start );
+        directoryVisited( dir, names != null ? names.length : 0 );
+        if ( names == null )
+        {
+            statistics.entryUnreadable();
+        }
+        return names;
+    }
+
+    /**
+     * Records an entry that could not be read in the statistics, for walkers that do not list through
+     * {@link #listDirectory(File)}.
+     */
+    protected final void entryUnreadable()
+    {
+        if ( statistics != null )
+        {
+            statistics.entryUnreadable();
+        }
+    }
+
+    /**
+     * Records a directory in the statistics, for walkers that do not list through {@link #listDirectory(File)}.
+     *
+     * @param dir the directory.
+     * @param entries the number of entries in the directory, before excludes.
+     */
+    protected final void directoryVisited( File dir, int entries )
+    {
+        if ( statistics != null )
+        {
+            statistics.directoryVisited( relativePath( dir, null ), entries );
+        }
+    }
+
+    /**
+     * Matches an entry of a directory against the excludes, recording the time and the patterns that excluded it in
+     * the statistics.
+     *
+     * @param state the matcher state of the directory.
+     * @param dir the directory.
+     * @param name the name of the entry.
+     * @return <code>true</code> if the entry is excluded.
+     */
+    protected final boolean isChildExcluded( ExcludeMatcher.State state, File dir, String name )
+    {
+        if ( statistics == null )
+        {
+            return state.matchesChild( name );
+        }
+
+        long start = System.nanoTime();
+        boolean matches = state.matchesChild( name );
+        statistics.addExcludeNanos( System.nanoTime() - start );
+        if ( matches )
+        {
+            statistics.entryExcluded( relativePath( dir, name ) );
+        }
+        return matches;
+    }
+
+    /**
+     * Tells a directory from a file, recording the time in the statistics.
+     */
+    protected final boolean isDirectory( File file )
+    {
+        if ( statistics == null )
+        {
+            return file.isDirectory();
+        }
+
+        long start = System.nanoTime();
+        boolean isDirectory = file.isDirectory();
+        statistics.addStatNanos( System.nanoTime() - start );
+        return isDirectory;
+    }
+
+    private String relativePath( File dir, String name )
+    {
+        String path = dir.getAbsolutePath();
+        path = path.length() > baseDirOffset ? relativeToBaseDir( path ) : "";
+        if ( name == null )
+        {
+            return path;
+        }
+        return path.length() > 0 ? path + File.separatorChar + name : name;
+    }
+
+    private void scanDir( File dir, ExcludeMatcher.State state )
+    {
+        String names[] = listDirectory( dir );
+
+        if ( names == null )
+        {
+            return;
+        }
+
+        for ( String name : names )
+        {
+            if ( isChildExcluded( state, dir, name ) )
+            {
+                continue;
+            }
+
+            File file = new File( dir, name );
+            if ( isDirectory( file ) )
+            {
+                scanDir( file, state.child( name ) );
+            }
+            else
+            {
+                fireStep( file );
+            }
+        }
     }
 
-    private void scanDir( File dir )
+    /**
+     * The walk of {@link #scanDir(File, ExcludeMatcher.State)} in sorted order, keeping track of the position in each
+     * directory for checkpoints.
+     *
+     * @param resume the positions of a checkpoint to continue from when walking down to it, otherwise
+     *               <code>null</code>.
+     * @param depth the depth of <code>dir</code> below the baseDir.
+     */
+    private void scanDir( File dir, ExcludeMatcher.State state, String[] resume, int depth )
     {
-        File files[] = dir.listFiles();
+        String names[] = listDirectory( dir );
 
-        if ( files == null )
+        if ( names == null )
         {
             return;
         }
+        Arrays.sort( names );
 
-        for ( File file : files )
+        int start = 0;
+        boolean resumeChild = false;
+        if ( resume != null && depth < resume.length )
         {
-            String name = relativeToBaseDir( file );
+            start = Arrays.binarySearch( names, resume[depth] );
+            if ( start >= 0 )
+            {
+                resumeChild = depth + 1 < resume.length;
+            }
+            else
+            {
+                // the entry is gone, continue with the one after it
+                start = -start - 1;
+            }
+        }
 
-            if ( isExcluded( name ) )
+        Frame frame = new Frame( names );
+        frontier.add( frame );
+        for ( int i = start; i < names.length; i++ )
+        {
+            frame.index = i;
+            if ( System.currentTimeMillis() >= nextCheckpoint )
+            {
+                checkpoint();
+            }
+
+            String name = names[i];
+            if ( isChildExcluded( state, dir, name ) )
             {
                 continue;
             }
 
-            if ( file.isDirectory() )
+            File file = new File( dir, name );
+            if ( isDirectory( file ) )
             {
-                scanDir( file );
+                scanDir( file, state.child( name ), i == start && resumeChild ? resume : null, depth + 1 );
             }
             else
             {
                 fireStep( file );
             }
         }
+        frontier.remove( frontier.size() - 1 );
+    }
+
+    /**
+     * Delivers everything before the current position and records the position. An entry being walked is recorded
+     * by name: the deepest one is walked again on resume, the ones above it are walked down into.
+     */
+    private void checkpoint()
+    {
+        flushSteps();
+
+        File tmp = new File( checkpointFile.getPath() + ".tmp" );
+        try
+        {
+            DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmp ) ) );
+            try
+            {
+                out.writeInt( CHECKPOINT_MAGIC );
+                out.writeUTF( getCheckpointKey() );
+                out.writeInt( frontier.size() );
+                for ( Frame frame : frontier )
+                {
+                    out.writeUTF( frame.names[frame.index] );
+                }
+            }
+            finally
+            {
+                out.close();
+            }
+
+            if ( !tmp.renameTo( checkpointFile ) && !( checkpointFile.delete() && tmp.renameTo( checkpointFile ) ) )
+            {
+                throw new IOException( "Could not replace " + checkpointFile );
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new IllegalStateException( "Scan Failure.  Could not write checkpoint " + checkpointFile, e );
+        }
+
+        nextCheckpoint = System.currentTimeMillis() + checkpointInterval;
+    }
+
+    /**
+     * @return the positions recorded by the last checkpoint, or <code>null</code> if there is none for this walk.
+     */
+    private String[] readCheckpoint()
+    {
+        if ( !checkpointFile.exists() )
+        {
+            return null;
+        }
+
+        try
+        {
+            DataInputStream in =
+                new DataInputStream( new BufferedInputStream( new FileInputStream( checkpointFile ) ) );
+            try
+            {
+                if ( in.readInt() != CHECKPOINT_MAGIC || !getCheckpointKey().equals( in.readUTF() ) )
+                {
+                    return null;
+                }
+                String[] positions = new String[in.readInt()];
+                for ( int i = 0; i < positions.length; i++ )
+                {
+                    positions[i] = in.readUTF();
+                }
+                return positions.length > 0 ? positions : null;
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch ( IOException e )
+        {
+            // unreadable checkpoint: walk everything, as if there was none
+            return null;
+        }
+    }
+
+    private String getCheckpointKey()
+    {
+        return baseDir.getAbsolutePath() + File.pathSeparator + isCaseSensitive + File.pathSeparator + excludes;
     }
 
     /**
@@ -254,6 +754,7 @@ public class DirectoryWalker
      */
     public void setExcludes( List<String> entries )
     {
+        this.excludeMatcher = null;
         this.excludes.clear();
         if ( entries != null )
         {
@@ -263,4 +764,19 @@ public class DirectoryWalker
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * A directory being walked: its sorted entries and the index of the one being walked.
+     */
+    private static final class Frame
+    {
+        private final String[] names;
+
+        private int index;
+
+        private Frame( String[] names )
+        {
+            this.names = names;
+        }
+    }
+}
@@ -0,0 +1,399 @@
+package org.apache.archiva;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Long running alternative to periodic walks: registers every included directory below the baseDir with a
+ * {@link WatchService} and reports changes as they happen, so the work is proportional to the changes instead of
+ * the size of the tree.
+ * <p/>
+ * {@link #scan()} registers the tree and then blocks, delivering events on the calling thread until {@link #stop()}
+ * is called or the thread is interrupted. The excludes apply as for a walk; excluded directories are not watched.
+ * <ul>
+ * <li>A created or modified file is reported through {@link DirectoryWalkListener#directoryWalkStep(int, File)};
+ * created files also through {@link DirectoryChangeListener#fileAdded(File)}.</li>
+ * <li>A created directory is registered and its included files, which may have been written before the
+ * registration, are reported as created. A file can therefore be reported twice.</li>
+ * <li>A deleted entry is reported through {@link DirectoryChangeListener#fileRemoved(File)}; for a directory that is
+ * the directory itself, not its former contents.</li>
+ * <li>When events for a directory were lost, that directory is listed again: its included files are reported as
+ * steps, new subdirectories are registered and entries that are gone are reported as removed. To tell which, the
+ * names of the included entries of every watched directory are kept.</li>
+ * </ul>
+ * With {@link #setInitialScan(boolean)} the files present at startup are reported as steps too, like a walk would.
+ * Steps are delivered after the events of each watched directory have been handled, so batches are small.
+ */
+public class DirectoryWatcher
+    extends DirectoryWalker
+{
+    /**
+     * How the files found while listing a directory are reported.
+     */
+    private enum Report
+    {
+        /** not at all, for the initial registration */
+        NONE,
+        /** as steps, for the initial scan */
+        INITIAL,
+        /** as steps, for a rescan after lost events; unwatched subdirectories are new */
+        STEP,
+        /** as steps and additions, for a new directory */
+        CREATED
+    }
+
+    private final List<DirectoryChangeListener> changeListeners = new ArrayList<DirectoryChangeListener>();
+
+    private final Map<WatchKey, WatchedDir> watched = new HashMap<WatchKey, WatchedDir>();
+
+    private final Map<Path, WatchKey> watchedPaths = new HashMap<Path, WatchKey>();
+
+    private volatile WatchService watchService;
+
+    private volatile boolean stopped;
+
+    private boolean initialScan;
+
+    public void addDirectoryChangeListener( DirectoryChangeListener listener )
+    {
+        changeListeners.add( listener );
+    }
+
+    public void removeDirectoryChangeListener( DirectoryChangeListener listener )
+    {
+        changeListeners.remove( listener );
+    }
+
+    /**
+     * @param initialScan whether to report the files that already exist when watching starts.
+     */
+    public void setInitialScan( boolean initialScan )
+    {
+        this.initialScan = initialScan;
+    }
+
+    /**
+     * @return the number of directories currently watched.
+     */
+    public int getWatchedDirectoryCount()
+    {
+        synchronized ( watched )
+        {
+            return watched.size();
+        }
+    }
+
+    /**
+     * Makes a running {@link #scan()} return. Can be called from any thread.
+     */
+    public void stop()
+    {
+        stopped = true;
+        WatchService service = watchService;
+        if ( service != null )
+        {
+            try
+            {
+                service.close();
+            }
+            catch ( IOException e )
+            {
+                // closing anyway
+            }
+        }
+    }
+
+    @Override
+    protected void walk()
+    {
+        stopped = false;
+        try
+        {
+            watchService = FileSystems.getDefault().newWatchService();
+        }
+        catch ( IOException e )
+        {
+            throw new IllegalStateException( "Scan Failure.  Cannot create watch service: " + e.getMessage(), e );
+        }
+
+        try
+        {
+            register( getBaseDir().getAbsoluteFile().toPath(), getExcludeMatcher().root(),
+                      initialScan ? Report.INITIAL : Report.NONE );
+            flushSteps();
+            processEvents();
+        }
+        finally
+        {
+            stop();
+            synchronized ( watched )
+            {
+                watched.clear();
+            }
+            watchedPaths.clear();
+        }
+    }
+
+    private void processEvents()
+    {
+        while ( !stopped )
+        {
+            WatchKey key;
+            try
+            {
+                key = watchService.take();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            catch ( ClosedWatchServiceException e )
+            {
+                return;
+            }
+
+            WatchedDir dir;
+            synchronized ( watched )
+            {
+                dir = watched.get( key );
+            }
+
+            if ( dir != null )
+            {
+                for ( WatchEvent<?> event : key.pollEvents() )
+                {
+                    handleEvent( dir, event );
+                }
+                // do not hold changes back until the batch fills up
+                flushSteps();
+            }
+
+            if ( !key.reset() )
+            {
+                // the directory is gone or no longer accessible
+                synchronized ( watched )
+                {
+                    watched.remove( key );
+                }
+                // unless the directory was created again and registered under a new key in the meantime
+                if ( dir != null && watchedPaths.get( dir.path ) == key )
+                {
+                    watchedPaths.remove( dir.path );
+                }
+            }
+        }
+    }
+
+    private void handleEvent( WatchedDir dir, WatchEvent<?> event )
+    {
+        if ( event.kind() == OVERFLOW )
+        {
+            listDir( dir, Report.STEP );
+            return;
+        }
+
+        String name = event.context().toString();
+        if ( dir.state.matchesChild( name ) )
+        {
+            return;
+        }
+
+        Path child = dir.path.resolve( name );
+        if ( event.kind() == ENTRY_CREATE )
+        {
+            dir.names.add( name );
+            if ( Files.isDirectory( child ) )
+            {
+                register( child, dir.state.child( name ), Report.CREATED );
+            }
+            else
+            {
+                fireCreated( child.toFile() );
+            }
+        }
+        else if ( event.kind() == ENTRY_MODIFY )
+        {
+            // a directory is modified when its entries change, which is reported through its own key
+            if ( !Files.isDirectory( child ) )
+            {
+                dir.names.add( name );
+                fireStep( child.toFile() );
+            }
+        }
+        else if ( event.kind() == ENTRY_DELETE )
+        {
+            dir.names.remove( name );
+            fireRemoved( child.toFile() );
+        }
+    }
+
+    private void register( Path dir, ExcludeMatcher.State state, Report report )
+    {
+        WatchKey key;
+        try
+        {
+            key = dir.register( watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY );
+        }
+        catch ( ClosedWatchServiceException e )
+        {
+            return;
+        }
+        catch ( IOException e )
+        {
+            // unreadable or already removed again, as File.list() returning null for a walk
+            return;
+        }
+
+        WatchedDir watchedDir = new WatchedDir( dir, state );
+        synchronized ( watched )
+        {
+            watched.put( key, watchedDir );
+        }
+        watchedPaths.put( dir, key );
+
+        listDir( watchedDir, report );
+    }
+
+    /**
+     * Lists a watched directory, registering the subdirectories that are not watched yet. On a rescan, the entries
+     * that were known but are no longer listed are reported as removed.
+     */
+    private void listDir( WatchedDir dir, Report report )
+    {
+        DirectoryStream<Path> entries;
+        try
+        {
+            entries = Files.newDirectoryStream( dir.path );
+        }
+        catch ( IOException e )
+        {
+            return;
+        }
+
+        ExcludeMatcher.State state = dir.state;
+        Set<String> names = new HashSet<String>();
+        try
+        {
+            for ( Path entry : entries )
+            {
+                String name = entry.getFileName().toString();
+                if ( state.matchesChild( name ) )
+                {
+                    continue;
+                }
+                names.add( name );
+
+                if ( Files.isDirectory( entry ) )
+                {
+                    if ( !watchedPaths.containsKey( entry ) )
+                    {
+                        register( entry, state.child( name ), report == Report.STEP ? Report.CREATED : report );
+                    }
+                }
+                else if ( report == Report.CREATED )
+                {
+                    fireCreated( entry.toFile() );
+                }
+                else if ( report == Report.STEP || report == Report.INITIAL )
+                {
+                    fireStep( entry.toFile() );
+                }
+            }
+        }
+        finally
+        {
+            try
+            {
+                entries.close();
+            }
+            catch ( IOException e )
+            {
+                // nothing left to read
+            }
+        }
+
+        if ( report == Report.STEP )
+        {
+            for ( String name : dir.names )
+            {
+                if ( !names.contains( name ) )
+                {
+                    fireRemoved( dir.path.resolve( name ).toFile() );
+                }
+            }
+        }
+        dir.names = names;
+    }
+
+    private void fireCreated( File file )
+    {
+        fireStep( file );
+        for ( DirectoryChangeListener listener : changeListeners )
+        {
+            listener.fileAdded( file );
+        }
+    }
+
+    private void fireRemoved( File file )
+    {
+        for ( DirectoryChangeListener listener : changeListeners )
+        {
+            listener.fileRemoved( file );
+        }
+    }
+
+    private static final class WatchedDir
+    {
+        private final Path path;
+
+        private final ExcludeMatcher.State state;
+
+        /** the included entries, kept up to date by the events so that a rescan can tell what was removed */
+        private Set<String> names = new HashSet<String>();
+
+        private WatchedDir( Path path, ExcludeMatcher.State state )
+        {
+            this.path = path;
+            this.state = state;
+        }
+    }
+}
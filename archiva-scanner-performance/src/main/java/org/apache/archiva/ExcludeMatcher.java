@@ -0,0 +1,455 @@
+package org.apache.archiva;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A set of exclude patterns compiled once into a single matcher.
+ * <p/>
+ * Patterns of the common forms <code>**&#47;name</code>, <code>**&#47;name&#47;**</code>, <code>**&#47;*suffix</code>
+ * and <code>**&#47;prefix*</code> only ever look at one path segment, so they are answered from hash sets and plain
+ * string comparisons. All other patterns are run as a nondeterministic automaton over path segments: a {@link State}
+ * holds the pattern positions that are still reachable after consuming the segments of a directory, so a path is
+ * tokenized once instead of once per pattern, and a child only costs one transition from its parent's state.
+ * <p/>
+ * A state also knows when everything below it is excluded ({@link State#isSubtreeExcluded()}), and when no pattern can
+ * match anything below it any more ({@link State#isExhausted()}), which lets a walker prune directories without
+ * listing them or skip matching for a whole subtree.
+ * <p/>
+ * Matching gives the same results as {@link TokenizedPattern#matchPath(String, boolean)} for each pattern in turn.
+ */
+public final class ExcludeMatcher
+{
+    private final boolean isCaseSensitive;
+
+    private final Set<String> names = new HashSet<String>();
+
+    private final Set<String> subtreeNames = new HashSet<String>();
+
+    private final String[] suffixes;
+
+    private final String[] prefixes;
+
+    private final String[][] patterns;
+
+    private final boolean[][] literals;
+
+    /**
+     * Index of the first token of each pattern from which only <code>**</code> tokens follow.
+     */
+    private final int[] tailStars;
+
+    private final int stride;
+
+    private final boolean hasFastPaths;
+
+    private final State root;
+
+    private final State exhausted;
+
+    public ExcludeMatcher( List<TokenizedPattern> excludes, boolean isCaseSensitive )
+    {
+        this.isCaseSensitive = isCaseSensitive;
+
+        List<String> suffixList = new ArrayList<String>();
+        List<String> prefixList = new ArrayList<String>();
+        List<String[]> general = new ArrayList<String[]>();
+
+        for ( TokenizedPattern exclude : excludes )
+        {
+            String[] tokens = SelectorUtils.tokenizePathAsArray( exclude.toString() );
+
+            if ( !isCaseSensitive || tokens.length < 2 || tokens.length > 3
+                || !SelectorUtils.DEEP_TREE_MATCH.equals( tokens[0] ) )
+            {
+                general.add( tokens );
+                continue;
+            }
+
+            String segment = tokens[1];
+            if ( tokens.length == 3 )
+            {
+                if ( SelectorUtils.DEEP_TREE_MATCH.equals( tokens[2] ) && isLiteral( segment ) )
+                {
+                    subtreeNames.add( segment );
+                }
+                else
+                {
+                    general.add( tokens );
+                }
+            }
+            else if ( isLiteral( segment ) )
+            {
+                names.add( segment );
+            }
+            else if ( segment.charAt( 0 ) == '*' && isLiteral( segment.substring( 1 ) ) )
+            {
+                suffixList.add( segment.substring( 1 ) );
+            }
+            else if ( segment.charAt( segment.length() - 1 ) == '*'
+                && isLiteral( segment.substring( 0, segment.length() - 1 ) ) )
+            {
+                prefixList.add( segment.substring( 0, segment.length() - 1 ) );
+            }
+            else
+            {
+                general.add( tokens );
+            }
+        }
+
+        this.suffixes = suffixList.toArray( new String[suffixList.size()] );
+        this.prefixes = prefixList.toArray( new String[prefixList.size()] );
+        this.patterns = general.toArray( new String[general.size()][] );
+        this.hasFastPaths = !names.isEmpty() || !subtreeNames.isEmpty() || suffixes.length > 0 || prefixes.length > 0;
+
+        this.literals = new boolean[patterns.length][];
+        this.tailStars = new int[patterns.length];
+        int maxLength = 0;
+        for ( int p = 0; p < patterns.length; p++ )
+        {
+            String[] tokens = patterns[p];
+            maxLength = Math.max( maxLength, tokens.length );
+
+            literals[p] = new boolean[tokens.length];
+            for ( int i = 0; i < tokens.length; i++ )
+            {
+                literals[p][i] = isLiteral( tokens[i] );
+            }
+
+            int tail = tokens.length;
+            while ( tail > 0 && isDeepTreeMatch( p, tail - 1 ) )
+            {
+                tail--;
+            }
+            tailStars[p] = tail;
+        }
+        this.stride = maxLength + 1;
+
+        this.exhausted = new State( new int[0], false, false );
+
+        PositionSet initial = new PositionSet();
+        for ( int p = 0; p < patterns.length; p++ )
+        {
+            addClosure( initial, p, 0 );
+        }
+        this.root = newState( initial, false, false );
+    }
+
+    private static boolean isLiteral( String token )
+    {
+        return token.indexOf( '*' ) < 0 && token.indexOf( '?' ) < 0;
+    }
+
+    private boolean isDeepTreeMatch( int p, int i )
+    {
+        return SelectorUtils.DEEP_TREE_MATCH.equals( patterns[p][i] );
+    }
+
+    /**
+     * @return the state of the base directory, before any segment has been consumed.
+     */
+    public State root()
+    {
+        return root;
+    }
+
+    /**
+     * Tests whether a path relative to the base directory is excluded.
+     *
+     * @param path the relative path, using the platform separator.
+     * @return <code>true</code> if any pattern matches the path.
+     */
+    public boolean matchPath( String path )
+    {
+        String[] segments = SelectorUtils.tokenizePathAsArray( path );
+        if ( segments.length == 0 )
+        {
+            return root.matches();
+        }
+
+        State state = root;
+        for ( int i = 0; i < segments.length - 1; i++ )
+        {
+            state = state.child( segments[i] );
+            if ( state.isSubtreeExcluded() )
+            {
+                return true;
+            }
+            if ( state.isExhausted() )
+            {
+                return false;
+            }
+        }
+        return state.matchesChild( segments[segments.length - 1] );
+    }
+
+    private boolean matchesSegment( String name )
+    {
+        if ( names.contains( name ) || subtreeNames.contains( name ) )
+        {
+            return true;
+        }
+        for ( String suffix : suffixes )
+        {
+            if ( name.endsWith( suffix ) )
+            {
+                return true;
+            }
+        }
+        for ( String prefix : prefixes )
+        {
+            if ( name.startsWith( prefix ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean matchesToken( int p, int i, String segment )
+    {
+        if ( literals[p][i] )
+        {
+            return isCaseSensitive ? patterns[p][i].equals( segment ) : patterns[p][i].equalsIgnoreCase( segment );
+        }
+        return SelectorUtils.match( patterns[p][i], segment, isCaseSensitive );
+    }
+
+    private void addClosure( PositionSet set, int p, int i )
+    {
+        set.add( p * stride + i );
+        while ( i < patterns[p].length && isDeepTreeMatch( p, i ) )
+        {
+            set.add( p * stride + ++i );
+        }
+    }
+
+    private State newState( PositionSet positions, boolean matches, boolean subtreeExcluded )
+    {
+        boolean nfaMatches = false;
+        boolean nfaSubtree = false;
+        for ( int k = 0; k < positions.size; k++ )
+        {
+            int p = positions.codes[k] / stride;
+            int i = positions.codes[k] % stride;
+            nfaMatches |= i == patterns[p].length;
+            nfaSubtree |= i >= tailStars[p] && i < patterns[p].length;
+        }
+
+        if ( !hasFastPaths && positions.size == 0 && !matches && !subtreeExcluded )
+        {
+            return exhausted;
+        }
+
+        return new State( positions.toArray(), matches || nfaMatches || nfaSubtree, subtreeExcluded || nfaSubtree );
+    }
+
+    /**
+     * The matcher state of a directory: the pattern positions still reachable after its path segments.
+     * States are immutable and can be shared between threads.
+     */
+    public final class State
+    {
+        private final int[] positions;
+
+        private final boolean matches;
+
+        private final boolean subtreeExcluded;
+
+        private State( int[] positions, boolean matches, boolean subtreeExcluded )
+        {
+            this.positions = positions;
+            this.matches = matches;
+            this.subtreeExcluded = subtreeExcluded;
+        }
+
+        /**
+         * @return <code>true</code> if the path of this state is itself excluded.
+         */
+        public boolean matches()
+        {
+            return matches;
+        }
+
+        /**
+         * @return <code>true</code> if every path below this state is excluded.
+         */
+        public boolean isSubtreeExcluded()
+        {
+            return subtreeExcluded;
+        }
+
+        /**
+         * @return <code>true</code> if no path below this state can be excluded, so matching can be skipped.
+         */
+        public boolean isExhausted()
+        {
+            return this == exhausted;
+        }
+
+        /**
+         * Tests whether the child with the given name is excluded, without computing its state.
+         *
+         * @param name the last path segment of the child.
+         * @return <code>true</code> if the child is excluded.
+         */
+        public boolean matchesChild( String name )
+        {
+            if ( subtreeExcluded )
+            {
+                return true;
+            }
+            if ( this == exhausted )
+            {
+                return false;
+            }
+            if ( hasFastPaths && matchesSegment( name ) )
+            {
+                return true;
+            }
+            for ( int code : positions )
+            {
+                int p = code / stride;
+                int i = code % stride;
+                if ( i == patterns[p].length )
+                {
+                    continue;
+                }
+                if ( isDeepTreeMatch( p, i ) )
+                {
+                    if ( i >= tailStars[p] )
+                    {
+                        return true;
+                    }
+                }
+                else if ( i + 1 >= tailStars[p] && matchesToken( p, i, name ) )
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Consumes one path segment.
+         *
+         * @param name the last path segment of the child.
+         * @return the state of the child.
+         */
+        public State child( String name )
+        {
+            if ( this == exhausted )
+            {
+                return exhausted;
+            }
+            if ( subtreeExcluded )
+            {
+                return this;
+            }
+
+            PositionSet next = new PositionSet();
+            for ( int code : positions )
+            {
+                int p = code / stride;
+                int i = code % stride;
+                if ( i == patterns[p].length )
+                {
+                    continue;
+                }
+                if ( isDeepTreeMatch( p, i ) )
+                {
+                    addClosure( next, p, i );
+                }
+                else if ( matchesToken( p, i, name ) )
+                {
+                    addClosure( next, p, i + 1 );
+                }
+            }
+
+            boolean fastMatch = hasFastPaths && matchesSegment( name );
+            boolean subtreeName = subtreeNames.contains( name );
+            if ( !fastMatch && !subtreeName && !matches && next.equalTo( positions ) )
+            {
+                // typical below the anchored patterns: only floating **/ patterns are left, share the state
+                return this;
+            }
+            return newState( next, fastMatch, subtreeName );
+        }
+
+        @Override
+        public String toString()
+        {
+            return "State" + Arrays.toString( positions ) + ( matches ? " matches" : "" )
+                + ( subtreeExcluded ? " subtree" : "" );
+        }
+    }
+
+    /**
+     * Small insertion-ordered set of encoded pattern positions.
+     */
+    private static final class PositionSet
+    {
+        private int[] codes = new int[8];
+
+        private int size;
+
+        void add( int code )
+        {
+            for ( int k = 0; k < size; k++ )
+            {
+                if ( codes[k] == code )
+                {
+                    return;
+                }
+            }
+            if ( size == codes.length )
+            {
+                codes = Arrays.copyOf( codes, size * 2 );
+            }
+            codes[size++] = code;
+        }
+
+        boolean equalTo( int[] other )
+        {
+            if ( size != other.length )
+            {
+                return false;
+            }
+            for ( int k = 0; k < size; k++ )
+            {
+                if ( codes[k] != other[k] )
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        int[] toArray()
+        {
+            return Arrays.copyOf( codes, size );
+        }
+    }
+}
@@ -0,0 +1,387 @@
+package org.apache.archiva;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * DirectoryWalker that remembers the previous walk in a manifest file and only lists directories that changed.
+ * <p/>
+ * The manifest stores, for each directory, its modification time and the names of its included files and
+ * subdirectories. A directory's modification time changes whenever an entry is added, removed or renamed in it, so
+ * when it is unchanged the names are taken from the manifest instead of listing the directory and calling
+ * <code>isDirectory()</code> on every entry. Subdirectories are still visited, since a change further down does not
+ * touch the parent's time: an unchanged tree costs one stat per directory instead of one per file.
+ * <p/>
+ * {@link DirectoryWalkListener}s still see every included file. {@link DirectoryChangeListener}s are told which files
+ * were added or removed since the previous walk; without a previous manifest every file is reported as added. Changes
+ * to the content of a file that leave its directory alone are not detected.
+ * <p/>
+ * Directories modified shortly before the walk started are recorded as changed, so that a change made during the
+ * same clock tick as the walk is still seen next time. The manifest is only replaced once a walk completes, and a
+ * manifest written with other excludes is used for the change report but not to skip listing.
+ */
+public class IncrementalDirectoryWalker
+    extends DirectoryWalker
+{
+    private static final int MAGIC = 0x41534d31; // "ASM1"
+
+    /**
+     * Modification times within this distance of the walk start are not trusted, covering coarse timestamps.
+     */
+    private static final long RACY_INTERVAL = 2000;
+
+    private static final long UNKNOWN = -1;
+
+    private final List<DirectoryChangeListener> changeListeners = new ArrayList<DirectoryChangeListener>();
+
+    private File manifestFile;
+
+    private long walkStart;
+
+    private boolean trustManifest;
+
+    public void addDirectoryChangeListener( DirectoryChangeListener listener )
+    {
+        changeListeners.add( listener );
+    }
+
+    public void removeDirectoryChangeListener( DirectoryChangeListener listener )
+    {
+        changeListeners.remove( listener );
+    }
+
+    /**
+     * @return the file the walk state is kept in between walks.
+     */
+    public File getManifestFile()
+    {
+        return manifestFile;
+    }
+
+    /**
+     * @param manifestFile the file the walk state is kept in between walks.
+     */
+    public void setManifestFile( File manifestFile )
+    {
+        this.manifestFile = manifestFile;
+    }
+
+    @Override
+    protected void walk()
+    {
+        if ( manifestFile == null )
+        {
+            throw new IllegalStateException( "Scan Failure.  Manifest file not specified." );
+        }
+
+        walkStart = System.currentTimeMillis();
+
+        String excludesKey = getExcludes().toString();
+        DirEntry previous = null;
+        trustManifest = false;
+        try
+        {
+            Manifest manifest = readManifest( manifestFile );
+            if ( manifest != null )
+            {
+                previous = manifest.root;
+                trustManifest = excludesKey.equals( manifest.excludesKey );
+            }
+        }
+        catch ( IOException e )
+        {
+            // unreadable manifest: walk everything, as if there was none
+        }
+
+        DirEntry root = scanDir( getBaseDir(), getExcludeMatcher().root(), previous );
+
+        try
+        {
+            writeManifest( manifestFile, excludesKey, root );
+        }
+        catch ( IOException e )
+        {
+            throw new IllegalStateException( "Scan Failure.  Could not write manifest " + manifestFile, e );
+        }
+    }
+
+    private DirEntry scanDir( File dir, ExcludeMatcher.State state, DirEntry previous )
+    {
+        long lastModified = dir.lastModified();
+
+        DirEntry entry;
+        if ( trustManifest && previous != null && previous.lastModified != UNKNOWN
+            && previous.lastModified == lastModified )
+        {
+            entry = new DirEntry( previous.files, previous.dirNames );
+            directoryVisited( dir, entry.files.length + entry.dirNames.length );
+            for ( String name : entry.files )
+            {
+                fireStep( new File( dir, name ) );
+            }
+        }
+        else
+        {
+            entry = listDir( dir, state );
+            diffFiles( dir, previous, entry );
+            for ( String name : entry.files )
+            {
+                fireStep( new File( dir, name ) );
+            }
+            if ( previous != null )
+            {
+                for ( int i = 0; i < previous.dirNames.length; i++ )
+                {
+                    if ( Arrays.binarySearch( entry.dirNames, previous.dirNames[i] ) < 0 )
+                    {
+                        fireRemovedTree( new File( dir, previous.dirNames[i] ), previous.dirs[i] );
+                    }
+                }
+            }
+        }
+        entry.lastModified = lastModified >= walkStart - RACY_INTERVAL ? UNKNOWN : lastModified;
+
+        for ( int i = 0; i < entry.dirNames.length; i++ )
+        {
+            String name = entry.dirNames[i];
+            entry.dirs[i] = scanDir( new File( dir, name ), state.child( name ),
+                                     previous != null ? previous.getDir( name ) : null );
+        }
+        return entry;
+    }
+
+    private DirEntry listDir( File dir, ExcludeMatcher.State state )
+    {
+        String names[] = listDirectory( dir );
+        if ( names == null )
+        {
+            return new DirEntry( new String[0], new String[0] );
+        }
+        Arrays.sort( names );
+
+        List<String> files = new ArrayList<String>( names.length );
+        List<String> dirs = new ArrayList<String>();
+        for ( String name : names )
+        {
+            if ( isChildExcluded( state, dir, name ) )
+            {
+                continue;
+            }
+
+            if ( isDirectory( new File( dir, name ) ) )
+            {
+                dirs.add( name );
+            }
+            else
+            {
+                files.add( name );
+            }
+        }
+        return new DirEntry( files.toArray( new String[files.size()] ), dirs.toArray( new String[dirs.size()] ) );
+    }
+
+    private void diffFiles( File dir, DirEntry previous, DirEntry current )
+    {
+        String[] before = previous != null ? previous.files : new String[0];
+        String[] after = current.files;
+
+        int i = 0;
+        int j = 0;
+        while ( i < before.length || j < after.length )
+        {
+            int cmp = i == before.length ? 1 : j == after.length ? -1 : before[i].compareTo( after[j] );
+            if ( cmp < 0 )
+            {
+                fireRemoved( new File( dir, before[i++] ) );
+            }
+            else if ( cmp > 0 )
+            {
+                fireAdded( new File( dir, after[j++] ) );
+            }
+            else
+            {
+                i++;
+                j++;
+            }
+        }
+    }
+
+    private void fireRemovedTree( File dir, DirEntry entry )
+    {
+        for ( String name : entry.files )
+        {
+            fireRemoved( new File( dir, name ) );
+        }
+        for ( int i = 0; i < entry.dirNames.length; i++ )
+        {
+            fireRemovedTree( new File( dir, entry.dirNames[i] ), entry.dirs[i] );
+        }
+    }
+
+    private void fireAdded( File file )
+    {
+        for ( DirectoryChangeListener listener : changeListeners )
+        {
+            listener.fileAdded( file );
+        }
+    }
+
+    private void fireRemoved( File file )
+    {
+        for ( DirectoryChangeListener listener : changeListeners )
+        {
+            listener.fileRemoved( file );
+        }
+    }
+
+    private static Manifest readManifest( File file )
+        throws IOException
+    {
+        if ( !file.exists() )
+        {
+            return null;
+        }
+
+        DataInputStream in =
+            new DataInputStream( new BufferedInputStream( new GZIPInputStream( new FileInputStream( file ) ) ) );
+        try
+        {
+            if ( in.readInt() != MAGIC )
+            {
+                throw new IOException( "Not a walk manifest: " + file );
+            }
+            Manifest manifest = new Manifest();
+            manifest.excludesKey = in.readUTF();
+            manifest.root = readDir( in );
+            return manifest;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    private static DirEntry readDir( DataInputStream in )
+        throws IOException
+    {
+        long lastModified = in.readLong();
+        String[] files = new String[in.readInt()];
+        for ( int i = 0; i < files.length; i++ )
+        {
+            files[i] = in.readUTF();
+        }
+        String[] dirNames = new String[in.readInt()];
+        DirEntry entry = new DirEntry( files, dirNames );
+        entry.lastModified = lastModified;
+        for ( int i = 0; i < dirNames.length; i++ )
+        {
+            dirNames[i] = in.readUTF();
+            entry.dirs[i] = readDir( in );
+        }
+        return entry;
+    }
+
+    private static void writeManifest( File file, String excludesKey, DirEntry root )
+        throws IOException
+    {
+        File tmp = new File( file.getPath() + ".tmp" );
+        DataOutputStream out =
+            new DataOutputStream( new BufferedOutputStream( new GZIPOutputStream( new FileOutputStream( tmp ) ) ) );
+        try
+        {
+            out.writeInt( MAGIC );
+            out.writeUTF( excludesKey );
+            writeDir( out, root );
+        }
+        finally
+        {
+            out.close();
+        }
+
+        if ( !tmp.renameTo( file ) && !( file.delete() && tmp.renameTo( file ) ) )
+        {
+            throw new IOException( "Could not replace " + file );
+        }
+    }
+
+    private static void writeDir( DataOutputStream out, DirEntry entry )
+        throws IOException
+    {
+        out.writeLong( entry.lastModified );
+        out.writeInt( entry.files.length );
+        for ( String name : entry.files )
+        {
+            out.writeUTF( name );
+        }
+        out.writeInt( entry.dirNames.length );
+        for ( int i = 0; i < entry.dirNames.length; i++ )
+        {
+            out.writeUTF( entry.dirNames[i] );
+            writeDir( out, entry.dirs[i] );
+        }
+    }
+
+    private static final class Manifest
+    {
+        private String excludesKey;
+
+        private DirEntry root;
+    }
+
+    /**
+     * What the manifest records for one directory. Names are sorted so that lookups and diffs are merges.
+     */
+    private static final class DirEntry
+    {
+        private long lastModified = UNKNOWN;
+
+        private final String[] files;
+
+        private final String[] dirNames;
+
+        private final DirEntry[] dirs;
+
+        private DirEntry( String[] files, String[] dirNames )
+        {
+            this.files = files;
+            this.dirNames = dirNames;
+            this.dirs = new DirEntry[dirNames.length];
+        }
+
+        private DirEntry getDir( String name )
+        {
+            int index = Arrays.binarySearch( dirNames, name );
+            return index >= 0 ? dirs[index] : null;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package org.apache.archiva;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * DirectoryWalker that traverses the tree with {@link Files#walkFileTree}. The {@link BasicFileAttributes} read for
+ * each entry are reused to decide between file and directory, rather than calling {@link java.io.File#isDirectory()}
+ * again after listing.
+ */
+public class NioDirectoryWalker
+    extends DirectoryWalker
+{
+    @Override
+    protected void walk()
+    {
+        try
+        {
+            Files.walkFileTree( getBaseDir().getAbsoluteFile().toPath(), EnumSet.of( FileVisitOption.FOLLOW_LINKS ),
+                                Integer.MAX_VALUE, new ExcludingVisitor() );
+        }
+        catch ( IOException e )
+        {
+            throw new IllegalStateException( "Scan Failure.  " + e.getMessage(), e );
+        }
+    }
+
+    /**
+     * Called for each included file with the attributes that were read while walking.
+     *
+     * @param file the included file.
+     * @param attrs the attributes of the file.
+     */
+    protected void handleFile( Path file, BasicFileAttributes attrs )
+    {
+        fireStep( null, file.toFile(), attrs.size(), attrs.lastModifiedTime().toMillis() );
+    }
+
+    /**
+     * Keeps the exclude matcher state of each open directory on a stack, so an entry is matched by its name alone.
+     * The directory and the number of entries seen in it are kept alongside for the statistics.
+     */
+    private final class ExcludingVisitor
+        extends SimpleFileVisitor<Path>
+    {
+        private final List<ExcludeMatcher.State> states = new ArrayList<ExcludeMatcher.State>();
+
+        private final List<File> dirs = new ArrayList<File>();
+
+        private int[] entries = new int[16];
+
+        @Override
+        public FileVisitResult preVisitDirectory( Path dir, BasicFileAttributes attrs )
+        {
+            if ( states.isEmpty() )
+            {
+                push( getExcludeMatcher().root(), dir );
+                return FileVisitResult.CONTINUE;
+            }
+
+            int top = states.size() - 1;
+            entries[top]++;
+            ExcludeMatcher.State state = states.get( top );
+            String name = dir.getFileName().toString();
+            if ( isChildExcluded( state, dirs.get( top ), name ) )
+            {
+                return FileVisitResult.SKIP_SUBTREE;
+            }
+            push( state.child( name ), dir );
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult postVisitDirectory( Path dir, IOException exc )
+        {
+            if ( exc != null )
+            {
+                entryUnreadable();
+            }
+            int top = states.size() - 1;
+            directoryVisited( dirs.remove( top ), entries[top] );
+            states.remove( top );
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFile( Path file, BasicFileAttributes attrs )
+        {
+            int top = states.size() - 1;
+            entries[top]++;
+            if ( !isChildExcluded( states.get( top ), dirs.get( top ), file.getFileName().toString() ) )
+            {
+                handleFile( file, attrs );
+            }
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed( Path file, IOException exc )
+        {
+            // unreadable entries are skipped, as File.list() returning null is
+            entryUnreadable();
+            return FileVisitResult.CONTINUE;
+        }
+
+        private void push( ExcludeMatcher.State state, Path dir )
+        {
+            if ( states.size() == entries.length )
+            {
+                int[] grown = new int[entries.length * 2];
+                System.arraycopy( entries, 0, grown, 0, entries.length );
+                entries = grown;
+            }
+            entries[states.size()] = 0;
+            states.add( state );
+            dirs.add( dir.toFile() );
+        }
+    }
+}
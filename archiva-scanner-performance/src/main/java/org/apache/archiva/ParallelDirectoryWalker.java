@@ -0,0 +1,141 @@
+package org.apache.archiva;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * DirectoryWalker that splits the subdirectories of each directory across a {@link ForkJoinPool}.
+ * <p/>
+ * Listeners do not need to be thread safe: the included files of a directory are collected by the task that listed
+ * it and then added to the walk's batch while holding a lock, so listeners are never called concurrently. The files
+ * of one directory are delivered together and in listing order, but directories are delivered in completion order.
+ */
+public class ParallelDirectoryWalker
+    extends DirectoryWalker
+{
+    private final Object stepLock = new Object();
+
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * @return the number of threads used to walk the tree.
+     */
+    public int getParallelism()
+    {
+        return parallelism;
+    }
+
+    /**
+     * @param parallelism the number of threads used to walk the tree.
+     */
+    public void setParallelism( int parallelism )
+    {
+        if ( parallelism < 1 )
+        {
+            throw new IllegalArgumentException( "Parallelism must be at least 1: " + parallelism );
+        }
+        this.parallelism = parallelism;
+    }
+
+    @Override
+    protected void walk()
+    {
+        ForkJoinPool pool = new ForkJoinPool( parallelism );
+        try
+        {
+            pool.invoke( new ScanDirTask( getBaseDir(), getExcludeMatcher().root() ) );
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    private void fireSteps( List<File> files )
+    {
+        synchronized ( stepLock )
+        {
+            for ( File file : files )
+            {
+                fireStep( file );
+            }
+        }
+    }
+
+    private final class ScanDirTask
+        extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final File dir;
+
+        private final ExcludeMatcher.State state;
+
+        private ScanDirTask( File dir, ExcludeMatcher.State state )
+        {
+            this.dir = dir;
+            this.state = state;
+        }
+
+        @Override
+        protected void compute()
+        {
+            String names[] = listDirectory( dir );
+
+            if ( names == null )
+            {
+                return;
+            }
+
+            List<File> included = new ArrayList<File>( names.length );
+            List<ScanDirTask> subdirs = new ArrayList<ScanDirTask>();
+
+            for ( String name : names )
+            {
+                if ( isChildExcluded( state, dir, name ) )
+                {
+                    continue;
+                }
+
+                File file = new File( dir, name );
+                if ( isDirectory( file ) )
+                {
+                    subdirs.add( new ScanDirTask( file, state.child( name ) ) );
+                }
+                else
+                {
+                    included.add( file );
+                }
+            }
+
+            if ( !included.isEmpty() )
+            {
+                fireSteps( included );
+            }
+
+            invokeAll( subdirs );
+        }
+    }
+}
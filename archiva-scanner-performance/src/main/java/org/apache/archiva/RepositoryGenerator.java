@@ -0,0 +1,384 @@
+package org.apache.archiva;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Writes a synthetic repository in the Maven 2 layout, so that scans can be compared on a corpus that is the same on
+ * every machine instead of whatever is in <code>~/.m2/repository</code>.
+ * <p/>
+ * The tree depends only on the configuration and the seed: the same settings always produce the same directories and
+ * file names in the same order. Files are created empty, since the walkers never read content, which keeps a corpus
+ * of tens of millions of files practical to create.
+ * <p/>
+ * Each version directory holds a jar and a pom, optionally with <code>.sha1</code> and <code>.md5</code> checksums, and
+ * each artifact directory a <code>maven-metadata.xml</code>. A share of the version directories also gets the kind of
+ * noise the repository scanner ignores: a <code>.svn</code> directory, and a <code>README.txt</code>,
+ * <code>index.html</code> or <code>.htaccess</code>.
+ */
+public class RepositoryGenerator
+{
+    private static final String[] NOISE = {"README.txt", "index.html", ".htaccess"};
+
+    private long seed = 0;
+
+    private int groupDepth = 3;
+
+    private int groupFanout = 10;
+
+    private int artifactsPerGroup = 5;
+
+    private int versionsPerArtifact = 8;
+
+    private boolean checksums = true;
+
+    private double noiseRatio = 0.05;
+
+    private long totalFiles = 100000;
+
+    private Random random;
+
+    private String[] words;
+
+    private File basedir;
+
+    private long count;
+
+    public static void main( String[] args )
+        throws IOException
+    {
+        if ( args.length < 2 )
+        {
+            System.err.println( "Usage: RepositoryGenerator <basedir> <totalFiles> [seed]" );
+            System.exit( 1 );
+        }
+
+        RepositoryGenerator generator = new RepositoryGenerator();
+        generator.setTotalFiles( Long.parseLong( args[1] ) );
+        if ( args.length > 2 )
+        {
+            generator.setSeed( Long.parseLong( args[2] ) );
+        }
+
+        long start = System.currentTimeMillis();
+        long files = generator.generate( new File( args[0] ) );
+        System.out.println( "Generated " + files + " files in " + ( System.currentTimeMillis() - start ) + " ms" );
+    }
+
+    /**
+     * Generates a corpus with the default settings into <code>basedir</code>, unless the same corpus is already there.
+     * A <code>.generated</code> file next to <code>basedir</code> records the settings of the last completed run, and a
+     * <code>.generating</code> file those of a run in progress, so that a run that was interrupted is completed by
+     * the next one with the same settings.
+     *
+     * @param basedir the repository directory.
+     * @param totalFiles the number of files to create.
+     * @param seed the seed for names and counts.
+     * @return the repository directory.
+     * @throws IllegalStateException if <code>basedir</code> is a file, or a directory holding something other than a
+     *             corpus with these settings.
+     */
+    public static File ensureCorpus( File basedir, long totalFiles, long seed )
+        throws IOException
+    {
+        RepositoryGenerator generator = new RepositoryGenerator();
+        generator.setTotalFiles( totalFiles );
+        generator.setSeed( seed );
+
+        if ( basedir.exists() && !basedir.isDirectory() )
+        {
+            throw new IllegalStateException( "Not a directory: " + basedir );
+        }
+
+        File marker = new File( basedir.getParentFile(), basedir.getName() + ".generated" );
+        File partial = new File( basedir.getParentFile(), basedir.getName() + ".generating" );
+        Properties settings = generator.getSettings();
+        if ( basedir.isDirectory() && settings.equals( readSettings( marker ) ) )
+        {
+            return basedir;
+        }
+
+        String[] names = basedir.list();
+        if ( names != null && names.length > 0 && !settings.equals( readSettings( partial ) ) )
+        {
+            throw new IllegalStateException( "Refusing to generate into non-empty directory " + basedir );
+        }
+
+        basedir.mkdirs();
+        writeSettings( partial, settings );
+        marker.delete();
+        generator.generate( basedir );
+        writeSettings( marker, settings );
+        partial.delete();
+        return basedir;
+    }
+
+    /**
+     * @return the settings in the file, or <code>null</code> if there is none.
+     */
+    private static Properties readSettings( File file )
+        throws IOException
+    {
+        if ( !file.isFile() )
+        {
+            return null;
+        }
+        Properties settings = new Properties();
+        FileInputStream is = new FileInputStream( file );
+        try
+        {
+            settings.load( is );
+        }
+        finally
+        {
+            is.close();
+        }
+        return settings;
+    }
+
+    private static void writeSettings( File file, Properties settings )
+        throws IOException
+    {
+        FileOutputStream os = new FileOutputStream( file );
+        try
+        {
+            settings.store( os, "archiva-scanner-performance corpus" );
+        }
+        finally
+        {
+            os.close();
+        }
+    }
+
+    /**
+     * Writes the repository.
+     *
+     * @param basedir the directory to write to; created if needed.
+     * @return the number of files written.
+     */
+    public long generate( File basedir )
+        throws IOException
+    {
+        this.basedir = basedir;
+        this.random = new Random( seed );
+        this.words = createWords( Math.max( groupFanout, 16 ) * 4 );
+        this.count = 0;
+
+        basedir.mkdirs();
+
+        for ( long group = 0; count < totalFiles; group++ )
+        {
+            generateGroup( group );
+        }
+        return count;
+    }
+
+    private void generateGroup( long group )
+        throws IOException
+    {
+        // the group index spelled in base groupFanout, one digit per level, picks a word for each segment
+        StringBuilder path = new StringBuilder();
+        long remaining = group;
+        for ( int level = 0; level < groupDepth; level++ )
+        {
+            int digit = (int) ( remaining % groupFanout );
+            remaining /= groupFanout;
+            if ( level > 0 )
+            {
+                path.insert( 0, '/' );
+            }
+            path.insert( 0, words[( level * groupFanout + digit ) % words.length] );
+        }
+        if ( remaining > 0 )
+        {
+            // more groups than the fanout allows at this depth, keep them apart with an extra segment
+            path.append( '/' ).append( "g" ).append( remaining );
+        }
+
+        int artifacts = vary( artifactsPerGroup );
+        for ( int a = 0; a < artifacts && count < totalFiles; a++ )
+        {
+            String artifactId = words[random.nextInt( words.length )] + "-" + a;
+            generateArtifact( path + "/" + artifactId, artifactId );
+        }
+    }
+
+    private void generateArtifact( String path, String artifactId )
+        throws IOException
+    {
+        File artifactDir = new File( basedir, path );
+        artifactDir.mkdirs();
+        createWithChecksums( artifactDir, "maven-metadata.xml" );
+
+        int versions = vary( versionsPerArtifact );
+        for ( int v = 0; v < versions && count < totalFiles; v++ )
+        {
+            String version = ( 1 + v / 10 ) + "." + ( v % 10 );
+            File versionDir = new File( artifactDir, version );
+            versionDir.mkdirs();
+
+            String prefix = artifactId + "-" + version;
+            createWithChecksums( versionDir, prefix + ".pom" );
+            createWithChecksums( versionDir, prefix + ".jar" );
+
+            if ( random.nextDouble() < noiseRatio )
+            {
+                File svn = new File( versionDir, ".svn" );
+                svn.mkdirs();
+                create( svn, "entries" );
+                create( svn, "all-wcprops" );
+                create( versionDir, NOISE[random.nextInt( NOISE.length )] );
+            }
+        }
+    }
+
+    private void createWithChecksums( File dir, String name )
+        throws IOException
+    {
+        create( dir, name );
+        if ( checksums )
+        {
+            create( dir, name + ".sha1" );
+            create( dir, name + ".md5" );
+        }
+    }
+
+    private void create( File dir, String name )
+        throws IOException
+    {
+        if ( count < totalFiles )
+        {
+            // an existing file counts too, so generating over a previous run completes it
+            new File( dir, name ).createNewFile();
+            count++;
+        }
+    }
+
+    /**
+     * @return a count between 1 and <code>2 * average - 1</code>, on average <code>average</code>.
+     */
+    private int vary( int average )
+    {
+        return average <= 1 ? 1 : 1 + random.nextInt( 2 * average - 1 );
+    }
+
+    private String[] createWords( int n )
+    {
+        String[] result = new String[n];
+        for ( int i = 0; i < n; i++ )
+        {
+            int length = 3 + random.nextInt( 6 );
+            char[] chars = new char[length];
+            for ( int c = 0; c < length; c++ )
+            {
+                chars[c] = (char) ( 'a' + random.nextInt( 26 ) );
+            }
+            result[i] = new String( chars );
+        }
+        return result;
+    }
+
+    /**
+     * @return the settings that determine the generated tree.
+     */
+    public Properties getSettings()
+    {
+        Properties settings = new Properties();
+        settings.setProperty( "seed", String.valueOf( seed ) );
+        settings.setProperty( "groupDepth", String.valueOf( groupDepth ) );
+        settings.setProperty( "groupFanout", String.valueOf( groupFanout ) );
+        settings.setProperty( "artifactsPerGroup", String.valueOf( artifactsPerGroup ) );
+        settings.setProperty( "versionsPerArtifact", String.valueOf( versionsPerArtifact ) );
+        settings.setProperty( "checksums", String.valueOf( checksums ) );
+        settings.setProperty( "noiseRatio", String.valueOf( noiseRatio ) );
+        settings.setProperty( "totalFiles", String.valueOf( totalFiles ) );
+        return settings;
+    }
+
+    /**
+     * @param seed the seed for names and counts.
+     */
+    public void setSeed( long seed )
+    {
+        this.seed = seed;
+    }
+
+    /**
+     * @param groupDepth the number of path segments of a groupId.
+     */
+    public void setGroupDepth( int groupDepth )
+    {
+        this.groupDepth = groupDepth;
+    }
+
+    /**
+     * @param groupFanout the number of distinct segments at each level of the groupIds.
+     */
+    public void setGroupFanout( int groupFanout )
+    {
+        this.groupFanout = groupFanout;
+    }
+
+    /**
+     * @param artifactsPerGroup the average number of artifacts in a group.
+     */
+    public void setArtifactsPerGroup( int artifactsPerGroup )
+    {
+        this.artifactsPerGroup = artifactsPerGroup;
+    }
+
+    /**
+     * @param versionsPerArtifact the average number of versions of an artifact.
+     */
+    public void setVersionsPerArtifact( int versionsPerArtifact )
+    {
+        this.versionsPerArtifact = versionsPerArtifact;
+    }
+
+    /**
+     * @param checksums whether to write <code>.sha1</code> and <code>.md5</code> files next to each file.
+     */
+    public void setChecksums( boolean checksums )
+    {
+        this.checksums = checksums;
+    }
+
+    /**
+     * @param noiseRatio the share of version directories that get a <code>.svn</code> directory and a stray file.
+     */
+    public void setNoiseRatio( double noiseRatio )
+    {
+        this.noiseRatio = noiseRatio;
+    }
+
+    /**
+     * @param totalFiles the number of files to write, including noise; generation stops when it is reached.
+     */
+    public void setTotalFiles( long totalFiles )
+    {
+        this.totalFiles = totalFiles;
+    }
+}
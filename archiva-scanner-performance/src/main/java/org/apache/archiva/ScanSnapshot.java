@@ -0,0 +1,357 @@
+package org.apache.archiva;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read-only view of a scan snapshot written by {@link ScanSnapshotWriter}, giving the files of a repository without
+ * walking it again.
+ * <p/>
+ * The file starts with a magic number and the number of entries, followed by one entry per file sorted by the UTF-8
+ * bytes of its path. Each entry holds, as unsigned LEB128 numbers, the length of the prefix it shares with the path
+ * before it, the length of the rest of the path, then the rest of the path itself, the file length and its
+ * modification time. Repository paths share most of their groupId and artifactId directories with their neighbour, so
+ * an entry usually costs little more than its file name.
+ * <p/>
+ * The file is memory-mapped and decoded on the fly by {@link Cursor}s; the path is only turned into a String when
+ * asked for. A mapping is limited to 2 GB, so larger snapshots are mapped in consecutive windows and an entry may
+ * span two of them. The mappings are released when the snapshot is garbage collected.
+ */
+public final class ScanSnapshot
+{
+    static final int MAGIC = 0x41525331; // "ARS1"
+
+    private static final int HEADER_LENGTH = 8;
+
+    private static final int WINDOW_SIZE = 1 << 30;
+
+    private final File file;
+
+    private final ByteBuffer[] windows;
+
+    private final int windowSize;
+
+    private final int size;
+
+    private ScanSnapshot( File file, ByteBuffer[] windows, int windowSize, int size )
+    {
+        this.file = file;
+        this.windows = windows;
+        this.windowSize = windowSize;
+        this.size = size;
+    }
+
+    /**
+     * Maps a snapshot file.
+     *
+     * @param file the snapshot file.
+     * @return the snapshot.
+     * @throws IOException if the file can not be read or is not a snapshot.
+     */
+    public static ScanSnapshot open( File file )
+        throws IOException
+    {
+        return open( file, WINDOW_SIZE );
+    }
+
+    /**
+     * @param windowSize the number of bytes mapped at a time.
+     */
+    static ScanSnapshot open( File file, int windowSize )
+        throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile( file, "r" );
+        try
+        {
+            FileChannel channel = raf.getChannel();
+            long length = channel.size();
+            if ( length < HEADER_LENGTH || raf.readInt() != MAGIC )
+            {
+                throw new IOException( "Not a scan snapshot: " + file );
+            }
+            int size = raf.readInt();
+
+            ByteBuffer[] windows = new ByteBuffer[(int) ( ( length + windowSize - 1 ) / windowSize )];
+            for ( int i = 0; i < windows.length; i++ )
+            {
+                long offset = (long) i * windowSize;
+                windows[i] = channel.map( FileChannel.MapMode.READ_ONLY, offset, Math.min( windowSize,
+                                                                                           length - offset ) );
+            }
+            return new ScanSnapshot( file, windows, windowSize, size );
+        }
+        finally
+        {
+            // the mapping stays valid once the channel is closed
+            raf.close();
+        }
+    }
+
+    /**
+     * @return the snapshot file.
+     */
+    public File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * @return the number of files in the snapshot.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * @return a new cursor positioned before the first entry. Cursors are independent of each other, but a single
+     *         cursor must not be shared between threads.
+     */
+    public Cursor cursor()
+    {
+        return new Cursor( windows, windowSize, size );
+    }
+
+    /**
+     * Compares this snapshot, taken as the older one, with a newer one. Both are read in a single merge pass.
+     *
+     * @param newer the newer snapshot.
+     * @return the files added, removed and changed in <code>newer</code>. A file is changed if its length or
+     *         modification time differs.
+     */
+    public ScanSnapshotDiff diff( ScanSnapshot newer )
+    {
+        List<String> added = new ArrayList<String>();
+        List<String> removed = new ArrayList<String>();
+        List<String> changed = new ArrayList<String>();
+
+        Cursor before = cursor();
+        Cursor after = newer.cursor();
+        boolean hasBefore = before.next();
+        boolean hasAfter = after.next();
+        while ( hasBefore || hasAfter )
+        {
+            int cmp = !hasBefore ? 1 : !hasAfter ? -1 : before.compareTo( after );
+            if ( cmp < 0 )
+            {
+                removed.add( before.getPath() );
+                hasBefore = before.next();
+            }
+            else if ( cmp > 0 )
+            {
+                added.add( after.getPath() );
+                hasAfter = after.next();
+            }
+            else
+            {
+                if ( before.getLength() != after.getLength() || before.getLastModified() != after.getLastModified() )
+                {
+                    changed.add( after.getPath() );
+                }
+                hasBefore = before.next();
+                hasAfter = after.next();
+            }
+        }
+        return new ScanSnapshotDiff( added, removed, changed );
+    }
+
+    /**
+     * Compares two paths by their unsigned bytes, the order the snapshot is sorted in.
+     */
+    static int compare( byte[] b1, int length1, byte[] b2, int length2 )
+    {
+        int length = Math.min( length1, length2 );
+        for ( int i = 0; i < length; i++ )
+        {
+            int cmp = ( b1[i] & 0xFF ) - ( b2[i] & 0xFF );
+            if ( cmp != 0 )
+            {
+                return cmp;
+            }
+        }
+        return length1 - length2;
+    }
+
+    /**
+     * Iterates over the entries of a snapshot in path order.
+     */
+    public static final class Cursor
+    {
+        private final ByteBuffer[] windows;
+
+        private final int windowSize;
+
+        private int window;
+
+        private ByteBuffer buffer;
+
+        private int remaining;
+
+        private byte[] path = new byte[256];
+
+        private int pathLength;
+
+        private String pathString;
+
+        private long length;
+
+        private long lastModified;
+
+        private Cursor( ByteBuffer[] windows, int windowSize, int size )
+        {
+            this.windows = windows;
+            this.windowSize = windowSize;
+            this.remaining = size;
+            this.window = HEADER_LENGTH / windowSize;
+            this.buffer = window < windows.length ? windows[window].duplicate() : ByteBuffer.allocate( 0 );
+            this.buffer.position( Math.min( HEADER_LENGTH % windowSize, buffer.limit() ) );
+        }
+
+        /**
+         * Moves to the next entry.
+         *
+         * @return <code>false</code> if there are no more entries.
+         * @throws IllegalStateException if the snapshot is truncated or corrupt.
+         */
+        public boolean next()
+        {
+            if ( remaining == 0 )
+            {
+                return false;
+            }
+            int shared = (int) readVarLong();
+            int suffix = (int) readVarLong();
+            if ( shared > pathLength || suffix < 0 )
+            {
+                throw new IllegalStateException( "Corrupt scan snapshot at offset " + offset() );
+            }
+            pathLength = shared + suffix;
+            if ( pathLength > path.length )
+            {
+                byte[] grown = new byte[Math.max( pathLength, path.length * 2 )];
+                System.arraycopy( path, 0, grown, 0, shared );
+                path = grown;
+            }
+            read( path, shared, suffix );
+            pathString = null;
+            length = readVarLong();
+            lastModified = readVarLong();
+            remaining--;
+            return true;
+        }
+
+        /**
+         * @return the path of the current file relative to the basedir, with <code>/</code> as separator.
+         */
+        public String getPath()
+        {
+            if ( pathString == null )
+            {
+                try
+                {
+                    pathString = new String( path, 0, pathLength, "UTF-8" );
+                }
+                catch ( UnsupportedEncodingException e )
+                {
+                    throw new IllegalStateException( "UTF-8 not supported", e );
+                }
+            }
+            return pathString;
+        }
+
+        /**
+         * @return the length of the current file in bytes.
+         */
+        public long getLength()
+        {
+            return length;
+        }
+
+        /**
+         * @return the modification time of the current file, in milliseconds since the epoch.
+         */
+        public long getLastModified()
+        {
+            return lastModified;
+        }
+
+        private int compareTo( Cursor other )
+        {
+            return compare( path, pathLength, other.path, other.pathLength );
+        }
+
+        private long readVarLong()
+        {
+            long value = 0;
+            for ( int shift = 0; shift < 64; shift += 7 )
+            {
+                if ( !buffer.hasRemaining() )
+                {
+                    nextWindow();
+                }
+                byte b = buffer.get();
+                value |= (long) ( b & 0x7F ) << shift;
+                if ( b >= 0 )
+                {
+                    return value;
+                }
+            }
+            throw new IllegalStateException( "Corrupt scan snapshot at offset " + offset() );
+        }
+
+        private void read( byte[] dst, int offset, int length )
+        {
+            while ( length > 0 )
+            {
+                if ( !buffer.hasRemaining() )
+                {
+                    nextWindow();
+                }
+                int n = Math.min( length, buffer.remaining() );
+                buffer.get( dst, offset, n );
+                offset += n;
+                length -= n;
+            }
+        }
+
+        private void nextWindow()
+        {
+            if ( window + 1 >= windows.length )
+            {
+                throw new IllegalStateException( "Truncated scan snapshot" );
+            }
+            window++;
+            buffer = windows[window].duplicate();
+        }
+
+        private long offset()
+        {
+            return (long) window * windowSize + buffer.position();
+        }
+    }
+}
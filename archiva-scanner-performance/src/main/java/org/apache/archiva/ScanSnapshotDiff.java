@@ -0,0 +1,81 @@
+package org.apache.archiva;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The difference between two {@link ScanSnapshot}s. Paths are relative to the basedir, with <code>/</code> as
+ * separator, and in snapshot order.
+ */
+public final class ScanSnapshotDiff
+{
+    private final List<String> added;
+
+    private final List<String> removed;
+
+    private final List<String> changed;
+
+    ScanSnapshotDiff( List<String> added, List<String> removed, List<String> changed )
+    {
+        this.added = Collections.unmodifiableList( added );
+        this.removed = Collections.unmodifiableList( removed );
+        this.changed = Collections.unmodifiableList( changed );
+    }
+
+    /**
+     * @return the files only in the newer snapshot.
+     */
+    public List<String> getAdded()
+    {
+        return added;
+    }
+
+    /**
+     * @return the files only in the older snapshot.
+     */
+    public List<String> getRemoved()
+    {
+        return removed;
+    }
+
+    /**
+     * @return the files in both snapshots whose length or modification time differs.
+     */
+    public List<String> getChanged()
+    {
+        return changed;
+    }
+
+    /**
+     * @return <code>true</code> if the snapshots list the same files with the same lengths and times.
+     */
+    public boolean isEmpty()
+    {
+        return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "added " + added.size() + "; removed " + removed.size() + "; changed " + changed.size();
+    }
+}
@@ -0,0 +1,431 @@
+package org.apache.archiva;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Listener that records the result of a walk as a {@link ScanSnapshot} file.
+ * <p/>
+ * Included files are collected in memory up to {@link #setRunSize(int)} of them, then sorted by path and spilled to a
+ * temporary run file next to the snapshot. When the walk finishes the runs are merged into the snapshot, so the memory
+ * used is bounded by the run size rather than by the size of the repository; a walk that fits in a single run is
+ * written directly. Any previous snapshot at the same location is replaced only once the new one is complete. Paths
+ * are stored relative to the basedir with <code>/</code> as separator, whatever the platform.
+ *
+ * @see ScanSnapshot for the file format
+ */
+public class ScanSnapshotWriter
+    implements BatchDirectoryWalkListener
+{
+    public static final int DEFAULT_RUN_SIZE = 100000;
+
+    private static final Comparator<Entry> PATH_ORDER = new Comparator<Entry>()
+    {
+        public int compare( Entry e1, Entry e2 )
+        {
+            return ScanSnapshot.compare( e1.path, e1.path.length, e2.path, e2.path.length );
+        }
+    };
+
+    private final File snapshotFile;
+
+    private final List<Entry> entries = new ArrayList<Entry>();
+
+    private final List<File> runs = new ArrayList<File>();
+
+    private int runSize = DEFAULT_RUN_SIZE;
+
+    private int count;
+
+    public ScanSnapshotWriter( File snapshotFile )
+    {
+        this.snapshotFile = snapshotFile;
+    }
+
+    /**
+     * @return the file the snapshot is written to.
+     */
+    public File getSnapshotFile()
+    {
+        return snapshotFile;
+    }
+
+    /**
+     * @return the number of files kept in memory before they are spilled to a run file.
+     */
+    public int getRunSize()
+    {
+        return runSize;
+    }
+
+    /**
+     * @param runSize the number of files kept in memory before they are spilled to a run file.
+     */
+    public void setRunSize( int runSize )
+    {
+        if ( runSize < 1 )
+        {
+            throw new IllegalArgumentException( "Run size must be at least 1: " + runSize );
+        }
+        this.runSize = runSize;
+    }
+
+    public void directoryWalkStarting( File basedir )
+    {
+        entries.clear();
+        deleteRuns();
+        count = 0;
+    }
+
+    public void directoryWalkBatch( WalkBatch batch )
+    {
+        for ( int i = 0; i < batch.size(); i++ )
+        {
+            String path = batch.getPath( i );
+            if ( File.separatorChar != '/' )
+            {
+                path = path.replace( File.separatorChar, '/' );
+            }
+            entries.add( new Entry( utf8( path ), batch.getLength( i ), batch.getLastModified( i ) ) );
+            count++;
+            if ( entries.size() >= runSize )
+            {
+                try
+                {
+                    spill();
+                }
+                catch ( IOException e )
+                {
+                    throw new IllegalStateException( "Scan Failure.  Could not write snapshot run " + snapshotFile,
+                                                     e );
+                }
+            }
+        }
+    }
+
+    public void directoryWalkFinished()
+    {
+        try
+        {
+            write();
+        }
+        catch ( IOException e )
+        {
+            throw new IllegalStateException( "Scan Failure.  Could not write snapshot " + snapshotFile, e );
+        }
+        finally
+        {
+            entries.clear();
+            deleteRuns();
+        }
+    }
+
+    private void write()
+        throws IOException
+    {
+        if ( !runs.isEmpty() && !entries.isEmpty() )
+        {
+            spill();
+        }
+
+        File tmp = new File( snapshotFile.getPath() + ".tmp" );
+        EntryOutput out = new EntryOutput( tmp, count );
+        try
+        {
+            if ( runs.isEmpty() )
+            {
+                Collections.sort( entries, PATH_ORDER );
+                for ( Entry entry : entries )
+                {
+                    out.write( entry.path, entry.path.length, entry.length, entry.lastModified );
+                }
+            }
+            else
+            {
+                merge( out );
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+
+        if ( !tmp.renameTo( snapshotFile ) && !( snapshotFile.delete() && tmp.renameTo( snapshotFile ) ) )
+        {
+            throw new IOException( "Could not replace " + snapshotFile );
+        }
+    }
+
+    /**
+     * Sorts the entries in memory and writes them to a new run file, in the snapshot format.
+     */
+    private void spill()
+        throws IOException
+    {
+        Collections.sort( entries, PATH_ORDER );
+        File run = new File( snapshotFile.getPath() + ".run" + runs.size() );
+        runs.add( run );
+        EntryOutput out = new EntryOutput( run, entries.size() );
+        try
+        {
+            for ( Entry entry : entries )
+            {
+                out.write( entry.path, entry.path.length, entry.length, entry.lastModified );
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+        entries.clear();
+    }
+
+    /**
+     * Merges the sorted runs, reading each of them once and keeping one entry per run in memory.
+     */
+    private void merge( EntryOutput out )
+        throws IOException
+    {
+        PriorityQueue<RunInput> queue = new PriorityQueue<RunInput>( runs.size(), new Comparator<RunInput>()
+        {
+            public int compare( RunInput r1, RunInput r2 )
+            {
+                return ScanSnapshot.compare( r1.path, r1.pathLength, r2.path, r2.pathLength );
+            }
+        } );
+        List<RunInput> inputs = new ArrayList<RunInput>( runs.size() );
+        try
+        {
+            for ( File run : runs )
+            {
+                RunInput input = new RunInput( run );
+                inputs.add( input );
+                if ( input.next() )
+                {
+                    queue.add( input );
+                }
+            }
+
+            while ( !queue.isEmpty() )
+            {
+                RunInput input = queue.poll();
+                out.write( input.path, input.pathLength, input.length, input.lastModified );
+                if ( input.next() )
+                {
+                    queue.add( input );
+                }
+            }
+        }
+        finally
+        {
+            for ( RunInput input : inputs )
+            {
+                input.close();
+            }
+        }
+    }
+
+    private void deleteRuns()
+    {
+        for ( File run : runs )
+        {
+            run.delete();
+        }
+        runs.clear();
+    }
+
+    private static byte[] utf8( String path )
+    {
+        try
+        {
+            return path.getBytes( "UTF-8" );
+        }
+        catch ( UnsupportedEncodingException e )
+        {
+            throw new IllegalStateException( "UTF-8 not supported", e );
+        }
+    }
+
+    private static final class Entry
+    {
+        private final byte[] path;
+
+        private final long length;
+
+        private final long lastModified;
+
+        private Entry( byte[] path, long length, long lastModified )
+        {
+            this.path = path;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * Writes entries in path order, each sharing its prefix with the one before.
+     */
+    private static final class EntryOutput
+    {
+        private final DataOutputStream out;
+
+        private byte[] previous = new byte[256];
+
+        private int previousLength;
+
+        private EntryOutput( File file, int size )
+            throws IOException
+        {
+            out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file ) ) );
+            out.writeInt( ScanSnapshot.MAGIC );
+            out.writeInt( size );
+        }
+
+        private void write( byte[] path, int pathLength, long length, long lastModified )
+            throws IOException
+        {
+            int shared = 0;
+            int max = Math.min( previousLength, pathLength );
+            while ( shared < max && previous[shared] == path[shared] )
+            {
+                shared++;
+            }
+            writeVarLong( shared );
+            writeVarLong( pathLength - shared );
+            out.write( path, shared, pathLength - shared );
+            writeVarLong( length );
+            writeVarLong( lastModified );
+
+            // the path may be a buffer its owner reuses, so keep a copy
+            if ( pathLength > previous.length )
+            {
+                previous = new byte[Math.max( pathLength, previous.length * 2 )];
+            }
+            System.arraycopy( path, 0, previous, 0, pathLength );
+            previousLength = pathLength;
+        }
+
+        /**
+         * Writes an unsigned LEB128 number. Lengths and times are never negative, so they take one to six bytes where
+         * a <code>long</code> would take eight.
+         */
+        private void writeVarLong( long value )
+            throws IOException
+        {
+            while ( ( value & ~0x7FL ) != 0 )
+            {
+                out.writeByte( (int) ( value & 0x7F ) | 0x80 );
+                value >>>= 7;
+            }
+            out.writeByte( (int) value );
+        }
+
+        private void close()
+            throws IOException
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads a run file back entry by entry, the current path being decoded into a buffer that is reused.
+     */
+    private static final class RunInput
+    {
+        private final DataInputStream in;
+
+        private int remaining;
+
+        private byte[] path = new byte[256];
+
+        private int pathLength;
+
+        private long length;
+
+        private long lastModified;
+
+        private RunInput( File run )
+            throws IOException
+        {
+            in = new DataInputStream( new BufferedInputStream( new FileInputStream( run ) ) );
+            in.readInt();
+            remaining = in.readInt();
+        }
+
+        private boolean next()
+            throws IOException
+        {
+            if ( remaining == 0 )
+            {
+                return false;
+            }
+            int shared = (int) readVarLong();
+            int suffix = (int) readVarLong();
+            pathLength = shared + suffix;
+            if ( pathLength > path.length )
+            {
+                byte[] grown = new byte[Math.max( pathLength, path.length * 2 )];
+                System.arraycopy( path, 0, grown, 0, shared );
+                path = grown;
+            }
+            in.readFully( path, shared, suffix );
+            length = readVarLong();
+            lastModified = readVarLong();
+            remaining--;
+            return true;
+        }
+
+        private long readVarLong()
+            throws IOException
+        {
+            long value = 0;
+            for ( int shift = 0; shift < 64; shift += 7 )
+            {
+                byte b = in.readByte();
+                value |= (long) ( b & 0x7F ) << shift;
+                if ( b >= 0 )
+                {
+                    return value;
+                }
+            }
+            throw new IOException( "Corrupt snapshot run" );
+        }
+
+        private void close()
+            throws IOException
+        {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package org.apache.archiva;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * DirectoryWalker for filesystems where listing a directory mostly means waiting, such as NFS mounts: every directory
+ * is listed by a task of its own, on a virtual thread where the JVM provides them, so that many listings are in flight
+ * at once.
+ * <p/>
+ * The number of outstanding listings is bounded by {@link #setMaxOutstandingListings(int)}, which keeps the load on the
+ * file server in check. On a JVM without virtual threads the tasks run on a pool of that many platform threads
+ * instead, which behaves the same at a higher cost per thread.
+ * <p/>
+ * Listing tasks only read the filesystem; their results are merged back on the thread that called {@link #scan()},
+ * which reports the included files of each directory together, in the order the listings complete. Listeners are
+ * therefore only ever called from that thread.
+ */
+public class VirtualThreadDirectoryWalker
+    extends DirectoryWalker
+{
+    private static final Method NEW_VIRTUAL_THREAD_EXECUTOR = findVirtualThreadExecutorFactory();
+
+    private int maxOutstandingListings = 64;
+
+    /**
+     * @return <code>true</code> if directories are listed on virtual threads, <code>false</code> if this JVM does not
+     *         provide them and platform threads are used.
+     */
+    public static boolean isVirtualThreadsAvailable()
+    {
+        return NEW_VIRTUAL_THREAD_EXECUTOR != null;
+    }
+
+    /**
+     * @return the maximum number of directories being listed at the same time.
+     */
+    public int getMaxOutstandingListings()
+    {
+        return maxOutstandingListings;
+    }
+
+    /**
+     * @param maxOutstandingListings the maximum number of directories being listed at the same time.
+     */
+    public void setMaxOutstandingListings( int maxOutstandingListings )
+    {
+        if ( maxOutstandingListings < 1 )
+        {
+            throw new IllegalArgumentException(
+                "Outstanding listings must be at least 1: " + maxOutstandingListings );
+        }
+        this.maxOutstandingListings = maxOutstandingListings;
+    }
+
+    @Override
+    protected void walk()
+    {
+        ExecutorService executor = createExecutor();
+        Semaphore permits = new Semaphore( maxOutstandingListings );
+        BlockingQueue<Listing> results = new LinkedBlockingQueue<Listing>();
+        try
+        {
+            submit( executor, permits, results, getBaseDir(), getExcludeMatcher().root() );
+            int pending = 1;
+            while ( pending > 0 )
+            {
+                Listing listing = results.take();
+                pending--;
+                if ( listing.failure instanceof RuntimeException )
+                {
+                    throw (RuntimeException) listing.failure;
+                }
+                if ( listing.failure instanceof Error )
+                {
+                    throw (Error) listing.failure;
+                }
+                if ( listing.failure != null )
+                {
+                    throw new IllegalStateException( "Scan Failure.  Could not list directory.", listing.failure );
+                }
+
+                for ( File file : listing.files )
+                {
+                    fireStep( file );
+                }
+                for ( int i = 0; i < listing.dirs.size(); i++ )
+                {
+                    submit( executor, permits, results, listing.dirs.get( i ), listing.dirStates.get( i ) );
+                    pending++;
+                }
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException( "Scan Failure.  Walk interrupted.", e );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Takes a permit before submitting, so that a wide directory waits for listings to complete instead of starting
+     * thousands of them.
+     */
+    private void submit( ExecutorService executor, final Semaphore permits, final BlockingQueue<Listing> results,
+                         final File dir, final ExcludeMatcher.State state )
+        throws InterruptedException
+    {
+        permits.acquire();
+        executor.execute( new Runnable()
+        {
+            public void run()
+            {
+                Listing listing = new Listing();
+                try
+                {
+                    listDir( dir, state, listing );
+                }
+                catch ( Throwable t )
+                {
+                    // rethrown on the walking thread, which would otherwise wait for this listing forever
+                    listing.failure = t;
+                }
+                finally
+                {
+                    permits.release();
+                    results.add( listing );
+                }
+            }
+        } );
+    }
+
+    private void listDir( File dir, ExcludeMatcher.State state, Listing listing )
+    {
+        String names[] = listDirectory( dir );
+
+        if ( names == null )
+        {
+            return;
+        }
+
+        for ( String name : names )
+        {
+            if ( isChildExcluded( state, dir, name ) )
+            {
+                continue;
+            }
+
+            File file = new File( dir, name );
+            if ( isDirectory( file ) )
+            {
+                listing.dirs.add( file );
+                listing.dirStates.add( state.child( name ) );
+            }
+            else
+            {
+                listing.files.add( file );
+            }
+        }
+    }
+
+    private ExecutorService createExecutor()
+    {
+        if ( NEW_VIRTUAL_THREAD_EXECUTOR != null )
+        {
+            try
+            {
+                return (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke( null );
+            }
+            catch ( Exception e )
+            {
+                throw new IllegalStateException( "Scan Failure.  Could not create virtual threads.", e );
+            }
+        }
+
+        return Executors.newFixedThreadPool( maxOutstandingListings, new ThreadFactory()
+        {
+            public Thread newThread( Runnable r )
+            {
+                Thread thread = new Thread( r, "directory-lister" );
+                thread.setDaemon( true );
+                return thread;
+            }
+        } );
+    }
+
+    /**
+     * The module is built for Java 7, so the virtual thread executor of Java 21 is looked up rather than linked.
+     */
+    private static Method findVirtualThreadExecutorFactory()
+    {
+        try
+        {
+            return Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" );
+        }
+        catch ( NoSuchMethodException e )
+        {
+            return null;
+        }
+    }
+
+    private static final class Listing
+    {
+        private final List<File> files = new ArrayList<File>();
+
+        private final List<File> dirs = new ArrayList<File>();
+
+        private final List<ExcludeMatcher.State> dirStates = new ArrayList<ExcludeMatcher.State>();
+
+        private Throwable failure;
+    }
+}
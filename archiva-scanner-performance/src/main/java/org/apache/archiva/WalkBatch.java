@@ -0,0 +1,161 @@
+package org.apache.archiva;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * A chunk of included files delivered to {@link BatchDirectoryWalkListener}s.
+ * <p/>
+ * Each walker fills in what it already has for a file: the File, the path relative to the basedir, the length or the
+ * modification time. Anything else is computed on first access, so a listener only pays for what it uses; the length
+ * and time then cost a stat call.
+ */
+public final class WalkBatch
+{
+    private static final long UNKNOWN = -1;
+
+    private final File basedir;
+
+    private final int basedirOffset;
+
+    private final String[] paths;
+
+    private final File[] files;
+
+    private final long[] lengths;
+
+    private final long[] lastModified;
+
+    private int size;
+
+    WalkBatch( File basedir, int capacity )
+    {
+        this.basedir = basedir;
+        this.basedirOffset = basedir.getAbsolutePath().length();
+        this.paths = new String[capacity];
+        this.files = new File[capacity];
+        this.lengths = new long[capacity];
+        this.lastModified = new long[capacity];
+    }
+
+    /**
+     * @return the basedir of the walk.
+     */
+    public File getBasedir()
+    {
+        return basedir;
+    }
+
+    /**
+     * @return the number of files in this batch.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * @param index the index of the file in this batch.
+     * @return the path of the file relative to the basedir.
+     */
+    public String getPath( int index )
+    {
+        checkIndex( index );
+        if ( paths[index] == null )
+        {
+            paths[index] = files[index].getAbsolutePath().substring( basedirOffset + 1 );
+        }
+        return paths[index];
+    }
+
+    /**
+     * @param index the index of the file in this batch.
+     * @return the file.
+     */
+    public File getFile( int index )
+    {
+        checkIndex( index );
+        if ( files[index] == null )
+        {
+            files[index] = new File( basedir, paths[index] );
+        }
+        return files[index];
+    }
+
+    /**
+     * @param index the index of the file in this batch.
+     * @return the length of the file in bytes.
+     */
+    public long getLength( int index )
+    {
+        checkIndex( index );
+        if ( lengths[index] == UNKNOWN )
+        {
+            lengths[index] = getFile( index ).length();
+        }
+        return lengths[index];
+    }
+
+    /**
+     * @param index the index of the file in this batch.
+     * @return the modification time of the file, in milliseconds since the epoch.
+     */
+    public long getLastModified( int index )
+    {
+        checkIndex( index );
+        if ( lastModified[index] == UNKNOWN )
+        {
+            lastModified[index] = getFile( index ).lastModified();
+        }
+        return lastModified[index];
+    }
+
+    /**
+     * Adds a file; either <code>path</code> or <code>file</code> must be given, unknown attributes are -1.
+     *
+     * @return <code>true</code> if the batch is now full.
+     */
+    boolean add( String path, File file, long length, long lastModified )
+    {
+        paths[size] = path;
+        files[size] = file;
+        lengths[size] = length;
+        this.lastModified[size] = lastModified;
+        size++;
+        return size == paths.length;
+    }
+
+    void clear()
+    {
+        Arrays.fill( paths, 0, size, null );
+        Arrays.fill( files, 0, size, null );
+        size = 0;
+    }
+
+    private void checkIndex( int index )
+    {
+        if ( index < 0 || index >= size )
+        {
+            throw new IndexOutOfBoundsException( "Index: " + index + ", Size: " + size );
+        }
+    }
+}
@@ -0,0 +1,373 @@
+package org.apache.archiva;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and timings of a directory walk, collected by a {@link DirectoryWalker} given to
+ * {@link DirectoryWalker#setStatistics(WalkStatistics)}, to tell whether a slow walk spends its time listing, in stat
+ * calls, matching excludes or in the listeners.
+ * <p/>
+ * Collecting costs a few {@link System#nanoTime()} calls per entry, and matching each excluded entry against every
+ * pattern again to count the hits per pattern, so it is off unless statistics are set. The same instance can be
+ * reused: it is reset when a walk starts. Counters are safe to update from several walker threads, and the statistics
+ * can be watched while the walk runs through JMX, see {@link #register(String)}.
+ */
+public class WalkStatistics
+    implements WalkStatisticsMXBean
+{
+    private final AtomicLong directories = new AtomicLong();
+
+    private final AtomicLong files = new AtomicLong();
+
+    private final AtomicLong excluded = new AtomicLong();
+
+    private final AtomicLong unreadable = new AtomicLong();
+
+    private final AtomicLong listingNanos = new AtomicLong();
+
+    private final AtomicLong statNanos = new AtomicLong();
+
+    private final AtomicLong excludeNanos = new AtomicLong();
+
+    private final AtomicLong listenerNanos = new AtomicLong();
+
+    private volatile List<TokenizedPattern> patterns = new ArrayList<TokenizedPattern>();
+
+    private volatile AtomicLong[] patternHits = new AtomicLong[0];
+
+    private volatile boolean isCaseSensitive = true;
+
+    private volatile long startNanos;
+
+    private volatile long endNanos;
+
+    private volatile boolean walking;
+
+    private String deepestDirectory;
+
+    private int deepestDirectoryDepth = -1;
+
+    private String widestDirectory;
+
+    private int widestDirectoryEntries = -1;
+
+    private ObjectName objectName;
+
+    /**
+     * Registers these statistics with the platform MBean server.
+     *
+     * @param name the value of the <code>name</code> key of the object name, e.g. the repository id.
+     * @throws JMException if the statistics can not be registered, e.g. because the name is taken.
+     */
+    public synchronized void register( String name )
+        throws JMException
+    {
+        objectName = new ObjectName( "org.apache.archiva:type=WalkStatistics,name=" + ObjectName.quote( name ) );
+        ManagementFactory.getPlatformMBeanServer().registerMBean( this, objectName );
+    }
+
+    /**
+     * Removes these statistics from the platform MBean server, if they were registered.
+     *
+     * @throws JMException if the statistics can not be unregistered.
+     */
+    public synchronized void unregister()
+        throws JMException
+    {
+        if ( objectName != null )
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if ( server.isRegistered( objectName ) )
+            {
+                server.unregisterMBean( objectName );
+            }
+            objectName = null;
+        }
+    }
+
+    void walkStarting( List<TokenizedPattern> excludes, boolean isCaseSensitive )
+    {
+        directories.set( 0 );
+        files.set( 0 );
+        excluded.set( 0 );
+        unreadable.set( 0 );
+        listingNanos.set( 0 );
+        statNanos.set( 0 );
+        excludeNanos.set( 0 );
+        listenerNanos.set( 0 );
+
+        AtomicLong[] hits = new AtomicLong[excludes.size()];
+        for ( int i = 0; i < hits.length; i++ )
+        {
+            hits[i] = new AtomicLong();
+        }
+        this.patterns = new ArrayList<TokenizedPattern>( excludes );
+        this.patternHits = hits;
+        this.isCaseSensitive = isCaseSensitive;
+
+        synchronized ( this )
+        {
+            deepestDirectory = null;
+            deepestDirectoryDepth = -1;
+            widestDirectory = null;
+            widestDirectoryEntries = -1;
+        }
+
+        startNanos = System.nanoTime();
+        walking = true;
+    }
+
+    void walkFinished()
+    {
+        endNanos = System.nanoTime();
+        walking = false;
+    }
+
+    /**
+     * @param path the path of the directory relative to the basedir.
+     * @param entries the number of entries in the directory, before excludes.
+     */
+    void directoryVisited( String path, int entries )
+    {
+        directories.incrementAndGet();
+
+        int depth = 0;
+        if ( path.length() > 0 )
+        {
+            depth = 1;
+            for ( int i = path.indexOf( File.separatorChar ); i >= 0;
+                  i = path.indexOf( File.separatorChar, i + 1 ) )
+            {
+                depth++;
+            }
+        }
+
+        synchronized ( this )
+        {
+            if ( depth > deepestDirectoryDepth )
+            {
+                deepestDirectoryDepth = depth;
+                deepestDirectory = path;
+            }
+            if ( entries > widestDirectoryEntries )
+            {
+                widestDirectoryEntries = entries;
+                widestDirectory = path;
+            }
+        }
+    }
+
+    /**
+     * @param path the path of the excluded entry relative to the basedir.
+     */
+    void entryExcluded( String path )
+    {
+        excluded.incrementAndGet();
+
+        List<TokenizedPattern> patterns = this.patterns;
+        AtomicLong[] hits = this.patternHits;
+        for ( int i = 0; i < hits.length; i++ )
+        {
+            if ( patterns.get( i ).matchPath( path, isCaseSensitive ) )
+            {
+                hits[i].incrementAndGet();
+            }
+        }
+    }
+
+    void entryUnreadable()
+    {
+        unreadable.incrementAndGet();
+    }
+
+    void filesIncluded( int count )
+    {
+        files.addAndGet( count );
+    }
+
+    void addListingNanos( long nanos )
+    {
+        listingNanos.addAndGet( nanos );
+    }
+
+    void addStatNanos( long nanos )
+    {
+        statNanos.addAndGet( nanos );
+    }
+
+    void addExcludeNanos( long nanos )
+    {
+        excludeNanos.addAndGet( nanos );
+    }
+
+    void addListenerNanos( long nanos )
+    {
+        listenerNanos.addAndGet( nanos );
+    }
+
+    public boolean isWalking()
+    {
+        return walking;
+    }
+
+    public long getElapsedMillis()
+    {
+        if ( startNanos == 0 )
+        {
+            return 0;
+        }
+        return ( ( walking ? System.nanoTime() : endNanos ) - startNanos ) / 1000000;
+    }
+
+    public long getDirectoryCount()
+    {
+        return directories.get();
+    }
+
+    public long getFileCount()
+    {
+        return files.get();
+    }
+
+    public long getExcludedCount()
+    {
+        return excluded.get();
+    }
+
+    public long getUnreadableCount()
+    {
+        return unreadable.get();
+    }
+
+    public double getDirectoriesPerSecond()
+    {
+        return perSecond( directories.get() );
+    }
+
+    public double getFilesPerSecond()
+    {
+        return perSecond( files.get() );
+    }
+
+    public long getListingMillis()
+    {
+        return listingNanos.get() / 1000000;
+    }
+
+    public long getStatMillis()
+    {
+        return statNanos.get() / 1000000;
+    }
+
+    public long getExcludeMatchingMillis()
+    {
+        return excludeNanos.get() / 1000000;
+    }
+
+    public long getListenerMillis()
+    {
+        return listenerNanos.get() / 1000000;
+    }
+
+    public Map<String, Long> getPatternHits()
+    {
+        List<TokenizedPattern> patterns = this.patterns;
+        AtomicLong[] hits = this.patternHits;
+        Map<String, Long> result = new LinkedHashMap<String, Long>();
+        for ( int i = 0; i < hits.length; i++ )
+        {
+            String pattern = patterns.get( i ).toString();
+            Long previous = result.get( pattern );
+            result.put( pattern, Long.valueOf( hits[i].get() + ( previous != null ? previous.longValue() : 0 ) ) );
+        }
+        return result;
+    }
+
+    public synchronized String getDeepestDirectory()
+    {
+        return deepestDirectory;
+    }
+
+    public synchronized int getDeepestDirectoryDepth()
+    {
+        return deepestDirectoryDepth;
+    }
+
+    public synchronized String getWidestDirectory()
+    {
+        return widestDirectory;
+    }
+
+    public synchronized int getWidestDirectoryEntries()
+    {
+        return widestDirectoryEntries;
+    }
+
+    public String getReport()
+    {
+        StringBuilder report = new StringBuilder();
+        line( report, "elapsedMillis", getElapsedMillis() );
+        line( report, "directories", getDirectoryCount() );
+        line( report, "files", getFileCount() );
+        line( report, "excluded", getExcludedCount() );
+        line( report, "unreadable", getUnreadableCount() );
+        line( report, "directoriesPerSecond", String.format( "%.1f", getDirectoriesPerSecond() ) );
+        line( report, "filesPerSecond", String.format( "%.1f", getFilesPerSecond() ) );
+        line( report, "listingMillis", getListingMillis() );
+        line( report, "statMillis", getStatMillis() );
+        line( report, "excludeMatchingMillis", getExcludeMatchingMillis() );
+        line( report, "listenerMillis", getListenerMillis() );
+        line( report, "deepestDirectory", getDeepestDirectory() + " (" + getDeepestDirectoryDepth() + ")" );
+        line( report, "widestDirectory", getWidestDirectory() + " (" + getWidestDirectoryEntries() + ")" );
+        for ( Map.Entry<String, Long> entry : getPatternHits().entrySet() )
+        {
+            line( report, "patternHits[" + entry.getKey() + "]", entry.getValue() );
+        }
+        return report.toString();
+    }
+
+    @Override
+    public String toString()
+    {
+        return getReport();
+    }
+
+    private double perSecond( long count )
+    {
+        long nanos = ( walking ? System.nanoTime() : endNanos ) - startNanos;
+        return startNanos == 0 || nanos <= 0 ? 0 : count * 1000000000.0 / nanos;
+    }
+
+    private static void line( StringBuilder report, String name, Object value )
+    {
+        report.append( name ).append( ": " ).append( value ).append( '\n' );
+    }
+}
@@ -0,0 +1,91 @@
+package org.apache.archiva;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link WalkStatistics}. Values describe the walk in progress, or the last one once it has
+ * finished.
+ */
+public interface WalkStatisticsMXBean
+{
+    /**
+     * @return <code>true</code> while a walk is in progress.
+     */
+    boolean isWalking();
+
+    long getElapsedMillis();
+
+    long getDirectoryCount();
+
+    /**
+     * @return the number of included files.
+     */
+    long getFileCount();
+
+    /**
+     * @return the number of files and directories excluded by a pattern.
+     */
+    long getExcludedCount();
+
+    /**
+     * @return the number of directories that could not be listed and entries whose attributes could not be read.
+     *         They are left out of the walk.
+     */
+    long getUnreadableCount();
+
+    double getDirectoriesPerSecond();
+
+    double getFilesPerSecond();
+
+    /**
+     * @return the time spent listing directories, or 0 for walkers that do not list directories themselves.
+     */
+    long getListingMillis();
+
+    /**
+     * @return the time spent telling files from directories, or 0 for walkers that get this from the listing.
+     */
+    long getStatMillis();
+
+    long getExcludeMatchingMillis();
+
+    long getListenerMillis();
+
+    /**
+     * @return the number of entries each exclude pattern matched, in the order the patterns were given. An entry
+     *         matched by several patterns counts for each of them.
+     */
+    Map<String, Long> getPatternHits();
+
+    String getDeepestDirectory();
+
+    int getDeepestDirectoryDepth();
+
+    String getWidestDirectory();
+
+    int getWidestDirectoryEntries();
+
+    /**
+     * @return all of the above as text, one <code>name: value</code> line each.
+     */
+    String getReport();
+}
@@ -0,0 +1,249 @@
+package org.apache.archiva;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DirectoryWalkerCheckpointTest
+{
+    private static final int FILES = 6 * 3 * 10;
+
+    private File basedir;
+
+    private File checkpoint;
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        basedir = File.createTempFile( "checkpoint", "" );
+        basedir.delete();
+        checkpoint = new File( basedir.getPath() + ".checkpoint" );
+        for ( int g = 0; g < 6; g++ )
+        {
+            for ( int a = 0; a < 3; a++ )
+            {
+                File dir = new File( basedir, "group" + g + File.separator + "artifact" + a );
+                dir.mkdirs();
+                for ( int f = 0; f < 10; f++ )
+                {
+                    FileUtils.writeStringToFile( new File( dir, "file" + f + ".jar" ), "" );
+                }
+            }
+        }
+    }
+
+    @After
+    public void tearDown()
+        throws IOException
+    {
+        FileUtils.deleteDirectory( basedir );
+        checkpoint.delete();
+    }
+
+    @Test
+    public void testWalkResumesFromCheckpoint()
+    {
+        Collector first = new Collector( 70 );
+        interrupt( walker( first ) );
+        assertTrue( checkpoint.isFile() );
+
+        Collector second = new Collector( -1 );
+        walker( second ).scan();
+        assertFalse( checkpoint.exists() );
+
+        assertTrue( second.resumedAt != null );
+        assertTrue( second.paths.size() < FILES );
+        Set<String> all = new HashSet<String>( first.paths );
+        all.addAll( second.paths );
+        assertEquals( FILES, all.size() );
+        // only the files delivered after the last checkpoint are delivered twice
+        assertTrue( first.paths.size() + second.paths.size() - FILES <= 2 );
+        assertFalse( second.paths.contains( first.paths.get( 0 ) ) );
+    }
+
+    @Test
+    public void testWalkResumesAfterSeveralInterruptions()
+    {
+        Set<String> all = new HashSet<String>();
+        for ( int run = 0; run < 3; run++ )
+        {
+            Collector collector = new Collector( 40 );
+            interrupt( walker( collector ) );
+            all.addAll( collector.paths );
+        }
+        Collector last = new Collector( -1 );
+        walker( last ).scan();
+        all.addAll( last.paths );
+
+        assertEquals( FILES, all.size() );
+        assertFalse( checkpoint.exists() );
+    }
+
+    @Test
+    public void testDeletedCheckpointStartsOver()
+    {
+        interrupt( walker( new Collector( 70 ) ) );
+        assertTrue( checkpoint.delete() );
+
+        Collector collector = new Collector( -1 );
+        walker( collector ).scan();
+        assertNull( collector.resumedAt );
+        assertEquals( FILES, collector.paths.size() );
+        assertFalse( checkpoint.exists() );
+    }
+
+    @Test
+    public void testCheckpointOfOtherExcludesIsIgnored()
+    {
+        interrupt( walker( new Collector( 70 ) ) );
+
+        Collector collector = new Collector( -1 );
+        DirectoryWalker walker = walker( collector );
+        walker.addExclude( "**/artifact2/**" );
+        walker.scan();
+        assertNull( collector.resumedAt );
+        assertEquals( FILES / 3 * 2, collector.paths.size() );
+    }
+
+    @Test
+    public void testResumeSkipsRemovedEntry()
+        throws IOException
+    {
+        Collector first = new Collector( 70 );
+        interrupt( walker( first ) );
+
+        // remove the directory the walk stopped in
+        File dir = new File( basedir, first.paths.get( first.paths.size() - 1 ) ).getParentFile();
+        FileUtils.deleteDirectory( dir );
+
+        Collector second = new Collector( -1 );
+        walker( second ).scan();
+
+        Collector remaining = new Collector( -1 );
+        DirectoryWalker walker = walker( remaining );
+        walker.setCheckpointFile( null );
+        walker.scan();
+        Set<String> expected = new HashSet<String>( remaining.paths );
+        expected.addAll( first.paths );
+
+        Set<String> all = new HashSet<String>( first.paths );
+        all.addAll( second.paths );
+        assertEquals( expected, all );
+    }
+
+    private DirectoryWalker walker( Collector collector )
+    {
+        DirectoryWalker walker = new DirectoryWalker();
+        walker.setBaseDir( basedir );
+        walker.setCheckpointFile( checkpoint );
+        walker.setCheckpointInterval( 1 );
+        walker.setBatchSize( 1 );
+        walker.addBatchDirectoryWalkListener( collector );
+        return walker;
+    }
+
+    private static void interrupt( DirectoryWalker walker )
+    {
+        try
+        {
+            walker.scan();
+            fail( "Expected the walk to be interrupted" );
+        }
+        catch ( Interrupted e )
+        {
+            // expected
+        }
+    }
+
+    private static class Interrupted
+        extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static class Collector
+        implements BatchDirectoryWalkListener, DirectoryWalkResumeListener
+    {
+        private final int limit;
+
+        private final List<String> paths = new ArrayList<String>();
+
+        private String resumedAt;
+
+        /**
+         * @param limit the number of files after which the walk is interrupted, or -1.
+         */
+        private Collector( int limit )
+        {
+            this.limit = limit;
+        }
+
+        public void directoryWalkStarting( File basedir )
+        {
+        }
+
+        public void directoryWalkResumed( File basedir, String path )
+        {
+            resumedAt = path;
+        }
+
+        public void directoryWalkBatch( WalkBatch batch )
+        {
+            for ( int i = 0; i < batch.size(); i++ )
+            {
+                if ( paths.size() == limit )
+                {
+                    throw new Interrupted();
+                }
+                paths.add( batch.getPath( i ) );
+            }
+            try
+            {
+                // let the checkpoint interval pass
+                Thread.sleep( 2 );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        public void directoryWalkFinished()
+        {
+        }
+    }
+}
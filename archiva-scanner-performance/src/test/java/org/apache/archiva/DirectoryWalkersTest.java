@@ -0,0 +1,262 @@
+package org.apache.archiva;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Walks the same fixture tree with every walker, which must all report what {@link DirectoryWalker} reports.
+ */
+public class DirectoryWalkersTest
+{
+    private static final List<String> EXCLUDES = Arrays.asList( "**/.svn", "**/*.sha1" );
+
+    private File basedir;
+
+    private Set<String> expected;
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        basedir = File.createTempFile( "walkers", "" );
+        basedir.delete();
+        expected = new TreeSet<String>();
+        for ( int d = 0; d < 4; d++ )
+        {
+            for ( int f = 0; f < 4; f++ )
+            {
+                expected.add( touch( "org/group" + d + "/artifact-" + f + ".jar" ) );
+                touch( "org/group" + d + "/artifact-" + f + ".jar.sha1" );
+            }
+        }
+        touch( "org/group0/.svn/entries" );
+    }
+
+    @After
+    public void tearDown()
+        throws IOException
+    {
+        FileUtils.deleteDirectory( basedir );
+    }
+
+    @Test
+    public void testWalkersReportTheSameFiles()
+    {
+        assertEquals( expected, walk( new DirectoryWalker(), null ) );
+        for ( DirectoryWalker walker : walkers( null ) )
+        {
+            assertEquals( walker.getClass().getName(), expected, walk( walker, null ) );
+        }
+    }
+
+    @Test
+    public void testStatistics()
+    {
+        for ( DirectoryWalker walker : walkers( null ) )
+        {
+            WalkStatistics statistics = new WalkStatistics();
+            walk( walker, statistics );
+
+            String name = walker.getClass().getName();
+            assertEquals( name, 16, statistics.getFileCount() );
+            // the basedir, org and the four groups; the excluded .svn is not visited
+            assertEquals( name, 6, statistics.getDirectoryCount() );
+            assertEquals( name, 17, statistics.getExcludedCount() );
+            assertEquals( name, 0, statistics.getUnreadableCount() );
+            assertEquals( name, 2, statistics.getDeepestDirectoryDepth() );
+            // group0 with its jars, their checksums and .svn
+            assertEquals( name, path( "org/group0" ), statistics.getWidestDirectory() );
+            assertEquals( name, 9, statistics.getWidestDirectoryEntries() );
+
+            Map<String, Long> hits = new LinkedHashMap<String, Long>();
+            hits.put( "**/.svn", Long.valueOf( 1 ) );
+            hits.put( "**/*.sha1", Long.valueOf( 16 ) );
+            assertEquals( name, hits, statistics.getPatternHits() );
+        }
+    }
+
+    @Test
+    public void testUnreadableDirectoriesAreCountedAndSkipped()
+    {
+        Set<String> readable = new TreeSet<String>();
+        for ( String path : expected )
+        {
+            if ( !path.startsWith( path( "org/group2/" ) ) )
+            {
+                readable.add( path );
+            }
+        }
+
+        for ( DirectoryWalker walker : walkers( "group2" ) )
+        {
+            WalkStatistics statistics = new WalkStatistics();
+            String name = walker.getClass().getSuperclass().getName();
+            assertEquals( name, readable, walk( walker, statistics ) );
+            assertEquals( name, 12, statistics.getFileCount() );
+            assertEquals( name, 1, statistics.getUnreadableCount() );
+        }
+    }
+
+    @Test
+    public void testBatchesAndAdaptedListenersSeeTheSameFiles()
+    {
+        for ( DirectoryWalker walker : walkers( null ) )
+        {
+            final Set<String> batched = new TreeSet<String>();
+            final List<Integer> sizes = new ArrayList<Integer>();
+            walker.setBatchSize( 3 );
+            walker.addBatchDirectoryWalkListener( new BatchDirectoryWalkListener()
+            {
+                public void directoryWalkStarting( File basedir )
+                {
+                }
+
+                public void directoryWalkBatch( WalkBatch batch )
+                {
+                    sizes.add( Integer.valueOf( batch.size() ) );
+                    for ( int i = 0; i < batch.size(); i++ )
+                    {
+                        batched.add( batch.getPath( i ) );
+                    }
+                }
+
+                public void directoryWalkFinished()
+                {
+                }
+            } );
+
+            String name = walker.getClass().getName();
+            assertEquals( name, expected, walk( walker, null ) );
+            assertEquals( name, expected, batched );
+            for ( Integer size : sizes )
+            {
+                assertTrue( name, size.intValue() >= 1 && size.intValue() <= 3 );
+            }
+        }
+    }
+
+    /**
+     * @param unreadable the name of a directory the walkers based on <code>java.io.File</code> fail to list, or
+     *            <code>null</code>.
+     */
+    private static List<DirectoryWalker> walkers( final String unreadable )
+    {
+        List<DirectoryWalker> walkers = new ArrayList<DirectoryWalker>();
+        if ( unreadable == null )
+        {
+            walkers.add( new DirectoryWalker() );
+            walkers.add( new NioDirectoryWalker() );
+            ParallelDirectoryWalker parallel = new ParallelDirectoryWalker();
+            parallel.setParallelism( 2 );
+            walkers.add( parallel );
+            VirtualThreadDirectoryWalker virtual = new VirtualThreadDirectoryWalker();
+            virtual.setMaxOutstandingListings( 4 );
+            walkers.add( virtual );
+            return walkers;
+        }
+
+        walkers.add( new DirectoryWalker()
+        {
+            @Override
+            protected String[] list( File dir )
+            {
+                return unreadable.equals( dir.getName() ) ? null : super.list( dir );
+            }
+        } );
+        walkers.add( new ParallelDirectoryWalker()
+        {
+            @Override
+            protected String[] list( File dir )
+            {
+                return unreadable.equals( dir.getName() ) ? null : super.list( dir );
+            }
+        } );
+        walkers.add( new VirtualThreadDirectoryWalker()
+        {
+            @Override
+            protected String[] list( File dir )
+            {
+                return unreadable.equals( dir.getName() ) ? null : super.list( dir );
+            }
+        } );
+        return walkers;
+    }
+
+    private Set<String> walk( DirectoryWalker walker, WalkStatistics statistics )
+    {
+        final Set<String> paths = new TreeSet<String>();
+        final int offset = basedir.getAbsolutePath().length() + 1;
+        walker.setBaseDir( basedir );
+        walker.setExcludes( EXCLUDES );
+        walker.setStatistics( statistics );
+        walker.addDirectoryWalkListener( new DirectoryWalkListener()
+        {
+            public void directoryWalkStarting( File basedir )
+            {
+            }
+
+            public void directoryWalkStep( int percentage, File file )
+            {
+                assertTrue( paths.add( file.getAbsolutePath().substring( offset ) ) );
+            }
+
+            public void directoryWalkFinished()
+            {
+            }
+
+            public void debug( String message )
+            {
+            }
+        } );
+        walker.scan();
+        return paths;
+    }
+
+    private String touch( String path )
+        throws IOException
+    {
+        File file = new File( basedir, path( path ) );
+        file.getParentFile().mkdirs();
+        file.createNewFile();
+        return path( path );
+    }
+
+    private static String path( String path )
+    {
+        return path.replace( '/', File.separatorChar );
+    }
+}
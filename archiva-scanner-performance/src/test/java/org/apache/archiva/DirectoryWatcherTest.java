@@ -0,0 +1,335 @@
+package org.apache.archiva;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DirectoryWatcherTest
+{
+    private static final long TIMEOUT = 10000;
+
+    private File basedir;
+
+    private DirectoryWatcher watcher;
+
+    private Changes changes;
+
+    private Thread scanner;
+
+    private volatile Throwable failure;
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        basedir = File.createTempFile( "watcher", "" );
+        basedir.delete();
+        touch( "org/group0/artifact-0.jar" );
+        touch( "org/group0/.svn/entries" );
+        touch( "org/group1/artifact-0.jar" );
+
+        watcher = new DirectoryWatcher();
+        watcher.setBaseDir( basedir );
+        watcher.addSCMExcludes();
+        changes = new Changes();
+        watcher.addDirectoryWalkListener( changes );
+        watcher.addDirectoryChangeListener( changes );
+    }
+
+    @After
+    public void tearDown()
+        throws Exception
+    {
+        changes.release();
+        watcher.stop();
+        if ( scanner != null )
+        {
+            scanner.join( TIMEOUT );
+            assertFalse( scanner.isAlive() );
+        }
+        FileUtils.deleteDirectory( basedir );
+        if ( failure != null )
+        {
+            throw new AssertionError( failure );
+        }
+    }
+
+    @Test
+    public void testInitialScanReportsExistingFiles()
+        throws InterruptedException
+    {
+        watcher.setInitialScan( true );
+        start();
+        awaitSteps( "org/group0/artifact-0.jar", "org/group1/artifact-0.jar" );
+        assertEquals( 0, changes.added.size() );
+        assertEquals( 4, watcher.getWatchedDirectoryCount() );
+    }
+
+    @Test
+    public void testCreatedFileIsReported()
+        throws Exception
+    {
+        start();
+        touch( "org/group1/artifact-1.jar" );
+        touch( "org/group0/.svn/format" );
+        awaitSteps( "org/group1/artifact-1.jar" );
+        assertEquals( set( "org/group1/artifact-1.jar" ), changes.added() );
+    }
+
+    @Test
+    public void testModifiedFileIsReported()
+        throws Exception
+    {
+        start();
+        FileUtils.writeStringToFile( new File( basedir, path( "org/group0/artifact-0.jar" ) ), "modified" );
+        awaitSteps( "org/group0/artifact-0.jar" );
+        assertEquals( 0, changes.added().size() );
+    }
+
+    @Test
+    public void testDeletedFileIsReported()
+        throws Exception
+    {
+        start();
+        assertTrue( new File( basedir, path( "org/group1/artifact-0.jar" ) ).delete() );
+        awaitRemoved( "org/group1/artifact-0.jar" );
+    }
+
+    @Test
+    public void testNewDirectoryIsWatched()
+        throws Exception
+    {
+        start();
+        touch( "org/group2/artifact-0.jar" );
+        awaitSteps( "org/group2/artifact-0.jar" );
+        touch( "org/group2/artifact-1.jar" );
+        awaitSteps( "org/group2/artifact-0.jar", "org/group2/artifact-1.jar" );
+        assertEquals( set( "org/group2/artifact-0.jar", "org/group2/artifact-1.jar" ), changes.added() );
+        assertEquals( 5, watcher.getWatchedDirectoryCount() );
+    }
+
+    @Test
+    public void testLostEventsAreRecoveredByRescan()
+        throws Exception
+    {
+        // hold the watcher in the listener while a directory gets more events than a watch key keeps
+        watcher.setInitialScan( true );
+        changes.block();
+        start();
+        assertTrue( changes.blocked.await( TIMEOUT, TimeUnit.MILLISECONDS ) );
+
+        Set<String> created = new TreeSet<String>();
+        for ( int i = 0; i < 600; i++ )
+        {
+            touch( "org/group1/file-" + i + ".jar" );
+            created.add( path( "org/group1/file-" + i + ".jar" ) );
+        }
+        assertTrue( new File( basedir, path( "org/group1/artifact-0.jar" ) ).delete() );
+        touch( "org/group1/late/artifact-0.jar" );
+        created.add( path( "org/group1/late/artifact-0.jar" ) );
+        Thread.sleep( 500 );
+        changes.release();
+
+        awaitRemoved( "org/group1/artifact-0.jar" );
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while ( !changes.steps().containsAll( created ) && System.currentTimeMillis() < deadline )
+        {
+            Thread.sleep( 10 );
+        }
+        assertTrue( changes.steps().containsAll( created ) );
+        assertTrue( changes.added().contains( path( "org/group1/late/artifact-0.jar" ) ) );
+    }
+
+    private void start()
+        throws InterruptedException
+    {
+        scanner = new Thread( new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    watcher.scan();
+                }
+                catch ( Throwable t )
+                {
+                    failure = t;
+                }
+            }
+        } );
+        scanner.start();
+
+        // events are only seen once the tree is registered
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while ( watcher.getWatchedDirectoryCount() < 4 && System.currentTimeMillis() < deadline )
+        {
+            Thread.sleep( 10 );
+        }
+    }
+
+    private void awaitSteps( String... paths )
+        throws InterruptedException
+    {
+        Set<String> expected = set( paths );
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while ( !changes.steps().containsAll( expected ) && System.currentTimeMillis() < deadline )
+        {
+            Thread.sleep( 10 );
+        }
+        assertEquals( expected, changes.steps() );
+    }
+
+    private void awaitRemoved( String path )
+        throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while ( changes.removed().isEmpty() && System.currentTimeMillis() < deadline )
+        {
+            Thread.sleep( 10 );
+        }
+        assertEquals( set( path ), changes.removed() );
+    }
+
+    private void touch( String path )
+        throws IOException
+    {
+        File file = new File( basedir, path( path ) );
+        file.getParentFile().mkdirs();
+        FileUtils.writeStringToFile( file, path );
+    }
+
+    private static Set<String> set( String... paths )
+    {
+        Set<String> set = new TreeSet<String>();
+        for ( String path : paths )
+        {
+            set.add( path( path ) );
+        }
+        return set;
+    }
+
+    private static String path( String path )
+    {
+        return path.replace( '/', File.separatorChar );
+    }
+
+    private class Changes
+        implements DirectoryWalkListener, DirectoryChangeListener
+    {
+        private final Set<String> steps = new TreeSet<String>();
+
+        private final Set<String> added = new TreeSet<String>();
+
+        private final Set<String> removed = new TreeSet<String>();
+
+        private final CountDownLatch blocked = new CountDownLatch( 1 );
+
+        private final CountDownLatch released = new CountDownLatch( 1 );
+
+        private volatile boolean blocking;
+
+        void block()
+        {
+            blocking = true;
+        }
+
+        void release()
+        {
+            released.countDown();
+        }
+
+        public void directoryWalkStarting( File basedir )
+        {
+        }
+
+        public void directoryWalkStep( int percentage, File file )
+        {
+            synchronized ( this )
+            {
+                steps.add( relative( file ) );
+            }
+            if ( blocking )
+            {
+                blocking = false;
+                blocked.countDown();
+                try
+                {
+                    released.await();
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        public void directoryWalkFinished()
+        {
+        }
+
+        public void debug( String message )
+        {
+        }
+
+        public synchronized void fileAdded( File file )
+        {
+            added.add( relative( file ) );
+        }
+
+        public synchronized void fileRemoved( File file )
+        {
+            removed.add( relative( file ) );
+        }
+
+        synchronized Set<String> steps()
+        {
+            return new TreeSet<String>( steps );
+        }
+
+        synchronized Set<String> added()
+        {
+            return new TreeSet<String>( added );
+        }
+
+        synchronized Set<String> removed()
+        {
+            return new TreeSet<String>( removed );
+        }
+
+        private String relative( File file )
+        {
+            return file.getAbsolutePath().substring( basedir.getAbsolutePath().length() + 1 );
+        }
+    }
+}
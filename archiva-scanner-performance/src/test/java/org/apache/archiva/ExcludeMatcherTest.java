@@ -0,0 +1,134 @@
+package org.apache.archiva;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class ExcludeMatcherTest
+{
+    private static final String[] PATTERN_TOKENS = { "**", "*", "a", "b*", "?c", "*.jar", ".svn", "a?b", "*b*", "A" };
+
+    private static final String[] PATH_TOKENS = { "a", "b", "bc", "xc", "x.jar", ".svn", "ab", "aXb", "A", "abc" };
+
+    @Test
+    public void testMatchesLikeTokenizedPatterns()
+    {
+        Random random = new Random( 1 );
+        for ( int run = 0; run < 200; run++ )
+        {
+            List<TokenizedPattern> patterns = new ArrayList<TokenizedPattern>();
+            int count = 1 + random.nextInt( 4 );
+            for ( int i = 0; i < count; i++ )
+            {
+                patterns.add( new TokenizedPattern( join( PATTERN_TOKENS, random, 1 + random.nextInt( 4 ) ) ) );
+            }
+
+            for ( boolean isCaseSensitive : new boolean[]{ true, false } )
+            {
+                ExcludeMatcher matcher = new ExcludeMatcher( patterns, isCaseSensitive );
+                for ( int p = 0; p < 50; p++ )
+                {
+                    String path = join( PATH_TOKENS, random, 1 + random.nextInt( 5 ) );
+                    assertEquals( patterns + " " + path + " case sensitive " + isCaseSensitive,
+                                  matchesAny( patterns, path, isCaseSensitive ), matcher.matchPath( path ) );
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testChildStatesMatchLikeTokenizedPatterns()
+    {
+        Random random = new Random( 2 );
+        for ( int run = 0; run < 200; run++ )
+        {
+            List<TokenizedPattern> patterns = new ArrayList<TokenizedPattern>();
+            patterns.add( new TokenizedPattern( join( PATTERN_TOKENS, random, 1 + random.nextInt( 4 ) ) ) );
+            patterns.add( new TokenizedPattern( join( PATTERN_TOKENS, random, 1 + random.nextInt( 4 ) ) ) );
+            ExcludeMatcher matcher = new ExcludeMatcher( patterns, true );
+
+            for ( int p = 0; p < 50; p++ )
+            {
+                String[] segments = join( PATH_TOKENS, random, 1 + random.nextInt( 5 ) ).split( "\\" + File.separator );
+                ExcludeMatcher.State state = matcher.root();
+                String path = "";
+                for ( String segment : segments )
+                {
+                    path = path.length() == 0 ? segment : path + File.separator + segment;
+                    assertEquals( patterns + " " + path, matchesAny( patterns, path, true ),
+                                  state.matchesChild( segment ) );
+                    state = state.child( segment );
+                    assertEquals( patterns + " " + path, matchesAny( patterns, path, true ), state.matches() );
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDefaultExcludes()
+    {
+        List<TokenizedPattern> patterns = new ArrayList<TokenizedPattern>();
+        for ( String exclude : DirectoryWalker.DEFAULTEXCLUDES )
+        {
+            patterns.add( new TokenizedPattern( exclude.replace( '/', File.separatorChar ) ) );
+        }
+        ExcludeMatcher matcher = new ExcludeMatcher( patterns, true );
+
+        String[] paths = { "org" + File.separator + ".svn", "org" + File.separator + ".svn" + File.separator + "entries",
+            "org" + File.separator + "foo.jar", "org" + File.separator + "foo.jar~", "CVS", ".DS_Store" };
+        for ( String path : paths )
+        {
+            assertEquals( path, matchesAny( patterns, path, true ), matcher.matchPath( path ) );
+        }
+    }
+
+    private static boolean matchesAny( List<TokenizedPattern> patterns, String path, boolean isCaseSensitive )
+    {
+        for ( TokenizedPattern pattern : patterns )
+        {
+            if ( pattern.matchPath( path, isCaseSensitive ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String join( String[] tokens, Random random, int count )
+    {
+        StringBuilder path = new StringBuilder();
+        for ( int i = 0; i < count; i++ )
+        {
+            if ( i > 0 )
+            {
+                path.append( File.separatorChar );
+            }
+            path.append( tokens[random.nextInt( tokens.length )] );
+        }
+        return path.toString();
+    }
+}
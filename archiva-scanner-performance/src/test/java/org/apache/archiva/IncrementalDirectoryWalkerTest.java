@@ -0,0 +1,218 @@
+package org.apache.archiva;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IncrementalDirectoryWalkerTest
+{
+    private File basedir;
+
+    private File manifest;
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        basedir = File.createTempFile( "incremental", "" );
+        basedir.delete();
+        manifest = new File( basedir.getPath() + ".manifest" );
+        for ( int d = 0; d < 5; d++ )
+        {
+            for ( int f = 0; f < 5; f++ )
+            {
+                touch( "org/group" + d + "/artifact-" + f + ".jar" );
+            }
+        }
+        touch( "org/group0/.svn/entries" );
+    }
+
+    @After
+    public void tearDown()
+        throws IOException
+    {
+        FileUtils.deleteDirectory( basedir );
+        manifest.delete();
+    }
+
+    @Test
+    public void testFirstWalkReportsEverythingAdded()
+    {
+        Changes changes = walk();
+        assertEquals( 25, changes.added.size() );
+        assertTrue( changes.added.contains( path( "org/group3/artifact-4.jar" ) ) );
+        assertEquals( 0, changes.removed.size() );
+        assertTrue( manifest.isFile() );
+    }
+
+    @Test
+    public void testUnchangedTreeReportsNothing()
+    {
+        walk();
+        Changes changes = walk();
+        assertEquals( 0, changes.added.size() );
+        assertEquals( 0, changes.removed.size() );
+    }
+
+    @Test
+    public void testAddedAndRemovedFilesAreReported()
+        throws IOException
+    {
+        walk();
+        touch( "org/group1/artifact-9.jar" );
+        touch( "org/group9/new.pom" );
+        new File( basedir, path( "org/group2/artifact-0.jar" ) ).delete();
+        FileUtils.deleteDirectory( new File( basedir, path( "org/group4" ) ) );
+
+        Changes changes = walk();
+        assertEquals( new TreeSet<String>( Arrays.asList( path( "org/group1/artifact-9.jar" ),
+                                                                    path( "org/group9/new.pom" ) ) ),
+                      changes.added );
+        Set<String> removed = new TreeSet<String>();
+        removed.add( path( "org/group2/artifact-0.jar" ) );
+        for ( int f = 0; f < 5; f++ )
+        {
+            removed.add( path( "org/group4/artifact-" + f + ".jar" ) );
+        }
+        assertEquals( removed, changes.removed );
+
+        changes = walk();
+        assertEquals( 0, changes.added.size() );
+        assertEquals( 0, changes.removed.size() );
+    }
+
+    @Test
+    public void testUnchangedDirectoriesAreNotListed()
+    {
+        age( basedir );
+        walk();
+
+        final int[] listings = { 0 };
+        IncrementalDirectoryWalker walker = new IncrementalDirectoryWalker()
+        {
+            @Override
+            protected String[] list( File dir )
+            {
+                listings[0]++;
+                return super.list( dir );
+            }
+        };
+        walker.setBaseDir( basedir );
+        walker.setManifestFile( manifest );
+        walker.addSCMExcludes();
+        walker.scan();
+        assertEquals( 0, listings[0] );
+    }
+
+    @Test
+    public void testChangedExcludesReportNewlyExcludedFilesRemoved()
+    {
+        walk();
+        IncrementalDirectoryWalker walker = walker();
+        walker.addExclude( "**/group1/**" );
+        Changes changes = new Changes();
+        walker.addDirectoryChangeListener( changes );
+        walker.scan();
+
+        assertEquals( 0, changes.added.size() );
+        assertEquals( 5, changes.removed.size() );
+    }
+
+    private Changes walk()
+    {
+        IncrementalDirectoryWalker walker = walker();
+        Changes changes = new Changes();
+        walker.addDirectoryChangeListener( changes );
+        walker.scan();
+        return changes;
+    }
+
+    private IncrementalDirectoryWalker walker()
+    {
+        IncrementalDirectoryWalker walker = new IncrementalDirectoryWalker();
+        walker.setBaseDir( basedir );
+        walker.setManifestFile( manifest );
+        walker.addSCMExcludes();
+        return walker;
+    }
+
+    /**
+     * Moves the modification times of the directories out of the interval the walker does not trust.
+     */
+    private static void age( File dir )
+    {
+        for ( File child : dir.listFiles() )
+        {
+            if ( child.isDirectory() )
+            {
+                age( child );
+            }
+        }
+        dir.setLastModified( System.currentTimeMillis() - 60000 );
+    }
+
+    private void touch( String path )
+        throws IOException
+    {
+        File file = new File( basedir, path( path ) );
+        file.getParentFile().mkdirs();
+        FileUtils.writeStringToFile( file, path );
+    }
+
+    private static String path( String path )
+    {
+        return path.replace( '/', File.separatorChar );
+    }
+
+    private class Changes
+        implements DirectoryChangeListener
+    {
+        private final Set<String> added = new TreeSet<String>();
+
+        private final Set<String> removed = new TreeSet<String>();
+
+        public void fileAdded( File file )
+        {
+            added.add( relative( file ) );
+        }
+
+        public void fileRemoved( File file )
+        {
+            removed.add( relative( file ) );
+        }
+
+        private String relative( File file )
+        {
+            return file.getAbsolutePath().substring( basedir.getAbsolutePath().length() + 1 );
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package org.apache.archiva;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RepositoryGeneratorTest
+{
+    private static final int FILES = 500;
+
+    private File basedir;
+
+    private File marker;
+
+    private File partial;
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        basedir = File.createTempFile( "corpus", "" );
+        basedir.delete();
+        marker = new File( basedir.getPath() + ".generated" );
+        partial = new File( basedir.getPath() + ".generating" );
+    }
+
+    @After
+    public void tearDown()
+        throws IOException
+    {
+        if ( basedir.isDirectory() )
+        {
+            FileUtils.deleteDirectory( basedir );
+        }
+        basedir.delete();
+        marker.delete();
+        partial.delete();
+    }
+
+    @Test
+    public void testCompletedCorpusIsReused()
+        throws IOException
+    {
+        RepositoryGenerator.ensureCorpus( basedir, FILES, 1 );
+        assertEquals( FILES, paths().size() );
+        assertTrue( marker.isFile() );
+        assertFalse( partial.exists() );
+
+        File removed = first();
+        removed.delete();
+        RepositoryGenerator.ensureCorpus( basedir, FILES, 1 );
+        assertFalse( removed.exists() );
+    }
+
+    @Test
+    public void testInterruptedRunIsCompleted()
+        throws IOException
+    {
+        RepositoryGenerator.ensureCorpus( basedir, FILES, 1 );
+        Set<String> expected = paths();
+
+        // what an interrupted run leaves behind: part of the tree and the settings of the run in progress
+        List<File> files = files( basedir, new ArrayList<File>() );
+        for ( int i = 0; i < files.size(); i += 3 )
+        {
+            files.get( i ).delete();
+        }
+        assertTrue( marker.renameTo( partial ) );
+
+        RepositoryGenerator.ensureCorpus( basedir, FILES, 1 );
+        assertEquals( expected, paths() );
+        assertTrue( marker.isFile() );
+        assertFalse( partial.exists() );
+    }
+
+    @Test
+    public void testOtherSettingsAreRefused()
+        throws IOException
+    {
+        RepositoryGenerator.ensureCorpus( basedir, FILES, 1 );
+        assertTrue( marker.renameTo( partial ) );
+        try
+        {
+            RepositoryGenerator.ensureCorpus( basedir, FILES, 2 );
+            fail( "Generated over a corpus with another seed" );
+        }
+        catch ( IllegalStateException e )
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void testUnknownDirectoryIsRefused()
+        throws IOException
+    {
+        FileUtils.writeStringToFile( new File( basedir, "keep.txt" ), "" );
+        try
+        {
+            RepositoryGenerator.ensureCorpus( basedir, FILES, 1 );
+            fail( "Generated into a directory that is not a corpus" );
+        }
+        catch ( IllegalStateException e )
+        {
+            // expected
+        }
+        assertEquals( 1, paths().size() );
+    }
+
+    @Test
+    public void testFileIsRefused()
+        throws IOException
+    {
+        FileUtils.writeStringToFile( basedir, "" );
+        try
+        {
+            RepositoryGenerator.ensureCorpus( basedir, FILES, 1 );
+            fail( "Generated into a file" );
+        }
+        catch ( IllegalStateException e )
+        {
+            // expected
+        }
+    }
+
+    private File first()
+    {
+        return files( basedir, new ArrayList<File>() ).get( 0 );
+    }
+
+    private Set<String> paths()
+    {
+        Set<String> paths = new TreeSet<String>();
+        for ( File file : files( basedir, new ArrayList<File>() ) )
+        {
+            paths.add( file.getPath() );
+        }
+        return paths;
+    }
+
+    private static List<File> files( File dir, List<File> files )
+    {
+        for ( File file : dir.listFiles() )
+        {
+            if ( file.isDirectory() )
+            {
+                files( file, files );
+            }
+            else
+            {
+                files.add( file );
+            }
+        }
+        return files;
+    }
+}
@@ -0,0 +1,242 @@
+package org.apache.archiva;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ScanSnapshotTest
+{
+    private static final String[] PATHS = {
+        "org/apache/archiva/archiva-1.0.jar",
+        "org/apache/archiva/archiva-1.0.pom",
+        "org/apache/archiva/archiva-1.0-sources.jar",
+        "org/apache/maven/maven-metadata.xml",
+        "org/caf\u00e9/caf\u00e9-1.0.jar",
+        "org/cafe/cafe-1.0.jar",
+        "org/\u65e5\u672c/\u30c6\u30b9\u30c8.pom",
+        "org/\ud83d\udce6/package.jar",
+        "z.txt" };
+
+    private File directory;
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        directory = File.createTempFile( "snapshot", "" );
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @After
+    public void tearDown()
+    {
+        for ( File file : directory.listFiles() )
+        {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testRoundTrip()
+        throws IOException
+    {
+        File file = new File( directory, "scan.snapshot" );
+        List<String> paths = new ArrayList<String>( Arrays.asList( PATHS ) );
+        Collections.shuffle( paths );
+        write( file, paths, 0 );
+
+        ScanSnapshot snapshot = ScanSnapshot.open( file );
+        assertEquals( PATHS.length, snapshot.size() );
+
+        List<String> expected = new ArrayList<String>( Arrays.asList( PATHS ) );
+        Collections.sort( expected, new Comparator<String>()
+        {
+            public int compare( String path1, String path2 )
+            {
+                byte[] b1 = utf8( path1 );
+                byte[] b2 = utf8( path2 );
+                return ScanSnapshot.compare( b1, b1.length, b2, b2.length );
+            }
+        } );
+
+        ScanSnapshot.Cursor cursor = snapshot.cursor();
+        for ( String path : expected )
+        {
+            assertTrue( cursor.next() );
+            assertEquals( path, cursor.getPath() );
+            assertEquals( length( path ), cursor.getLength() );
+            assertEquals( lastModified( path, 0 ), cursor.getLastModified() );
+        }
+        assertFalse( cursor.next() );
+    }
+
+    @Test
+    public void testEmptySnapshot()
+        throws IOException
+    {
+        File file = new File( directory, "empty.snapshot" );
+        write( file, Collections.<String>emptyList(), 0 );
+
+        ScanSnapshot snapshot = ScanSnapshot.open( file );
+        assertEquals( 0, snapshot.size() );
+        assertFalse( snapshot.cursor().next() );
+    }
+
+    @Test
+    public void testDiff()
+        throws IOException
+    {
+        File older = new File( directory, "older.snapshot" );
+        write( older, Arrays.asList( PATHS ).subList( 0, PATHS.length - 1 ), 0 );
+
+        List<String> paths = new ArrayList<String>( Arrays.asList( PATHS ).subList( 1, PATHS.length ) );
+        File newer = new File( directory, "newer.snapshot" );
+        write( newer, paths, 0 );
+        ScanSnapshotDiff diff = ScanSnapshot.open( older ).diff( ScanSnapshot.open( newer ) );
+        assertEquals( Arrays.asList( "z.txt" ), diff.getAdded() );
+        assertEquals( Arrays.asList( PATHS[0] ), diff.getRemoved() );
+        assertTrue( diff.getChanged().isEmpty() );
+
+        write( newer, Arrays.asList( PATHS ).subList( 0, PATHS.length - 1 ), 1 );
+        diff = ScanSnapshot.open( older ).diff( ScanSnapshot.open( newer ) );
+        assertTrue( diff.getAdded().isEmpty() );
+        assertTrue( diff.getRemoved().isEmpty() );
+        List<String> changed = new ArrayList<String>();
+        for ( String path : PATHS )
+        {
+            if ( lastModified( path, 0 ) != lastModified( path, 1 ) )
+            {
+                changed.add( path );
+            }
+        }
+        assertEquals( new TreeSet<String>( changed ), new TreeSet<String>( diff.getChanged() ) );
+        assertTrue( diff.getChanged().contains( "org/\u65e5\u672c/\u30c6\u30b9\u30c8.pom" ) );
+    }
+
+    @Test
+    public void testSpilledRunsAreMerged()
+        throws IOException
+    {
+        List<String> paths = new ArrayList<String>( Arrays.asList( PATHS ) );
+        Collections.shuffle( paths );
+        File inMemory = new File( directory, "memory.snapshot" );
+        write( inMemory, paths, 0, ScanSnapshotWriter.DEFAULT_RUN_SIZE );
+        File merged = new File( directory, "merged.snapshot" );
+        write( merged, paths, 0, 2 );
+
+        assertTrue( Arrays.equals( FileUtils.readFileToByteArray( inMemory ),
+                                   FileUtils.readFileToByteArray( merged ) ) );
+        assertEquals( new TreeSet<String>( Arrays.asList( "memory.snapshot", "merged.snapshot" ) ),
+                      new TreeSet<String>( Arrays.asList( directory.list() ) ) );
+    }
+
+    @Test
+    public void testEntriesSpanWindows()
+        throws IOException
+    {
+        File file = new File( directory, "scan.snapshot" );
+        write( file, Arrays.asList( PATHS ), 0 );
+
+        for ( int windowSize : new int[]{ 1, 3, 8, 13, 64 } )
+        {
+            ScanSnapshot.Cursor expected = ScanSnapshot.open( file ).cursor();
+            ScanSnapshot.Cursor actual = ScanSnapshot.open( file, windowSize ).cursor();
+            while ( expected.next() )
+            {
+                assertTrue( actual.next() );
+                assertEquals( expected.getPath(), actual.getPath() );
+                assertEquals( expected.getLength(), actual.getLength() );
+                assertEquals( expected.getLastModified(), actual.getLastModified() );
+            }
+            assertFalse( actual.next() );
+        }
+    }
+
+    private static void write( File file, List<String> paths, int generation )
+    {
+        write( file, paths, generation, ScanSnapshotWriter.DEFAULT_RUN_SIZE );
+    }
+
+    /**
+     * Writes a snapshot as a walk delivering the paths would. Paths with an even length change their modification
+     * time with the generation.
+     */
+    private static void write( File file, List<String> paths, int generation, int runSize )
+    {
+        File basedir = new File( "/repository" );
+        ScanSnapshotWriter writer = new ScanSnapshotWriter( file );
+        writer.setRunSize( runSize );
+        writer.directoryWalkStarting( basedir );
+        WalkBatch batch = new WalkBatch( basedir, 4 );
+        for ( String path : paths )
+        {
+            if ( batch.add( path.replace( '/', File.separatorChar ), null, length( path ),
+                            lastModified( path, generation ) ) )
+            {
+                writer.directoryWalkBatch( batch );
+                batch.clear();
+            }
+        }
+        writer.directoryWalkBatch( batch );
+        writer.directoryWalkFinished();
+    }
+
+    private static long length( String path )
+    {
+        // beyond 32 bits, to exercise the variable length encoding
+        return path.hashCode() & 0xFFFFFFFFFL;
+    }
+
+    private static long lastModified( String path, int generation )
+    {
+        return 1262304000000L + path.length() * 1000L + ( path.length() % 2 == 0 ? generation : 0 );
+    }
+
+    private static byte[] utf8( String path )
+    {
+        try
+        {
+            return path.getBytes( "UTF-8" );
+        }
+        catch ( UnsupportedEncodingException e )
+        {
+            throw new IllegalStateException( e );
+        }
+    }
+}